@@ -0,0 +1,117 @@
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Headless entry point which renders saved doily documents to PNG files, without opening a window
+ * Usage: java BatchRenderer [-threads n] [-out directory] [-scale s] document...
+ * Each document is rendered on a fixed pool of worker threads, one per core unless -threads is given
+ * Only a lone document is split into bands drawn in parallel, as otherwise the workers already use every thread
+ * With -scale, each is rendered that many times larger and streamed to its file a band at a time, for printing
+ */
+
+public class BatchRenderer {
+    public static void main(String[] args) throws InterruptedException {
+        //must be set before anything touches AWT
+        System.setProperty("java.awt.headless", "true");
+
+        int iThreads = Runtime.getRuntime().availableProcessors();
+        File fOutDirectory = null;
+        double dScale = 1;
+        ArrayList<File> alDocuments = new ArrayList<>();
+
+        for(int i = 0 ; i < args.length ; i++) {
+            if(args[i].equals("-threads") && i + 1 < args.length) {
+                iThreads = Integer.parseInt(args[++i]);
+            }
+            else if(args[i].equals("-out") && i + 1 < args.length) {
+                fOutDirectory = new File(args[++i]);
+            }
+            else if(args[i].equals("-scale") && i + 1 < args.length) {
+                dScale = Double.parseDouble(args[++i]);
+            }
+            else {
+                alDocuments.add(new File(args[i]));
+            }
+        }
+
+        if(alDocuments.isEmpty()) {
+            System.err.println("Usage: java BatchRenderer [-threads n] [-out directory] [-scale s] document...");
+            System.exit(2);
+        }
+
+        System.exit(renderAll(alDocuments, fOutDirectory, iThreads, dScale) ? 0 : 1);
+    }
+
+    /**
+     * Renders every document on a fixed pool of threads, carrying on past any which fail
+     * @param alDocuments The documents to render
+     * @param fOutDirectory Where to write the images, or null to write each next to its document
+     * @param iThreads The number of worker threads
+     * @param dScale How many times larger than its canvas to render each document
+     * @return true if every document was rendered
+     */
+    public static boolean renderAll(ArrayList<File> alDocuments, File fOutDirectory, int iThreads, double dScale) throws InterruptedException {
+        //with the documents drawn side by side, splitting each into bands as well would only have the threads fight over the cores
+        int iWorkers = Math.max(1, Math.min(iThreads, alDocuments.size()));
+        ExecutorService esWorkers = Executors.newFixedThreadPool(iWorkers);
+        ForkJoinPool fjpBands = iWorkers == 1 && iThreads > 1 ? new ForkJoinPool(iThreads) : null;
+        ArrayList<Future<File>> alResults = new ArrayList<>();
+        boolean bAllRendered = true;
+
+        if(fOutDirectory != null) {
+            fOutDirectory.mkdirs();
+        }
+        for(File fDocument : alDocuments) {
+            alResults.add(esWorkers.submit(() -> renderOne(fDocument, fOutDirectory, dScale, fjpBands)));
+        }
+
+        for(int i = 0 ; i < alResults.size() ; i++) {
+            try {
+                System.out.println(alResults.get(i).get());
+            }
+            catch(ExecutionException e) {
+                System.err.println(alDocuments.get(i) + ": " + e.getCause().getMessage());
+                bAllRendered = false;
+            }
+        }
+        esWorkers.shutdown();
+        if(fjpBands != null) {
+            fjpBands.shutdown();
+        }
+
+        return bAllRendered;
+    }
+
+    /**
+     * Renders a single document to a PNG with the same name
+     * @param fDocument The document to render
+     * @param fOutDirectory Where to write the image, or null to write it next to the document
+     * @param dScale How many times larger than its canvas to render it
+     * @param fjpBands The pool to draw its bands on, or null to draw it all on this thread
+     * @return The image file written
+     * @throws IOException If the document can't be read or the image can't be written
+     */
+    private static File renderOne(File fDocument, File fOutDirectory, double dScale, ForkJoinPool fjpBands) throws IOException {
+        String sName = fDocument.getName();
+        if(sName.lastIndexOf('.') > 0) {
+            sName = sName.substring(0, sName.lastIndexOf('.'));
+        }
+        File fImage = new File(fOutDirectory != null ? fOutDirectory : fDocument.getAbsoluteFile().getParentFile(), sName + ".png");
+
+        //at its own size the whole image is small enough to draw in one go, split across cores if there are any spare
+        if(dScale == 1) {
+            ImageIO.write(DoilyRenderer.render(DoilyDocument.read(fDocument), fjpBands), "png", fImage);
+        }
+        else {
+            DoilyExporter.exportPng(DoilyDocument.read(fDocument), dScale, fImage);
+        }
+        return fImage;
+    }
+}
@@ -1,5 +1,9 @@
+import javax.management.JMException;
 import javax.swing.*;
 import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 /**
  * Initialises all the main parts of the GUI, and connects them together via constructors.
@@ -18,6 +22,25 @@ public class CoreWindow extends JFrame {
         GalleryPanel gallery = new GalleryPanel(drawing);
         SettingsPanel settings = new SettingsPanel(drawing, gallery);
 
+        //the frame time to keep to while the settings are changing, if not the default
+        Integer iFrameBudget = Integer.getInteger("doily.frameBudgetMillis");
+        if(iFrameBudget != null) {
+            drawing.setFrameBudget(iFrameBudget);
+        }
+
+        //frames are drawn on a thread of their own unless asked not to, so the mouse never waits for a slow one
+        if(Boolean.parseBoolean(System.getProperty("doily.renderThread", "true"))) {
+            drawing.startRenderThread(RenderLoop.DEFAULT_FRAME_NANOS);
+        }
+
+        //the metrics can still be recorded with JFR if JMX won't take them, so carry on without
+        try {
+            drawing.getMetrics().register("doily:type=DrawingPanel");
+        }
+        catch(JMException e) {
+            System.err.println("Could not register the drawing metrics: " + e.getMessage());
+        }
+
         jpContainer.setLayout(new BorderLayout());
 
         jpContainer.add(settings, BorderLayout.WEST);
@@ -26,6 +49,25 @@ public class CoreWindow extends JFrame {
         this.pack();
         this.setResizable(false);
         this.setVisible(true);
+
+        //record the session if asked to, so a problem can be replayed later with SessionReplayer
+        String sRecording = System.getProperty("doily.record");
+        if(sRecording != null) {
+            try {
+                drawing.startRecording(new BufferedOutputStream(new FileOutputStream(sRecording)));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        drawing.stopRecording();
+                    }
+                    catch(IOException e) {
+                        System.err.println("Could not finish the session recording: " + e.getMessage());
+                    }
+                }));
+            }
+            catch(IOException e) {
+                JOptionPane.showMessageDialog(this, "Could not record the session: " + e.getMessage(), "Record Session", JOptionPane.ERROR_MESSAGE);
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,993 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.ImageIcon;
+
+/**
+ * Standalone benchmarks for the doily, run with "java DoilyBenchmark [benchmark...]"
+ * With no arguments every benchmark is run, otherwise only the ones named, e.g. "java DoilyBenchmark export"
+ * Prints the results to standard output, so runs can be compared against each other.
+ * The paint, erase and gallery save suite is run with JMH instead, see SuiteBenchmark
+ */
+
+public class DoilyBenchmark {
+    private static final int POINTS = 1_000_000;
+    private static final int POINTS_PER_STROKE = 500;
+
+    private static final int PAINTS = 200;
+
+    //looked up once, as looking it up allocates more than some of the code being measured
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        List<String> lNames = Arrays.asList(args);
+        if(lNames.isEmpty() || lNames.contains("storage")) {
+            benchmarkPointStorage();
+        }
+        if(lNames.isEmpty() || lNames.contains("dirty")) {
+            benchmarkDirtyRegion();
+        }
+        if(lNames.isEmpty() || lNames.contains("erase")) {
+            benchmarkErase();
+        }
+        if(lNames.isEmpty() || lNames.contains("format")) {
+            benchmarkDocumentFormat();
+        }
+        if(lNames.isEmpty() || lNames.contains("capture")) {
+            benchmarkCapture();
+        }
+        if(lNames.isEmpty() || lNames.contains("simplify")) {
+            benchmarkSimplify();
+        }
+        if(lNames.isEmpty() || lNames.contains("thumbnail")) {
+            benchmarkThumbnail();
+        }
+        if(lNames.isEmpty() || lNames.contains("gallery")) {
+            benchmarkGallery();
+        }
+        if(lNames.isEmpty() || lNames.contains("tiles")) {
+            benchmarkTiles();
+        }
+        if(lNames.isEmpty() || lNames.contains("export")) {
+            benchmarkExport();
+        }
+        if(lNames.isEmpty() || lNames.contains("svg")) {
+            benchmarkSvg();
+        }
+        if(lNames.isEmpty() || lNames.contains("stamp")) {
+            benchmarkStamp();
+        }
+        if(lNames.isEmpty() || lNames.contains("scrub")) {
+            benchmarkScrub();
+        }
+        if(lNames.isEmpty() || lNames.contains("replay")) {
+            benchmarkReplay();
+        }
+        if(lNames.isEmpty() || lNames.contains("undo")) {
+            benchmarkUndo();
+        }
+        if(lNames.isEmpty() || lNames.contains("layers")) {
+            benchmarkLayers();
+        }
+        if(lNames.isEmpty() || lNames.contains("frames")) {
+            benchmarkFrames();
+        }
+        if(lNames.isEmpty() || lNames.contains("cull")) {
+            benchmarkCull();
+        }
+    }
+
+    /**
+     * Compares the heap used by a document stored as boxed Points against the packed DraggedPoints,
+     * and checks how much is allocated when appending points while dragging
+     */
+    private static void benchmarkPointStorage() {
+        Random r = new Random(42);
+
+        //the old layout, one Point object per sample in an ArrayList per stroke
+        long lBefore = usedHeap();
+        ArrayList<ArrayList<Point>> alBoxed = new ArrayList<>();
+        for(int i = 0 ; i < POINTS / POINTS_PER_STROKE ; i++) {
+            ArrayList<Point> alStroke = new ArrayList<>();
+            for(int j = 0 ; j < POINTS_PER_STROKE ; j++) {
+                alStroke.add(new Point(r.nextInt(800), r.nextInt(750)));
+            }
+            alBoxed.add(alStroke);
+        }
+        long lBoxed = usedHeap() - lBefore;
+        alBoxed = null;
+
+        //the packed layout, trimmed as it is when a stroke is committed
+        lBefore = usedHeap();
+        ArrayList<DraggedPoints> alPacked = new ArrayList<>();
+        for(int i = 0 ; i < POINTS / POINTS_PER_STROKE ; i++) {
+            DraggedPoints d = new DraggedPoints(5, Color.RED, false, false);
+            for(int j = 0 ; j < POINTS_PER_STROKE ; j++) {
+                d.addPoint(r.nextInt(800), r.nextInt(750));
+            }
+            d.trimToSize();
+            alPacked.add(d);
+        }
+        long lPacked = usedHeap() - lBefore;
+
+        System.out.printf("point storage, %d points: boxed %.1f MiB (%.1f bytes/point), packed %.1f MiB (%.1f bytes/point)%n"
+                , POINTS
+                , lBoxed / 1048576.0, (double) lBoxed / POINTS
+                , lPacked / 1048576.0, (double) lPacked / POINTS);
+
+        //appending to a stroke with spare capacity should not allocate at all
+        DraggedPoints dAppend = new DraggedPoints(new int[POINTS * 2], 0, 5, Color.RED, false, false);
+        long lAllocated = allocatedBytes();
+        for(int i = 0 ; i < POINTS ; i++) {
+            dAppend.addPoint(i, i);
+        }
+        lAllocated = allocatedBytes() - lAllocated;
+        System.out.printf("append, %d points: %d bytes allocated%n", POINTS, lAllocated);
+
+        //keep the document reachable until it has been measured
+        if(alPacked.size() + dAppend.getPointCount() == 0) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Compares repainting the whole panel against repainting only the region changed by the latest mouse event,
+     * for a stroke being dragged across a panel that already has strokes on it
+     */
+    private static void benchmarkDirtyRegion() {
+        for(int iSectors : new int[] {1, 4, 12}) {
+            DrawingPanel dp = createPanel(iSectors, 200, 50);
+            DrawingPanel.DragListener listener = dp.new DragListener();
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+            //drag a short stroke so there is something live to draw
+            listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, 500, 300));
+            for(int i = 1 ; i <= 100 ; i++) {
+                listener.mouseDragged(mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, 500 + i, 300 + i / 2));
+            }
+
+            Rectangle rFull = new Rectangle(0, 0, dp.getWidth(), dp.getHeight());
+            //the region the listener asks to repaint for the last line dragged
+            DraggedPoints dLast = new DraggedPoints(5, Color.RED, false, false);
+            dLast.addPoint(599, 349);
+            dLast.addPoint(600, 350);
+            Rectangle rDirty = dp.getDirtyRegion(dLast, 1);
+            double dFull = timePaints(dp, image, rFull);
+            double dDirty = timePaints(dp, image, rDirty);
+
+            System.out.printf("dirty region, %d sectors: full %.3f ms/paint, dirty %.3f ms/paint, %.2f%% of the area%n"
+                    , iSectors, dFull, dDirty
+                    , 100.0 * rDirty.width * rDirty.height / (rFull.width * rFull.height));
+        }
+    }
+
+    /**
+     * Times erasing a short gesture across a 500k point document
+     * Erasing happens on the eraser thread as the mouse moves, so this reports the longest any mouse event was held up,
+     * and how long after the release the erase was finished
+     */
+    private static void benchmarkErase() {
+        //the first round only warms up the JIT, so the first sector count isn't penalised
+        for(int iRound = 0 ; iRound < 2 ; iRound++) {
+            for(int iSectors : new int[] {1, 12, 60}) {
+                DrawingPanel dp = createPanel(iSectors, 1000, 500);
+                DrawingPanel.DragListener listener = dp.new DragListener();
+                dp.setErasing(true);
+                dp.setStrokeSize(20);
+
+                //the first erases build the index, so time the last ten
+                double dTotal = 0;
+                double dLongestEvent = 0;
+                for(int i = 0 ; i < 20 ; i++) {
+                    long lStart = System.nanoTime();
+                    listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, 20 + i * 35, 100));
+                    double dEvent = (System.nanoTime() - lStart) / 1e6;
+                    for(int j = 1 ; j < 50 ; j++) {
+                        lStart = System.nanoTime();
+                        listener.mouseDragged(mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, 20 + i * 35 + j, 100 + j * 5));
+                        dEvent = Math.max(dEvent, (System.nanoTime() - lStart) / 1e6);
+                    }
+                    lStart = System.nanoTime();
+                    listener.mouseReleased(mouseEvent(dp, MouseEvent.MOUSE_RELEASED, 70 + i * 35, 350));
+                    dp.waitForEraser();
+                    if(i >= 10) {
+                        dTotal += (System.nanoTime() - lStart) / 1e6;
+                        dLongestEvent = Math.max(dLongestEvent, dEvent);
+                    }
+                }
+
+                if(iRound == 1) {
+                    System.out.printf("erase, 500000 points, %d sectors: longest mouse event %.3f ms, finished %.3f ms after release%n"
+                            , iSectors, dLongestEvent, dTotal / 10);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the size of a 1M point document in the binary format against Java serialization, and times loading it
+     * The documents aren't serializable, so the same values are serialized here as each stroke's settings and an int array of its points
+     */
+    private static void benchmarkDocumentFormat() throws IOException {
+        DrawingPanel dp = createPanel(12, POINTS / POINTS_PER_STROKE, POINTS_PER_STROKE);
+        DoilyDocument ddDocument = dp.getDocument();
+        File fBinary = File.createTempFile("benchmark", ".doily");
+        File fSerialized = File.createTempFile("benchmark", ".ser");
+        fBinary.deleteOnExit();
+        fSerialized.deleteOnExit();
+
+        long lStart = System.nanoTime();
+        ddDocument.write(fBinary);
+        double dWrite = (System.nanoTime() - lStart) / 1e6;
+        try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(fSerialized)))) {
+            out.writeInt(ddDocument.getLayers().get(0).getSectors());
+            out.writeInt(ddDocument.getWidth());
+            out.writeInt(ddDocument.getHeight());
+            out.writeBoolean(ddDocument.getLayers().get(0).isDrawingLines());
+            out.writeInt(ddDocument.getLayers().get(0).getStrokes().size());
+            for(DraggedPoints d : ddDocument.getLayers().get(0).getStrokes()) {
+                int[] iaPoints = new int[d.getPointCount() * 2];
+                for(int i = 0 ; i < d.getPointCount() ; i++) {
+                    iaPoints[i * 2] = d.getX(i);
+                    iaPoints[i * 2 + 1] = d.getY(i);
+                }
+                out.writeInt(d.getiSize());
+                out.writeObject(d.getcPointsColor());
+                out.writeBoolean(d.isbReflected());
+                out.writeBoolean(d.isbEraser());
+                out.writeObject(iaPoints);
+            }
+        }
+
+        //load a few times so the last one is warmed up
+        double dRead = 0;
+        for(int i = 0 ; i < 5 ; i++) {
+            lStart = System.nanoTime();
+            DoilyDocument.read(fBinary);
+            dRead = (System.nanoTime() - lStart) / 1e6;
+        }
+
+        System.out.printf("document format, %d points: binary %.2f MiB (%.2f bytes/point), serialized %.2f MiB, write %.1f ms, read %.1f ms%n"
+                , POINTS
+                , fBinary.length() / 1048576.0, (double) fBinary.length() / POINTS
+                , fSerialized.length() / 1048576.0
+                , dWrite, dRead);
+    }
+
+    /**
+     * Drags slowly with a high rate mouse, many events per frame and most of them less than a pixel apart,
+     * comparing keeping every sample against dropping the ones too close together
+     * Reports the allocation while handling the events, and the time spent painting a frame every 16 events
+     */
+    private static void benchmarkCapture() {
+        //the first round only warms up the JIT
+        for(int iRound = 0 ; iRound < 2 ; iRound++) {
+            for(double dMinDistance : new double[] {0, 2}) {
+                DrawingPanel dp = createPanel(12, 0, 0);
+                dp.setMinSampleDistance(dMinDistance);
+                DrawingPanel.DragListener listener = dp.new DragListener();
+                BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+                int iEvents = 8000;
+
+                long lAllocated = 0;
+                long lPaintNanos = 0;
+                double dX = 200;
+                double dY = 200;
+                listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, (int) dX, (int) dY));
+                for(int i = 1 ; i < iEvents ; i++) {
+                    dX += 0.05 + 0.3 * Math.cos(i / 500.0);
+                    dY += 0.3 * Math.sin(i / 700.0);
+                    MouseEvent e = mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, (int) Math.round(dX), (int) Math.round(dY));
+                    long lBefore = allocatedBytes();
+                    listener.mouseDragged(e);
+                    lAllocated += allocatedBytes() - lBefore;
+
+                    if(i % 16 == 0) {
+                        long lStart = System.nanoTime();
+                        Graphics2D g2d = image.createGraphics();
+                        dp.paint(g2d);
+                        g2d.dispose();
+                        lPaintNanos += System.nanoTime() - lStart;
+                    }
+                }
+                listener.mouseReleased(mouseEvent(dp, MouseEvent.MOUSE_RELEASED, (int) Math.round(dX), (int) Math.round(dY)));
+                //the stroke is simplified as it is committed, so add back the points that took out
+                List<DraggedPoints> lStrokes = dp.getDocument().getLayers().get(0).getStrokes();
+                long lPoints = lStrokes.get(lStrokes.size() - 1).getPointCount() + dp.getSimplifiedPoints();
+
+                if(iRound == 1) {
+                    System.out.printf("capture, %d events, min distance %.0f: %d points captured, %.1f bytes/event, %.3f ms/frame%n"
+                            , iEvents, dMinDistance, lPoints
+                            , (double) lAllocated / iEvents
+                            , lPaintNanos / 1e6 / (iEvents / 16));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the points kept and the time for a full paint when slow, smooth drags are committed as they were sampled,
+     * against when they are simplified on release
+     */
+    private static void benchmarkSimplify() {
+        long[] laPoints = new long[2];
+        double[] daPaint = new double[2];
+        long lRemoved = 0;
+        for(int iPanel = 0 ; iPanel < 2 ; iPanel++) {
+            DrawingPanel dp = new DrawingPanel();
+            dp.setSize(dp.getPreferredSize());
+            //keep every sample, so only simplifying is measured
+            dp.setMinSampleDistance(0);
+            if(iPanel == 0) {
+                dp.setSimplifyTolerance(0);
+            }
+            DrawingPanel.DragListener listener = dp.new DragListener();
+
+            //drags which turn gently, a pixel or two between samples, as the mouse gives when moved slowly
+            Random r = new Random(42);
+            for(int i = 0 ; i < 100 ; i++) {
+                dp.setStrokeSize(1 + r.nextInt(20));
+                double dX = r.nextInt(dp.getWidth());
+                double dY = r.nextInt(dp.getHeight());
+                double dAngle = r.nextDouble() * Math.PI * 2;
+                listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, (int) dX, (int) dY));
+                for(int j = 1 ; j < 300 ; j++) {
+                    dAngle += (r.nextDouble() - 0.5) * 0.2;
+                    dX = Math.max(0, Math.min(dp.getWidth() - 1, dX + Math.cos(dAngle) * 1.5));
+                    dY = Math.max(0, Math.min(dp.getHeight() - 1, dY + Math.sin(dAngle) * 1.5));
+                    listener.mouseDragged(mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, (int) Math.round(dX), (int) Math.round(dY)));
+                }
+                listener.mouseReleased(mouseEvent(dp, MouseEvent.MOUSE_RELEASED, (int) Math.round(dX), (int) Math.round(dY)));
+            }
+            for(DraggedPoints d : dp.getDocument().getLayers().get(0).getStrokes()) {
+                laPoints[iPanel] += d.getPointCount();
+            }
+            lRemoved = dp.getSimplifiedPoints();
+
+            //full paints, with the cache thrown away each time
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            long lStart = 0;
+            for(int i = 0 ; i < 10 ; i++) {
+                if(i == 5) {
+                    lStart = System.nanoTime();
+                }
+                dp.invalidateCache();
+                Graphics2D g2d = image.createGraphics();
+                dp.paint(g2d);
+                g2d.dispose();
+            }
+            daPaint[iPanel] = (System.nanoTime() - lStart) / 1e6 / 5;
+        }
+
+        System.out.printf("simplify, 30000 points, 12 sectors: raw %d points (%d KiB), %.1f ms/paint, simplified %d points (%d KiB), %.1f ms/paint, %d removed%n"
+                , laPoints[0], laPoints[0] * 8 / 1024, daPaint[0]
+                , laPoints[1], laPoints[1] * 8 / 1024, daPaint[1]
+                , lRemoved);
+    }
+
+    /**
+     * Fills galleries of different sizes and pages through every entry, checking the heap held afterwards stays flat
+     * however many entries there are, and timing how long a page takes to load from disk
+     */
+    private static void benchmarkGallery() throws IOException {
+        BufferedImage biThumbnail = GalleryPanel.createThumbnail(GalleryPanel.snapshot(createPanel(12, 200, 100)));
+        for(int iEntries : new int[] {30, 300}) {
+            File fDirectory = java.nio.file.Files.createTempDirectory("benchmark-gallery").toFile();
+            long lBefore = usedHeap();
+            GalleryStore gsStore = new GalleryStore(fDirectory, 8L * 1024 * 1024);
+            for(int i = 0 ; i < iEntries ; i++) {
+                gsStore.add(biThumbnail);
+            }
+
+            //reopen it, as the gallery would be when the program starts, and read every page
+            gsStore = new GalleryStore(fDirectory, 8L * 1024 * 1024);
+            long lStart = System.nanoTime();
+            for(int iPage = 0 ; iPage * 6 < iEntries ; iPage++) {
+                for(int iId : gsStore.getIds(iPage * 6, 6)) {
+                    gsStore.getThumbnail(iId);
+                }
+            }
+            double dPage = (System.nanoTime() - lStart) / 1e6 / ((iEntries + 5) / 6);
+            long lHeld = usedHeap() - lBefore;
+
+            System.out.printf("gallery, %d entries: %.1f MiB held, %.1f MiB in the cache, %.1f ms to load a page%n"
+                    , iEntries, lHeld / 1048576.0, gsStore.getCacheBytes() / 1048576.0, dPage);
+
+            for(File f : fDirectory.listFiles()) {
+                f.delete();
+            }
+            fDirectory.delete();
+        }
+    }
+
+    /**
+     * Times rendering a whole 60 sector document with the bands drawn on pools of different sizes
+     * The speed up is limited by the cores available, which are printed alongside
+     */
+    private static void benchmarkTiles() {
+        DoilyDocument ddDocument = createPanel(60, 200, 100).getDocument();
+        SectorTransforms stfTransforms = new SectorTransforms(ddDocument.getLayers().get(0).getSectors(), ddDocument.getWidth(), ddDocument.getHeight());
+        BufferedImage image = new BufferedImage(ddDocument.getWidth(), ddDocument.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Rectangle rFull = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+
+        for(int iThreads : new int[] {1, 2, 4, 8}) {
+            ForkJoinPool fjpPool = new ForkJoinPool(iThreads);
+            DoilyRenderer drRenderer = new DoilyRenderer(stfTransforms, fjpPool);
+            long lStart = 0;
+            for(int i = 0 ; i < 6 ; i++) {
+                //the first two only warm up
+                if(i == 2) {
+                    lStart = System.nanoTime();
+                }
+                drRenderer.renderRegion(image, rFull, ddDocument.getLayers().get(0).getStrokes(), true, Color.BLACK);
+            }
+            fjpPool.shutdown();
+
+            System.out.printf("tiles, 20000 points, 60 sectors, %d threads on %d cores: %.1f ms/render%n"
+                    , iThreads, Runtime.getRuntime().availableProcessors()
+                    , (System.nanoTime() - lStart) / 1e6 / 4);
+        }
+    }
+
+    /**
+     * Compares the old gallery thumbnail, painted and scaled with getScaledInstance all on the EDT, against the copy
+     * taken on the EDT now with the bilinear scaling left to a worker
+     */
+    private static void benchmarkThumbnail() {
+        DrawingPanel dp = createPanel(12, 200, 100);
+        double dOld = 0;
+        double dEdt = 0;
+        double dWorker = 0;
+        for(int i = 0 ; i < 40 ; i++) {
+            //the first half only warm up
+            long lStart = System.nanoTime();
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            dp.paint(image.getGraphics());
+            new ImageIcon(image.getScaledInstance(dp.getWidth() / 2, dp.getHeight() / 2, Image.SCALE_DEFAULT));
+            long lOld = System.nanoTime() - lStart;
+
+            lStart = System.nanoTime();
+            BufferedImage biSnapshot = GalleryPanel.snapshot(dp);
+            long lEdt = System.nanoTime() - lStart;
+            lStart = System.nanoTime();
+            new ImageIcon(GalleryPanel.createThumbnail(biSnapshot));
+            long lWorker = System.nanoTime() - lStart;
+
+            if(i >= 20) {
+                dOld += lOld / 1e6 / 20;
+                dEdt += lEdt / 1e6 / 20;
+                dWorker += lWorker / 1e6 / 20;
+            }
+        }
+        System.out.printf("thumbnail, 12 sectors: getScaledInstance %.2f ms on the EDT, now %.2f ms on the EDT and %.2f ms on the worker%n"
+                , dOld, dEdt, dWorker);
+    }
+
+    /**
+     * Exports a document at growing scales to a stream which throws the bytes away, timing each one and measuring the
+     * peak heap used against what a single image of that size would need
+     */
+    private static void benchmarkExport() throws IOException {
+        DoilyDocument ddDocument = createPanel(12, 200, 100).getDocument();
+        OutputStream osNowhere = OutputStream.nullOutputStream();
+        //warm up at a small size first
+        DoilyExporter.exportPng(ddDocument, 1, DoilyExporter.DEFAULT_BAND_HEIGHT, osNowhere);
+
+        for(int iScale : new int[] {2, 5, 10}) {
+            long lBefore = usedHeap();
+            for(MemoryPoolMXBean mpmb : ManagementFactory.getMemoryPoolMXBeans()) {
+                mpmb.resetPeakUsage();
+            }
+            long lStart = System.nanoTime();
+            DoilyExporter.exportPng(ddDocument, iScale, DoilyExporter.DEFAULT_BAND_HEIGHT, osNowhere);
+            long lNanos = System.nanoTime() - lStart;
+
+            //the peaks of each pool didn't all happen at once, so this is an upper bound
+            long lPeak = 0;
+            for(MemoryPoolMXBean mpmb : ManagementFactory.getMemoryPoolMXBeans()) {
+                if(mpmb.getType() == MemoryType.HEAP) {
+                    lPeak += mpmb.getPeakUsage().getUsed();
+                }
+            }
+            int iWidth = ddDocument.getWidth() * iScale;
+            int iHeight = ddDocument.getHeight() * iScale;
+            System.out.printf("export, 20000 points, 12 sectors, %dx%d: %.0f ms, peak heap at most %.1f MiB over the %.1f MiB before, a whole ARGB image would be %.1f MiB%n"
+                    , iWidth, iHeight, lNanos / 1e6
+                    , Math.max(0, lPeak - lBefore) / 1048576.0, lBefore / 1048576.0
+                    , (long) iWidth * iHeight * 4 / 1048576.0);
+        }
+    }
+
+    /**
+     * Compares the size of the SVG export, where each stroke is written once and instanced into every sector,
+     * against writing every copy of every stroke out in full, and against the PNG of the same doily
+     */
+    private static void benchmarkSvg() throws IOException {
+        for(int iSectors : new int[] {12, 60}) {
+            for(int iStrokes : new int[] {20, 200}) {
+                DoilyDocument ddDocument = createPanel(iSectors, iStrokes, 100).getDocument();
+                long lStart = 0;
+                StringWriter swSvg = null;
+                for(int i = 0 ; i < 6 ; i++) {
+                    //the first two only warm up
+                    if(i == 2) {
+                        lStart = System.nanoTime();
+                    }
+                    swSvg = new StringWriter();
+                    SvgExporter.exportSvg(ddDocument, swSvg);
+                }
+                long lNanos = (System.nanoTime() - lStart) / 4;
+                String sSvg = swSvg.toString();
+
+                //every copy in full is about the strokes written once, times the copies of each
+                long lStrokeBytes = 0;
+                long lCopyBytes = 0;
+                int iStroke = 0;
+                for(String sLine : sSvg.split("\n")) {
+                    if(sLine.startsWith("<path") || sLine.startsWith("<circle")) {
+                        boolean bReflected = ddDocument.getLayers().get(0).getStrokes().get(iStroke++).isbReflected();
+                        lStrokeBytes += sLine.length() + 1;
+                        lCopyBytes += (long) (sLine.length() + 1) * iSectors * (bReflected ? 2 : 1);
+                    }
+                }
+                ByteArrayOutputStream baosPng = new ByteArrayOutputStream();
+                DoilyExporter.exportPng(ddDocument, 1, DoilyExporter.DEFAULT_BAND_HEIGHT, baosPng);
+
+                System.out.printf("svg, %d sectors, %d strokes: %.1f ms, %d KiB with %d uses (%d KiB of strokes), at most %d KiB with every copy written out, PNG %d KiB%n"
+                        , iSectors, iStrokes, lNanos / 1e6, sSvg.length() / 1024
+                        , sSvg.split("<use").length - 1, lStrokeBytes / 1024, lCopyBytes / 1024, baosPng.size() / 1024);
+            }
+        }
+    }
+
+    /**
+     * Times a full redraw drawing every sector against drawing the first sector and stamping it into the rest,
+     * along with how far the stamped pixels are from the drawn ones
+     */
+    private static void benchmarkStamp() {
+        for(int iSectors : new int[] {1, 12, 60}) {
+            DoilyDocument ddDocument = createPanel(iSectors, 200, 100).getDocument();
+            DoilyRenderer drRenderer = new DoilyRenderer(new SectorTransforms(iSectors, ddDocument.getWidth(), ddDocument.getHeight()));
+            BufferedImage biDrawn = new BufferedImage(ddDocument.getWidth(), ddDocument.getHeight(), BufferedImage.TYPE_INT_RGB);
+            BufferedImage biStamped = new BufferedImage(ddDocument.getWidth(), ddDocument.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Rectangle rFull = new Rectangle(0, 0, biDrawn.getWidth(), biDrawn.getHeight());
+
+            long lDrawn = 0;
+            long lStamped = 0;
+            for(int i = 0 ; i < 6 ; i++) {
+                //the first two only warm up
+                long lStart = System.nanoTime();
+                drRenderer.renderRegion(biDrawn, rFull, ddDocument.getLayers().get(0).getStrokes(), true, Color.BLACK);
+                long lMiddle = System.nanoTime();
+                drRenderer.renderStamped(biStamped, ddDocument.getLayers().get(0).getStrokes(), true, Color.BLACK);
+                if(i >= 2) {
+                    lDrawn += lMiddle - lStart;
+                    lStamped += System.nanoTime() - lMiddle;
+                }
+            }
+
+            //the largest difference in any channel, averaged over the image
+            long lDifference = 0;
+            for(int y = 0 ; y < biDrawn.getHeight() ; y++) {
+                for(int x = 0 ; x < biDrawn.getWidth() ; x++) {
+                    int iDrawn = biDrawn.getRGB(x, y);
+                    int iStamped = biStamped.getRGB(x, y);
+                    int iMost = 0;
+                    for(int iShift = 0 ; iShift < 24 ; iShift += 8) {
+                        iMost = Math.max(iMost, Math.abs(((iDrawn >> iShift) & 0xff) - ((iStamped >> iShift) & 0xff)));
+                    }
+                    lDifference += iMost;
+                }
+            }
+            System.out.printf("stamp, 20000 points, %d sectors: every sector %.1f ms, stamped %.1f ms, mean difference %.2f of 255%n"
+                    , iSectors, lDrawn / 1e6 / 4, lStamped / 1e6 / 4
+                    , (double) lDifference / (biDrawn.getWidth() * biDrawn.getHeight()));
+        }
+    }
+
+    /**
+     * Times scrubbing the sectors from 1 to 56 with a paint after each step, as dragging the slider would
+     * Compares always drawing at full quality against the governor, both while the slider is held and from the frame budget alone
+     * The step after letting go is timed too, as it is always drawn at full quality
+     */
+    private static void benchmarkScrub() {
+        String[] saModes = {"full quality", "slider held", "frame budget"};
+        for(int iMode = 0 ; iMode < saModes.length ; iMode++) {
+            DrawingPanel dp = createPanel(1, 200, 100);
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            if(iMode == 0) {
+                dp.setFrameBudget(Integer.MAX_VALUE);
+            }
+            dp.paint(image.getGraphics());
+
+            long lTotal = 0;
+            long lWorst = 0;
+            int iSteps = 0;
+            dp.setAdjusting(iMode == 1);
+            for(int iSectors = 6 ; iSectors <= 56 ; iSectors += 5) {
+                long lStart = System.nanoTime();
+                dp.setSectors(iSectors);
+                dp.paint(image.getGraphics());
+                long lStep = System.nanoTime() - lStart;
+                lTotal += lStep;
+                lWorst = Math.max(lWorst, lStep);
+                iSteps++;
+            }
+            long lStart = System.nanoTime();
+            dp.setAdjusting(false);
+            dp.getGovernor().settle();
+            dp.setSectors(56);
+            dp.paint(image.getGraphics());
+            long lRelease = System.nanoTime() - lStart;
+
+            System.out.printf("scrub, 200 strokes, 1 to 56 sectors, %s: %.1f ms/step, worst %.1f ms, %d previews, %.1f ms once let go%n"
+                    , saModes[iMode], lTotal / 1e6 / iSteps, lWorst / 1e6, dp.getGovernor().getPreviews(), lRelease / 1e6);
+        }
+    }
+
+    /**
+     * Records a session of drawing, erasing, changing the sectors and undoing, then replays it as fast as possible
+     * Each replay should end with exactly the strokes the recorded panel did, and the later ones show the warmed up speed
+     */
+    private static void benchmarkReplay() throws IOException {
+        Random r = new Random(42);
+        DrawingPanel dpRecorded = createPanel(12, 0, 0);
+        DrawingPanel.DragListener listener = dpRecorded.new DragListener();
+        ByteArrayOutputStream baosSession = new ByteArrayOutputStream();
+        dpRecorded.startRecording(baosSession);
+        for(int i = 0 ; i < 100 ; i++) {
+            if(i % 20 == 19) {
+                dpRecorded.setSectors(6 + r.nextInt(30));
+                dpRecorded.undo();
+            }
+            dpRecorded.setErasing(i % 10 == 9);
+            dpRecorded.setStrokeSize(1 + r.nextInt(20));
+            int iX = r.nextInt(dpRecorded.getWidth());
+            int iY = r.nextInt(dpRecorded.getHeight());
+            listener.mousePressed(mouseEvent(dpRecorded, MouseEvent.MOUSE_PRESSED, iX, iY));
+            for(int j = 0 ; j < 100 ; j++) {
+                iX = Math.max(0, Math.min(dpRecorded.getWidth() - 1, iX + r.nextInt(11) - 5));
+                iY = Math.max(0, Math.min(dpRecorded.getHeight() - 1, iY + r.nextInt(11) - 5));
+                listener.mouseDragged(mouseEvent(dpRecorded, MouseEvent.MOUSE_DRAGGED, iX, iY));
+            }
+            listener.mouseReleased(mouseEvent(dpRecorded, MouseEvent.MOUSE_RELEASED, iX, iY));
+            dpRecorded.waitForEraser();
+        }
+        long lEvents = dpRecorded.getRecorder().getEvents();
+        dpRecorded.stopRecording();
+        byte[] baSession = baosSession.toByteArray();
+        long lRecordedPoints = 0;
+        for(DraggedPoints d : dpRecorded.getDocument().getLayers().get(0).getStrokes()) {
+            lRecordedPoints += d.getPointCount();
+        }
+
+        for(int iRound = 0 ; iRound < 3 ; iRound++) {
+            DrawingPanel dp = new DrawingPanel();
+            long lStart = System.nanoTime();
+            try {
+                SessionReplayer.replay(new ByteArrayInputStream(baSession), dp, false);
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long lNanos = System.nanoTime() - lStart;
+            long lPoints = 0;
+            for(DraggedPoints d : dp.getDocument().getLayers().get(0).getStrokes()) {
+                lPoints += d.getPointCount();
+            }
+            System.out.printf("replay, %d events in %d bytes: %.1f ms (%.0f events/s), %d paints, p95 %.2f ms, %s%n"
+                    , lEvents, baSession.length, lNanos / 1e6, lEvents / (lNanos / 1e9)
+                    , dp.getMetrics().getPaintCount(), dp.getMetrics().getPaintMillisP95()
+                    , dp.getStrokeCount() == dpRecorded.getStrokeCount() && lPoints == lRecordedPoints
+                            ? "same strokes as recorded" : "DIFFERENT strokes from recorded");
+        }
+    }
+
+    /**
+     * Times undoing and redoing strokes one at a time with a paint after each, with and without checkpoints of the cache
+     * The strokes are painted as they are drawn, as they would be on screen, so the checkpoints get taken
+     */
+    private static void benchmarkUndo() {
+        for(int iInterval : new int[] {0, 25}) {
+            Random r = new Random(42);
+            DrawingPanel dp = new DrawingPanel();
+            dp.setSize(dp.getPreferredSize());
+            dp.setSectors(12);
+            dp.setCheckpointInterval(iInterval);
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            for(int i = 0 ; i < 200 ; i++) {
+                DraggedPoints d = new DraggedPoints(1 + r.nextInt(20), new Color(r.nextInt()), r.nextBoolean(), false);
+                int iX = r.nextInt(dp.getWidth());
+                int iY = r.nextInt(dp.getHeight());
+                for(int j = 0 ; j < 100 ; j++) {
+                    iX = Math.max(0, Math.min(dp.getWidth() - 1, iX + r.nextInt(11) - 5));
+                    iY = Math.max(0, Math.min(dp.getHeight() - 1, iY + r.nextInt(11) - 5));
+                    d.addPoint(iX, iY);
+                }
+                dp.pushStroke(d);
+                dp.paint(image.getGraphics());
+            }
+
+            //the first pass down and back up only warms up
+            long lUndo = 0;
+            long lRedo = 0;
+            for(int iPass = 0 ; iPass < 2 ; iPass++) {
+                long lStart = System.nanoTime();
+                for(int i = 0 ; i < 50 ; i++) {
+                    dp.undo();
+                    dp.paint(image.getGraphics());
+                }
+                lUndo = System.nanoTime() - lStart;
+                lStart = System.nanoTime();
+                for(int i = 0 ; i < 50 ; i++) {
+                    dp.redo();
+                    dp.paint(image.getGraphics());
+                }
+                lRedo = System.nanoTime() - lStart;
+            }
+            System.out.printf("undo, 200 strokes, 12 sectors, %s: undo %.2f ms, redo %.2f ms, each with a paint%n"
+                    , iInterval == 0 ? "no checkpoints" : "a checkpoint every " + iInterval + " edits", lUndo / 1e6 / 50, lRedo / 1e6 / 50);
+        }
+    }
+
+    /**
+     * Compares undoing and changing the sectors of a few new strokes drawn over 200 others,
+     * with everything on one layer against the new strokes on a layer of their own,
+     * where only that layer is redrawn and the 200 strokes below are just composited from their cache
+     */
+    private static void benchmarkLayers() {
+        for(boolean bLayered : new boolean[] {false, true}) {
+            DrawingPanel dp = createPanel(12, 200, 100);
+            dp.setCheckpointInterval(0);
+            //every redraw at full quality, so neither case is helped by previews
+            dp.setFrameBudget(Long.MAX_VALUE / 1_000_000);
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            dp.paint(image.getGraphics());
+            if(bLayered) {
+                dp.addLayer("Layer 2");
+            }
+
+            Random r = new Random(7);
+            long lUndo = 0;
+            long lSectors = 0;
+            //the first pass only warms up
+            for(int iPass = 0 ; iPass < 2 ; iPass++) {
+                for(int i = 0 ; i < 20 ; i++) {
+                    DraggedPoints d = new DraggedPoints(1 + r.nextInt(20), new Color(r.nextInt()), false, false);
+                    int iX = r.nextInt(dp.getWidth());
+                    int iY = r.nextInt(dp.getHeight());
+                    for(int j = 0 ; j < 100 ; j++) {
+                        iX = Math.max(0, Math.min(dp.getWidth() - 1, iX + r.nextInt(11) - 5));
+                        iY = Math.max(0, Math.min(dp.getHeight() - 1, iY + r.nextInt(11) - 5));
+                        d.addPoint(iX, iY);
+                    }
+                    dp.pushStroke(d);
+                    dp.paint(image.getGraphics());
+                }
+
+                long lStart = System.nanoTime();
+                for(int i = 0 ; i < 10 ; i++) {
+                    dp.undo();
+                    dp.paint(image.getGraphics());
+                }
+                lUndo = System.nanoTime() - lStart;
+
+                //sector changes on a layer of its own leave the layers below as they were
+                lStart = System.nanoTime();
+                for(int i = 0 ; i < 4 ; i++) {
+                    dp.setSectors(i % 2 == 0 ? 8 : 12);
+                    dp.paint(image.getGraphics());
+                }
+                lSectors = System.nanoTime() - lStart;
+                //back to just the 200 strokes for the next pass
+                for(int i = 0 ; i < 10 ; i++) {
+                    dp.undo();
+                }
+            }
+            System.out.printf("layers, 200 strokes below, 12 sectors, %s: undo %.2f ms, sector change %.2f ms, each with a paint%n"
+                    , bLayered ? "new strokes on their own layer" : "one layer", lUndo / 1e6 / 10, lSectors / 1e6 / 4);
+        }
+    }
+
+    /**
+     * Drags the mouse at 1000 samples a second over 200 strokes at 12 sectors, changing the sectors every quarter second so some frames are slow
+     * Done once painting on the thread handling the mouse, as the event thread does without a render thread, and once with one,
+     * where that thread only copies finished frames, reporting how late each mouse event was handled and the render thread's pacing
+     */
+    private static void benchmarkFrames() {
+        int iEvents = 2000;
+        for(boolean bThreaded : new boolean[] {false, true}) {
+            DrawingPanel dp = createPanel(12, 200, 100);
+            DrawingPanel.DragListener listener = dp.new DragListener();
+            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+            dp.paint(image.getGraphics());
+            if(bThreaded) {
+                dp.startRenderThread(RenderLoop.DEFAULT_FRAME_NANOS);
+            }
+            dp.getMetrics().reset();
+
+            RollingWindow rwLate = new RollingWindow(iEvents);
+            long lStart = System.nanoTime();
+            long lNextPaint = lStart;
+            for(int i = 0 ; i < iEvents ; i++) {
+                long lDue = lStart + i * 1_000_000L;
+                long lWait;
+                while((lWait = lDue - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(lWait);
+                }
+                //a paint due before the event holds it up, as the event thread can only do one at a time
+                if(System.nanoTime() >= lNextPaint) {
+                    dp.paint(image.getGraphics());
+                    lNextPaint = System.nanoTime() + RenderLoop.DEFAULT_FRAME_NANOS;
+                }
+                if(i % 250 == 0) {
+                    dp.setSectors(i % 500 == 0 ? 11 : 12);
+                }
+                int iX = 400 + (int) (200 * Math.cos(i / 100.0));
+                int iY = 375 + (int) (200 * Math.sin(i / 100.0));
+                if(i == 0) {
+                    listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, iX, iY));
+                }
+                else {
+                    listener.mouseDragged(mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, iX, iY));
+                }
+                rwLate.add(System.nanoTime() - lDue);
+            }
+            listener.mouseReleased(mouseEvent(dp, MouseEvent.MOUSE_RELEASED, 400, 375));
+            if(bThreaded) {
+                dp.stopRenderThread();
+            }
+
+            DoilyMetrics dmMetrics = dp.getMetrics();
+            System.out.printf("frames, %s: mouse handled late p50 %.2f ms, p99 %.2f ms, max %.2f ms; %d paints"
+                    , bThreaded ? "render thread" : "painting with the mouse", rwLate.getPercentile(50) / 1e6
+                    , rwLate.getPercentile(99) / 1e6, rwLate.getPercentile(100) / 1e6, dmMetrics.getPaintCount());
+            if(bThreaded) {
+                System.out.printf(", interval p50 %.2f ms, p95 %.2f ms, input latency p50 %.2f ms, p95 %.2f ms, blit p50 %.3f ms"
+                        , dmMetrics.getFrameIntervalMillisP50(), dmMetrics.getFrameIntervalMillisP95()
+                        , dmMetrics.getInputLatencyMillisP50(), dmMetrics.getInputLatencyMillisP95(), dmMetrics.getBlitMillisP50());
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Times redrawing square areas of different sizes over 200 strokes, as a partial repaint of the cache would,
+     * to show the cost following the area rather than the number of strokes and sectors
+     */
+    private static void benchmarkCull() {
+        for(int iSectors : new int[] {12, 60}) {
+            DoilyDocument ddDocument = createPanel(iSectors, 200, 100).getDocument();
+            DoilyRenderer drRenderer = new DoilyRenderer(new SectorTransforms(iSectors, ddDocument.getWidth(), ddDocument.getHeight()));
+            BufferedImage image = new BufferedImage(ddDocument.getWidth(), ddDocument.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            StringBuilder sbTimes = new StringBuilder();
+            for(int iSide : new int[] {16, 64, 256, 0}) {
+                int iRegions = iSide == 0 ? 4 : 40;
+                Random r = new Random(7);
+                long lTotal = 0;
+                //the first pass only warms up
+                for(int iPass = 0 ; iPass < 2 ; iPass++) {
+                    long lStart = System.nanoTime();
+                    for(int i = 0 ; i < iRegions ; i++) {
+                        Rectangle rRegion = iSide == 0 ? new Rectangle(0, 0, image.getWidth(), image.getHeight())
+                                : new Rectangle(r.nextInt(image.getWidth() - iSide), r.nextInt(image.getHeight() - iSide), iSide, iSide);
+                        drRenderer.renderRegion(image, rRegion, ddDocument.getLayers().get(0).getStrokes(), true, null);
+                    }
+                    lTotal = System.nanoTime() - lStart;
+                }
+                sbTimes.append(String.format(", %s %.2f ms", iSide == 0 ? "whole canvas" : iSide + "px", lTotal / 1e6 / iRegions));
+            }
+            System.out.printf("cull, 200 strokes, %d sectors%s%n", iSectors, sbTimes);
+        }
+    }
+
+    /**
+     * Paints the panel repeatedly with a clip, after a warm up
+     * @return The average time per paint, in milliseconds
+     */
+    private static double timePaints(DrawingPanel dp, BufferedImage image, Rectangle rClip) {
+        long lStart = 0;
+        for(int i = 0 ; i < PAINTS * 2 ; i++) {
+            if(i == PAINTS) {
+                lStart = System.nanoTime();
+            }
+            Graphics2D g2d = image.createGraphics();
+            g2d.setClip(rClip);
+            dp.paint(g2d);
+            g2d.dispose();
+        }
+        return (System.nanoTime() - lStart) / 1e6 / PAINTS;
+    }
+
+    /**
+     * Creates a panel at its normal size with random strokes already committed
+     * @param iSectors The number of sectors
+     * @param iStrokes The number of strokes to commit
+     * @param iPointsPerStroke The number of points in each stroke
+     * @return The panel
+     */
+    private static DrawingPanel createPanel(int iSectors, int iStrokes, int iPointsPerStroke) {
+        return createPanel(iSectors, iStrokes, iPointsPerStroke, null);
+    }
+
+    /**
+     * Creates a panel at its normal size with random strokes already committed
+     * @param iSectors The number of sectors
+     * @param iStrokes The number of strokes to commit
+     * @param iPointsPerStroke The number of points in each stroke
+     * @param bReflected Whether every stroke is reflected, or null to pick at random
+     * @return The panel
+     */
+    private static DrawingPanel createPanel(int iSectors, int iStrokes, int iPointsPerStroke, Boolean bReflected) {
+        Random r = new Random(42);
+        DrawingPanel dp = new DrawingPanel();
+        dp.setSize(dp.getPreferredSize());
+        dp.setSectors(iSectors);
+
+        for(int i = 0 ; i < iStrokes ; i++) {
+            DraggedPoints d = new DraggedPoints(1 + r.nextInt(20), new Color(r.nextInt()), bReflected == null ? r.nextBoolean() : bReflected, false);
+            int iX = r.nextInt(dp.getWidth());
+            int iY = r.nextInt(dp.getHeight());
+            for(int j = 0 ; j < iPointsPerStroke ; j++) {
+                iX = Math.max(0, Math.min(dp.getWidth() - 1, iX + r.nextInt(11) - 5));
+                iY = Math.max(0, Math.min(dp.getHeight() - 1, iY + r.nextInt(11) - 5));
+                d.addPoint(iX, iY);
+            }
+            d.trimToSize();
+            dp.pushStroke(d);
+        }
+        return dp;
+    }
+
+    /**
+     * Creates a mouse event on the panel, as the listener would be given
+     */
+    private static MouseEvent mouseEvent(DrawingPanel dp, int iId, int iX, int iY) {
+        return new MouseEvent(dp, iId, System.currentTimeMillis(), 0, iX, iY, 1, false, MouseEvent.BUTTON1);
+    }
+
+    /**
+     * Gets the heap in use after asking for a full collection
+     * @return The used heap, in bytes
+     */
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for(int i = 0 ; i < 3 ; i++) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Gets the bytes allocated so far by this thread, where the JVM supports it
+     * @return The allocated bytes, or 0 if not supported
+     */
+    private static long allocatedBytes() {
+        if(THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A saved doily: its layers, bottom first, along with the size of the canvas they were drawn on
+ * Each layer holds its committed strokes in stack order and the settings needed to draw them,
+ * and each stroke carries its own size, colour and reflection
+ */
+
+public class DoilyDocument {
+    private ArrayList<Layer> alLayers;
+    private int iWidth;
+    private int iHeight;
+
+    //constructor
+    public DoilyDocument(ArrayList<Layer> alLayers
+            , int iWidth
+            , int iHeight) {
+        this.alLayers = alLayers;
+        this.iWidth = iWidth;
+        this.iHeight = iHeight;
+    }
+
+    /**
+     * Writes the document to a file, in the DoilyFormat
+     * @param fFile The file to write to
+     * @throws IOException If the file can't be written
+     */
+    public void write(File fFile) throws IOException {
+        DoilyFormat.write(this, fFile.toPath());
+    }
+
+    /**
+     * Reads a document written by write
+     * @param fFile The file to read from
+     * @return The document
+     * @throws IOException If the file can't be read, or isn't a document
+     */
+    public static DoilyDocument read(File fFile) throws IOException {
+        return DoilyFormat.read(fFile.toPath());
+    }
+
+    //getters
+    public List<Layer> getLayers() {
+        return alLayers;
+    }
+
+    public int getWidth() {
+        return iWidth;
+    }
+
+    public int getHeight() {
+        return iHeight;
+    }
+
+    /**
+     * One saved layer: its strokes, bottom first, and the settings it was drawn with
+     */
+    public static class Layer {
+        private String sName;
+        private ArrayList<DraggedPoints> alStrokes;
+        private int iSectors;
+        private boolean bLines;
+        private boolean bReflecting;
+        private boolean bVisible;
+
+        //constructor
+        public Layer(String sName
+                , ArrayList<DraggedPoints> alStrokes
+                , int iSectors
+                , boolean bLines
+                , boolean bReflecting
+                , boolean bVisible) {
+            this.sName = sName;
+            this.alStrokes = alStrokes;
+            this.iSectors = iSectors;
+            this.bLines = bLines;
+            this.bReflecting = bReflecting;
+            this.bVisible = bVisible;
+        }
+
+        //getters
+        public String getName() {
+            return sName;
+        }
+
+        public List<DraggedPoints> getStrokes() {
+            return alStrokes;
+        }
+
+        public int getSectors() {
+            return iSectors;
+        }
+
+        public boolean isDrawingLines() {
+            return bLines;
+        }
+
+        public boolean isReflecting() {
+            return bReflecting;
+        }
+
+        public boolean isVisible() {
+            return bVisible;
+        }
+    }
+}
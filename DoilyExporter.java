@@ -0,0 +1,121 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a document at any scale, such as for printing, one band of rows at a time
+ * Each band is drawn with the same sector geometry as the DrawingPanel and then streamed to a PNG,
+ * so the memory used depends on the band height and the width, and not on the height of the image.
+ * The visible layers are drawn into each band bottom first, each with its own sectors and sector lines
+ */
+
+public class DoilyExporter {
+    public static final int DEFAULT_BAND_HEIGHT = 256;
+
+    /**
+     * Exports a document to a PNG file
+     * @param ddDocument The document to export
+     * @param dScale How many pixels of the image each pixel of the document's canvas becomes
+     * @param fFile The file to write
+     * @throws IOException If the file couldn't be written
+     */
+    public static void exportPng(DoilyDocument ddDocument, double dScale, File fFile) throws IOException {
+        try(OutputStream osOut = new BufferedOutputStream(new FileOutputStream(fFile))) {
+            exportPng(ddDocument, dScale, DEFAULT_BAND_HEIGHT, osOut);
+        }
+    }
+
+    /**
+     * Exports a document as a PNG, drawing and writing it one band at a time
+     * @param ddDocument The document to export
+     * @param dScale How many pixels of the image each pixel of the document's canvas becomes
+     * @param iBandHeight The number of rows to draw at a time
+     * @param osOut Where to write the PNG, which is left open
+     * @throws IOException If the PNG couldn't be written
+     */
+    public static void exportPng(DoilyDocument ddDocument, double dScale, int iBandHeight, OutputStream osOut) throws IOException {
+        int iWidth = Math.max(1, (int) Math.round(ddDocument.getWidth() * dScale));
+        int iHeight = Math.max(1, (int) Math.round(ddDocument.getHeight() * dScale));
+        iBandHeight = Math.max(1, Math.min(iBandHeight, iHeight));
+
+        //each stroke is only drawn into the bands its copies reach, found from its bounds in every sector of its layer
+        List<DoilyDocument.Layer> lLayers = new ArrayList<>();
+        for(DoilyDocument.Layer dlLayer : ddDocument.getLayers()) {
+            if(dlLayer.isVisible()) {
+                lLayers.add(dlLayer);
+            }
+        }
+        DoilyRenderer[] draRenderers = new DoilyRenderer[lLayers.size()];
+        Rectangle[][] raaBounds = new Rectangle[lLayers.size()][];
+        //a stroke crossing many bands would otherwise have its points joined again for each of them
+        Path2D.Float[][] paaPaths = new Path2D.Float[lLayers.size()][];
+        for(int i = 0 ; i < lLayers.size() ; i++) {
+            SectorTransforms stfTransforms = new SectorTransforms(lLayers.get(i).getSectors(), ddDocument.getWidth(), ddDocument.getHeight());
+            draRenderers[i] = new DoilyRenderer(stfTransforms, null);
+            List<DraggedPoints> lStrokes = lLayers.get(i).getStrokes();
+            raaBounds[i] = new Rectangle[lStrokes.size()];
+            paaPaths[i] = new Path2D.Float[lStrokes.size()];
+            for(int j = 0 ; j < lStrokes.size() ; j++) {
+                DraggedPoints d = lStrokes.get(j);
+                raaBounds[i][j] = getBounds(stfTransforms, d);
+                paaPaths[i][j] = d.getPointCount() == 1 ? null : d.toPath();
+            }
+        }
+
+        //the one band image is reused for every band
+        BufferedImage biBand = new BufferedImage(iWidth, iBandHeight, BufferedImage.TYPE_INT_RGB);
+        PngStreamWriter pswWriter = new PngStreamWriter(osOut, iWidth, iHeight);
+        for(int iTop = 0 ; iTop < iHeight ; iTop += iBandHeight) {
+            int iRows = Math.min(iBandHeight, iHeight - iTop);
+            Graphics2D g2d = biBand.createGraphics();
+            g2d.setColor(Color.BLACK);
+            g2d.fillRect(0, 0, iWidth, iRows);
+            g2d.setClip(0, 0, iWidth, iRows);
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.translate(0, -iTop);
+            g2d.scale(dScale, dScale);
+
+            //drawing each layer straight over the ones below gives what compositing their images would
+            Rectangle2D.Double rBand = new Rectangle2D.Double(0, iTop / dScale, ddDocument.getWidth(), iRows / dScale);
+            for(int i = 0 ; i < lLayers.size() ; i++) {
+                if(lLayers.get(i).isDrawingLines()) {
+                    draRenderers[i].drawBackgroundLines(g2d);
+                }
+                List<DraggedPoints> lStrokes = lLayers.get(i).getStrokes();
+                for(int j = 0 ; j < raaBounds[i].length ; j++) {
+                    if(raaBounds[i][j].intersects(rBand)) {
+                        draRenderers[i].drawStroke(g2d, lStrokes.get(j), paaPaths[i][j]);
+                    }
+                }
+            }
+            g2d.dispose();
+
+            pswWriter.writeRows(biBand, iRows);
+        }
+        pswWriter.close();
+    }
+
+    /**
+     * Works out the area of the document's canvas covered by a stroke in every sector
+     * @param stfTransforms The transforms for each sector
+     * @param d The stroke
+     * @return The area, in the canvas's pixels
+     */
+    private static Rectangle getBounds(SectorTransforms stfTransforms, DraggedPoints d) {
+        //widen by the size of the stroke, plus a little for the point outline and antialiasing
+        double dPadding = d.getiSize() / 2.0 + 2;
+        return stfTransforms.getSectorBounds(d.getMinX() - dPadding, d.getMinY() - dPadding
+                , d.getMaxX() + dPadding, d.getMaxY() + dPadding, d.isbReflected());
+    }
+}
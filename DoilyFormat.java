@@ -0,0 +1,334 @@
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary file format for a DoilyDocument
+ * Layout, with every number a varint unless noted:
+ *   "DOIL", a one byte version, width, height, layer count, then each layer, bottom first, as
+ *   the length of its name and the name in UTF-8, sectors, one flags byte (sector lines, reflecting, visible), stroke count,
+ *   then each stroke as size, colour as a four byte ARGB int, one flags byte (reflected, eraser), point count,
+ *   then the points as x, y pairs, the first pair as it is and the rest as the difference from the pair before,
+ *   zigzag encoded so small steps take one byte
+ * Version 1 documents have a single layer, written as sectors, width, height, one flags byte (sector lines), stroke count
+ * and the strokes, and are read as one visible layer
+ */
+
+public class DoilyFormat {
+    private static final int MAGIC = 0x444F494C;
+    private static final int VERSION = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    //the most a single value can take up: a five byte varint, or the four byte colour
+    private static final int MAX_VALUE_BYTES = 5;
+
+    private static final int FLAG_LINES = 1;
+    private static final int FLAG_REFLECTING = 2;
+    private static final int FLAG_VISIBLE = 4;
+    private static final int FLAG_REFLECTED = 1;
+    private static final int FLAG_ERASER = 2;
+
+    /**
+     * Writes a document to a file, through a temporary file so a failed save never leaves half a document behind
+     * @param ddDocument The document to write
+     * @param pFile The file to write to
+     * @throws IOException If the file can't be written
+     */
+    public static void write(DoilyDocument ddDocument, Path pFile) throws IOException {
+        Path pTemporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+        try {
+            try(FileChannel fc = FileChannel.open(pTemporary
+                    , StandardOpenOption.WRITE
+                    , StandardOpenOption.CREATE
+                    , StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(ddDocument, fc);
+            }
+            Files.move(pTemporary, pFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch(IOException | RuntimeException e) {
+            //the failed save's file is removed, without hiding why it failed
+            try {
+                Files.deleteIfExists(pTemporary);
+            }
+            catch(IOException eDelete) {
+                e.addSuppressed(eDelete);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a document to a channel, through a fixed size buffer
+     * @param ddDocument The document to write
+     * @param wbcOut The channel to write to
+     * @throws IOException If the channel can't be written
+     */
+    public static void write(DoilyDocument ddDocument, WritableByteChannel wbcOut) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+
+        bb.putInt(MAGIC);
+        bb.put((byte) VERSION);
+        putVarint(bb, ddDocument.getWidth());
+        putVarint(bb, ddDocument.getHeight());
+        putVarint(bb, ddDocument.getLayers().size());
+
+        for(DoilyDocument.Layer dlLayer : ddDocument.getLayers()) {
+            //the name is copied in as much at a time as fits, as it could be longer than the buffer
+            byte[] baName = dlLayer.getName().getBytes(StandardCharsets.UTF_8);
+            ensureSpace(bb, wbcOut, MAX_VALUE_BYTES);
+            putVarint(bb, baName.length);
+            for(int i = 0 ; i < baName.length ; ) {
+                ensureSpace(bb, wbcOut, 1);
+                int iBytes = Math.min(bb.remaining(), baName.length - i);
+                bb.put(baName, i, iBytes);
+                i += iBytes;
+            }
+
+            //the layer header, two varints and a flags byte
+            ensureSpace(bb, wbcOut, MAX_VALUE_BYTES * 2 + 1);
+            putVarint(bb, dlLayer.getSectors());
+            bb.put((byte) ((dlLayer.isDrawingLines() ? FLAG_LINES : 0)
+                    | (dlLayer.isReflecting() ? FLAG_REFLECTING : 0)
+                    | (dlLayer.isVisible() ? FLAG_VISIBLE : 0)));
+            putVarint(bb, dlLayer.getStrokes().size());
+            writeStrokes(dlLayer.getStrokes(), bb, wbcOut);
+        }
+
+        bb.flip();
+        while(bb.hasRemaining()) {
+            wbcOut.write(bb);
+        }
+    }
+
+    //writes each stroke's header and points, emptying the buffer into the channel as it fills
+    private static void writeStrokes(List<DraggedPoints> lStrokes, ByteBuffer bb, WritableByteChannel wbcOut) throws IOException {
+        for(DraggedPoints d : lStrokes) {
+            //the stroke header, at most four varints, a colour and a flags byte
+            ensureSpace(bb, wbcOut, MAX_VALUE_BYTES * 5 + 1);
+            putVarint(bb, d.getiSize());
+            bb.putInt(d.getcPointsColor().getRGB());
+            bb.put((byte) ((d.isbReflected() ? FLAG_REFLECTED : 0) | (d.isbEraser() ? FLAG_ERASER : 0)));
+            putVarint(bb, d.getPointCount());
+
+            int iLastX = 0;
+            int iLastY = 0;
+            for(int i = 0 ; i < d.getPointCount() ; i++) {
+                ensureSpace(bb, wbcOut, MAX_VALUE_BYTES * 2);
+                putVarint(bb, zigzag(d.getX(i) - iLastX));
+                putVarint(bb, zigzag(d.getY(i) - iLastY));
+                iLastX = d.getX(i);
+                iLastY = d.getY(i);
+            }
+        }
+    }
+
+    /**
+     * Reads a document from a file, mapping it into memory rather than copying it through a buffer
+     * @param pFile The file to read
+     * @return The document
+     * @throws IOException If the file can't be read or isn't a valid document
+     */
+    public static DoilyDocument read(Path pFile) throws IOException {
+        try(FileChannel fc = FileChannel.open(pFile, StandardOpenOption.READ)) {
+            if(fc.size() > Integer.MAX_VALUE) {
+                throw new IOException(pFile + " is too large to be a doily document");
+            }
+            return decode(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()), pFile.toString());
+        }
+    }
+
+    /**
+     * Reads a document from any channel, for when the source isn't a file which can be mapped
+     * @param rbcIn The channel to read until it ends
+     * @return The document
+     * @throws IOException If the channel can't be read or doesn't hold a valid document
+     */
+    public static DoilyDocument read(ReadableByteChannel rbcIn) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+        while(rbcIn.read(bb) >= 0) {
+            if(!bb.hasRemaining()) {
+                ByteBuffer bbBigger = ByteBuffer.allocate(bb.capacity() * 2);
+                bb.flip();
+                bbBigger.put(bb);
+                bb = bbBigger;
+            }
+        }
+        bb.flip();
+        return decode(bb, "channel");
+    }
+
+    /**
+     * Decodes a whole document from a buffer
+     * @param bb The buffer, positioned at the start of the document
+     * @param sSource Where the buffer came from, for error messages
+     * @return The document
+     * @throws IOException If the buffer doesn't hold a valid document
+     */
+    private static DoilyDocument decode(ByteBuffer bb, String sSource) throws IOException {
+        try {
+            if(bb.getInt() != MAGIC) {
+                throw new IOException(sSource + " is not a doily document");
+            }
+            int iVersion = bb.get() & 0xFF;
+            if(iVersion > VERSION) {
+                throw new IOException(sSource + " was saved by a newer version (format " + iVersion + ")");
+            }
+
+            if(iVersion == 1) {
+                return decodeSingleLayer(bb, sSource);
+            }
+
+            int iWidth = getVarint(bb);
+            int iHeight = getVarint(bb);
+            int iLayers = getVarint(bb);
+            //every layer takes at least four bytes, so a bad count can't make us allocate far more than the file
+            if(iWidth < 1 || iHeight < 1 || iLayers < 1 || iLayers > bb.remaining() / 4) {
+                throw new IOException(sSource + " is corrupt");
+            }
+
+            ArrayList<DoilyDocument.Layer> alLayers = new ArrayList<>(iLayers);
+            for(int i = 0 ; i < iLayers ; i++) {
+                int iNameLength = getVarint(bb);
+                if(iNameLength < 0 || iNameLength > bb.remaining()) {
+                    throw new IOException(sSource + " is truncated");
+                }
+                byte[] baName = new byte[iNameLength];
+                bb.get(baName);
+
+                int iSectors = getVarint(bb);
+                int iFlags = bb.get();
+                int iStrokes = getVarint(bb);
+                if(iSectors < 1 || iStrokes < 0) {
+                    throw new IOException(sSource + " is corrupt");
+                }
+                alLayers.add(new DoilyDocument.Layer(new String(baName, StandardCharsets.UTF_8)
+                        , decodeStrokes(bb, iStrokes, sSource)
+                        , iSectors
+                        , (iFlags & FLAG_LINES) != 0
+                        , (iFlags & FLAG_REFLECTING) != 0
+                        , (iFlags & FLAG_VISIBLE) != 0));
+            }
+
+            return new DoilyDocument(alLayers, iWidth, iHeight);
+        }
+        catch(BufferUnderflowException e) {
+            throw new IOException(sSource + " is truncated", e);
+        }
+    }
+
+    /**
+     * Decodes the rest of a version 1 document, which has a single layer
+     * @param bb The buffer, positioned just after the version
+     * @param sSource Where the buffer came from, for error messages
+     * @return The document, with the strokes as one visible layer
+     * @throws IOException If the buffer doesn't hold a valid document
+     */
+    private static DoilyDocument decodeSingleLayer(ByteBuffer bb, String sSource) throws IOException {
+        int iSectors = getVarint(bb);
+        int iWidth = getVarint(bb);
+        int iHeight = getVarint(bb);
+        boolean bLines = (bb.get() & FLAG_LINES) != 0;
+        int iStrokes = getVarint(bb);
+        //anything else would only fail later, when the document is drawn
+        if(iStrokes < 0 || iSectors < 1 || iWidth < 1 || iHeight < 1) {
+            throw new IOException(sSource + " is corrupt");
+        }
+
+        ArrayList<DoilyDocument.Layer> alLayers = new ArrayList<>();
+        alLayers.add(new DoilyDocument.Layer("Layer 1", decodeStrokes(bb, iStrokes, sSource), iSectors, bLines, false, true));
+        return new DoilyDocument(alLayers, iWidth, iHeight);
+    }
+
+    /**
+     * Decodes a layer's strokes
+     * @param bb The buffer, positioned at the first stroke
+     * @param iStrokes The number of strokes
+     * @param sSource Where the buffer came from, for error messages
+     * @return The strokes, bottom first
+     * @throws IOException If the strokes aren't valid
+     */
+    private static ArrayList<DraggedPoints> decodeStrokes(ByteBuffer bb, int iStrokes, String sSource) throws IOException {
+        //every stroke takes at least seven bytes, so a bad count can't make us allocate far more than the file
+        ArrayList<DraggedPoints> alStrokes = new ArrayList<>(Math.min(iStrokes, bb.remaining() / 7));
+        for(int i = 0 ; i < iStrokes ; i++) {
+            int iSize = getVarint(bb);
+            if(iSize < 1) {
+                throw new IOException(sSource + " is corrupt");
+            }
+            Color cColor = new Color(bb.getInt(), true);
+            int iFlags = bb.get();
+            int iPoints = getVarint(bb);
+            if(iPoints < 0 || iPoints > bb.remaining() / 2) {
+                throw new IOException(sSource + " is truncated");
+            }
+
+            int[] iaPoints = new int[iPoints * 2];
+            int iX = 0;
+            int iY = 0;
+            for(int j = 0 ; j < iPoints ; j++) {
+                iX += unzigzag(getVarint(bb));
+                iY += unzigzag(getVarint(bb));
+                iaPoints[j * 2] = iX;
+                iaPoints[j * 2 + 1] = iY;
+            }
+            alStrokes.add(new DraggedPoints(iaPoints
+                    , iPoints
+                    , iSize
+                    , cColor
+                    , (iFlags & FLAG_REFLECTED) != 0
+                    , (iFlags & FLAG_ERASER) != 0));
+        }
+        return alStrokes;
+    }
+
+    //writes out the buffer if there isn't room for the next values
+    private static void ensureSpace(ByteBuffer bb, WritableByteChannel wbcOut, int iBytes) throws IOException {
+        if(bb.remaining() < iBytes) {
+            bb.flip();
+            while(bb.hasRemaining()) {
+                wbcOut.write(bb);
+            }
+            bb.clear();
+        }
+    }
+
+    //unsigned LEB128, seven bits a byte with the top bit set on every byte but the last
+    private static void putVarint(ByteBuffer bb, int iValue) {
+        while((iValue & ~0x7F) != 0) {
+            bb.put((byte) ((iValue & 0x7F) | 0x80));
+            iValue >>>= 7;
+        }
+        bb.put((byte) iValue);
+    }
+
+    private static int getVarint(ByteBuffer bb) throws IOException {
+        int iValue = 0;
+        for(int iShift = 0 ; iShift < 35 ; iShift += 7) {
+            byte b = bb.get();
+            iValue |= (b & 0x7F) << iShift;
+            if(b >= 0) {
+                return iValue;
+            }
+        }
+        throw new IOException("Malformed number in doily document");
+    }
+
+    //maps small negative numbers to small positive ones, so they stay short as varints
+    private static int zigzag(int iValue) {
+        return (iValue << 1) ^ (iValue >> 31);
+    }
+
+    private static int unzigzag(int iValue) {
+        return (iValue >>> 1) ^ -(iValue & 1);
+    }
+}
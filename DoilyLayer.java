@@ -0,0 +1,358 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * One layer of the doily, with its own strokes, sectors, sector lines, reflection setting and visibility
+ * Each layer keeps its own cached image, history, checkpoints and eraser index, so a change to one layer only redraws that layer
+ * and the drawing panel just composites the cached images, bottom layer first.
+ * The strokes, history and cache are shared with the eraser thread, so are only touched while holding the panel's stroke lock.
+ * The sectors and lines are changed on the render thread, so the values last asked for are kept as well, for the controls to read
+ */
+
+public class DoilyLayer {
+    //each checkpoint is a full copy of the cache, so only a few are kept
+    private static final int CHECKPOINT_LIMIT = 6;
+
+    private String sName;
+    private volatile boolean bVisible = true;
+    private volatile int iSectors;
+    private volatile boolean bLines;
+    private volatile boolean bReflecting;
+    //the sectors and lines as last asked for, which are ahead of those drawn until the render thread applies them
+    private volatile int iRequestedSectors;
+    private volatile boolean bRequestedLines;
+
+    private final Stack<DraggedPoints> stStrokes = new Stack<>();
+    private final EditHistory ehHistory = new EditHistory();
+    private final RasterCheckpoints rcCheckpoints = new RasterCheckpoints(CHECKPOINT_LIMIT);
+    private int iEditsSinceCheckpoint;
+    //replaced whenever a setting the cache depends on changes, so older checkpoints are never used
+    private Object oCacheSettings = new Object();
+    private BufferedImage biCache;
+    private boolean bCacheValid;
+    private boolean bCachePreview;
+    private Rectangle rCacheDirty;
+    private SectorTransforms stfTransforms;
+    private DoilyRenderer drRenderer;
+    private PointGrid pgIndex;
+
+    /**
+     * Creates an empty, visible layer
+     * @param sName The name shown for the layer
+     * @param iSectors The number of sectors
+     * @param bLines Whether to draw the sector lines
+     */
+    public DoilyLayer(String sName, int iSectors, boolean bLines) {
+        this.sName = sName;
+        this.iSectors = iSectors;
+        this.bLines = bLines;
+        this.iRequestedSectors = iSectors;
+        this.bRequestedLines = bLines;
+    }
+
+    /**
+     * Makes sure the cache is the size of the panel, starting a new one if it was resized, as the old one has the wrong centre
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return The cache, which needs redrawing if it isn't valid
+     */
+    public BufferedImage prepareCache(int iWidth, int iHeight) {
+        if(biCache == null || biCache.getWidth() != iWidth || biCache.getHeight() != iHeight) {
+            biCache = new BufferedImage(iWidth, iHeight, BufferedImage.TYPE_INT_ARGB);
+            bCacheValid = false;
+        }
+        return biCache;
+    }
+
+    /**
+     * Marks the cache as showing exactly the strokes, once it has been redrawn
+     * @param bPreview Whether it was redrawn as a rough preview
+     */
+    public void markCacheDrawn(boolean bPreview) {
+        bCacheValid = true;
+        bCachePreview = bPreview;
+        rCacheDirty = null;
+    }
+
+    /**
+     * Marks the cache as out of date, so it is redrawn on the next paint
+     */
+    public void invalidateCache() {
+        bCacheValid = false;
+    }
+
+    /**
+     * Marks part of the cache as out of date, so only that part is redrawn on the next paint
+     * @param rRegion The area which has changed
+     */
+    public void invalidateCache(Rectangle rRegion) {
+        if(rCacheDirty == null) {
+            rCacheDirty = new Rectangle(rRegion);
+        }
+        else {
+            rCacheDirty.add(rRegion);
+        }
+    }
+
+    /**
+     * Marks the cache as out of date along with every checkpoint taken so far
+     * Called when a setting kept outside the layer, such as stamping, changes how the cache is drawn
+     */
+    public void changeCacheSettings() {
+        oCacheSettings = new Object();
+        bCacheValid = false;
+    }
+
+    /**
+     * Records an edit to the strokes in the history, so it can be undone
+     * @param seEdit The edit
+     * @param oGroup Edits with the same group in a row are undone together, or null for none
+     */
+    public void recordEdit(StackEdit seEdit, Object oGroup) {
+        ehHistory.record(seEdit, oGroup);
+        iEditsSinceCheckpoint++;
+    }
+
+    /**
+     * Starts the cache from the newest checkpoint which shows the bottom of the strokes, if there is one
+     * @return The number of strokes the cache now shows, or -1 if no checkpoint could be used
+     */
+    public int restoreCheckpoint() {
+        return rcCheckpoints.restore(biCache, stStrokes, oCacheSettings);
+    }
+
+    /**
+     * Works out whether redrawing would start from a checkpoint, rather than drawing every stroke
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return true if a checkpoint could be used
+     */
+    public boolean canRestoreCheckpoint(int iWidth, int iHeight) {
+        return rcCheckpoints.canRestore(stStrokes, oCacheSettings, iWidth, iHeight);
+    }
+
+    /**
+     * Keeps a copy of the cache, which shows exactly the strokes, if there have been enough edits since the last one
+     * A preview is never kept, as undo would show it long after the settings have settled
+     * @param iInterval The number of edits between checkpoints, or 0 for none
+     */
+    public void checkpoint(int iInterval) {
+        if(!bCachePreview && iInterval > 0 && iEditsSinceCheckpoint >= iInterval && !stStrokes.isEmpty()) {
+            rcCheckpoints.add(biCache, stStrokes, oCacheSettings);
+            iEditsSinceCheckpoint = 0;
+        }
+    }
+
+    /**
+     * Forgets every checkpoint, such as when they are turned off
+     */
+    public void clearCheckpoints() {
+        rcCheckpoints.clear();
+        iEditsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Replaces the strokes, such as with those of an opened document, starting a new history
+     * @param lStrokes The new strokes, bottom first
+     */
+    public void replaceStrokes(List<DraggedPoints> lStrokes) {
+        stStrokes.clear();
+        stStrokes.addAll(lStrokes);
+        ehHistory.clear();
+        rcCheckpoints.clear();
+        iEditsSinceCheckpoint = 0;
+        //the index is rebuilt from the new strokes the next time it is needed
+        pgIndex = null;
+        oCacheSettings = new Object();
+        bCacheValid = false;
+    }
+
+    /**
+     * Takes a copy of the strokes and the settings needed to draw them, for saving the layer in a document
+     * @return The saved layer
+     */
+    public DoilyDocument.Layer toDocumentLayer() {
+        return new DoilyDocument.Layer(sName, new ArrayList<>(stStrokes), iSectors, bLines, bReflecting, bVisible);
+    }
+
+    /**
+     * Creates a layer from one saved in a document, with a new history
+     * @param dlSaved The saved layer
+     * @return The layer
+     */
+    public static DoilyLayer fromDocumentLayer(DoilyDocument.Layer dlSaved) {
+        DoilyLayer dlLayer = new DoilyLayer(dlSaved.getName(), dlSaved.getSectors(), dlSaved.isDrawingLines());
+        dlLayer.setReflecting(dlSaved.isReflecting());
+        dlLayer.setVisible(dlSaved.isVisible());
+        dlLayer.replaceStrokes(dlSaved.getStrokes());
+        return dlLayer;
+    }
+
+    /**
+     * Works out the area of the panel changed by drawing inside a rectangle, in every sector of this layer
+     * @param dMinX The left of the points drawn
+     * @param dMinY The top of the points drawn
+     * @param dMaxX The right of the points drawn
+     * @param dMaxY The bottom of the points drawn
+     * @param iSize The size of the stroke
+     * @param bReflected Whether the stroke is reflected
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return The area to repaint
+     */
+    public Rectangle getDirtyRegion(double dMinX, double dMinY, double dMaxX, double dMaxY, int iSize, boolean bReflected, int iWidth, int iHeight) {
+        //widen by the size of the stroke, plus a little for the point outline and antialiasing
+        double dPadding = iSize / 2.0 + 2;
+        return this.getSectorTransforms(iWidth, iHeight).getSectorBounds(dMinX - dPadding, dMinY - dPadding
+                , dMaxX + dPadding, dMaxY + dPadding
+                , bReflected);
+    }
+
+    //getters
+    public String getName() {
+        return sName;
+    }
+
+    public boolean isVisible() {
+        return bVisible;
+    }
+
+    public int getSectors() {
+        return iSectors;
+    }
+
+    public boolean isDrawingLines() {
+        return bLines;
+    }
+
+    public int getRequestedSectors() {
+        return iRequestedSectors;
+    }
+
+    public boolean isRequestedLines() {
+        return bRequestedLines;
+    }
+
+    public boolean isReflecting() {
+        return bReflecting;
+    }
+
+    public Stack<DraggedPoints> getStrokes() {
+        return stStrokes;
+    }
+
+    public EditHistory getHistory() {
+        return ehHistory;
+    }
+
+    public BufferedImage getCache() {
+        return biCache;
+    }
+
+    public boolean isCacheValid() {
+        return bCacheValid;
+    }
+
+    public boolean isCachePreview() {
+        return bCachePreview;
+    }
+
+    public Rectangle getCacheDirty() {
+        return rCacheDirty;
+    }
+
+    /**
+     * Gets the table of sector transforms, rebuilding it only if the sectors or the size of the panel have changed
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return The transforms for the current settings
+     */
+    public SectorTransforms getSectorTransforms(int iWidth, int iHeight) {
+        if(stfTransforms == null || !stfTransforms.matches(iSectors, iWidth, iHeight)) {
+            stfTransforms = new SectorTransforms(iSectors, iWidth, iHeight);
+        }
+        return stfTransforms;
+    }
+
+    /**
+     * Gets the renderer for the current sector transforms
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return The renderer
+     */
+    public DoilyRenderer getRenderer(int iWidth, int iHeight) {
+        SectorTransforms stfTransforms = this.getSectorTransforms(iWidth, iHeight);
+        if(drRenderer == null || drRenderer.getTransforms() != stfTransforms) {
+            drRenderer = new DoilyRenderer(stfTransforms);
+        }
+        return drRenderer;
+    }
+
+    /**
+     * Gets the eraser's index of the layer's points, building it from the strokes the first time or if the panel is resized
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @return The index of every point on the layer
+     */
+    public PointGrid getPointIndex(int iWidth, int iHeight) {
+        if(pgIndex == null || !pgIndex.matches(iWidth, iHeight)) {
+            pgIndex = new PointGrid(iWidth, iHeight);
+            for(DraggedPoints d : stStrokes) {
+                pgIndex.addStroke(d);
+            }
+        }
+        return pgIndex;
+    }
+
+    /**
+     * Gets the eraser's index only if it has already been built, so changes to the strokes can be kept in it
+     * @return The index, or null if it will be built from the strokes when next needed
+     */
+    public PointGrid getBuiltIndex() {
+        return pgIndex;
+    }
+
+    //setters
+    public void setName(String sName) {
+        this.sName = sName;
+    }
+
+    public void setVisible(boolean bVisible) {
+        this.bVisible = bVisible;
+    }
+
+    public void setSectors(int iSectors) {
+        this.iSectors = iSectors;
+        oCacheSettings = new Object();
+        bCacheValid = false;
+    }
+
+    public void setDrawingLines(boolean bLines) {
+        this.bLines = bLines;
+        oCacheSettings = new Object();
+        bCacheValid = false;
+    }
+
+    /**
+     * Notes the sectors asked for, before the change is queued for the render thread to apply with setSectors
+     * @param iSectors The number of sectors
+     */
+    public void requestSectors(int iSectors) {
+        this.iRequestedSectors = iSectors;
+    }
+
+    /**
+     * Notes whether the sector lines were asked for, before the change is queued for the render thread to apply with setDrawingLines
+     * @param bLines Whether to draw the sector lines
+     */
+    public void requestDrawingLines(boolean bLines) {
+        this.bRequestedLines = bLines;
+    }
+
+    public void setReflecting(boolean bReflecting) {
+        this.bReflecting = bReflecting;
+    }
+}
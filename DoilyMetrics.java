@@ -0,0 +1,326 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Records how long the drawing panel takes to paint and erase, and how much work each one did
+ * The recent samples are shown as percentiles through JMX, and every paint and erase is also a JFR event,
+ * so a running instance can be watched with jconsole or recorded with "jcmd <pid> JFR.start"
+ * With a render thread, a paint is the drawing of a frame and the event thread's copy of it to the screen is a blit,
+ * and each frame also records how long after the last one it went up and how long its oldest input waited
+ * Paints, blits and erases happen on different threads, so every method holds the lock
+ */
+
+public class DoilyMetrics implements DoilyMetricsMBean {
+    //the number of recent paints and erases the percentiles are taken over
+    private static final int WINDOW_SIZE = 1000;
+
+    //looked up once, as looking it up allocates more than a frame does
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final RollingWindow rwPaintNanos = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwPointsDrawn = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwSegmentsDrawn = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwAllocatedBytes = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwEraseNanos = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwPointsErased = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwFrameIntervalNanos = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwInputLatencyNanos = new RollingWindow(WINDOW_SIZE);
+    private final RollingWindow rwBlitNanos = new RollingWindow(WINDOW_SIZE);
+    private long lFrames;
+    private long lPaintNanosMax;
+    private int iSectors;
+    private int iStrokeCount;
+
+    /**
+     * Registers the metrics with the platform MBean server, so JMX clients can find them
+     * @param sName The object name to register under, e.g. "doily:type=DrawingPanel"
+     * @throws JMException If the name is taken or isn't valid
+     */
+    public void register(String sName) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(sName));
+    }
+
+    /**
+     * Records a finished paint and commits its event
+     * @param ePaint The event, begun when the paint started and ended when it finished
+     * @param lNanos How long the paint took
+     * @param lPoints The points drawn, counting every sector and reflection
+     * @param lSegments The lines drawn between points, counting every sector and reflection
+     * @param iSectors The number of sectors
+     * @param iStrokeCount The number of committed strokes
+     * @param lAllocated The bytes the painting thread allocated, or -1 if it couldn't be measured
+     */
+    public synchronized void recordPaint(PaintEvent ePaint, long lNanos, long lPoints, long lSegments, int iSectors, int iStrokeCount, long lAllocated) {
+        rwPaintNanos.add(lNanos);
+        rwPointsDrawn.add(lPoints);
+        rwSegmentsDrawn.add(lSegments);
+        if(lAllocated >= 0) {
+            rwAllocatedBytes.add(lAllocated);
+        }
+        lPaintNanosMax = Math.max(lPaintNanosMax, lNanos);
+        this.iSectors = iSectors;
+        this.iStrokeCount = iStrokeCount;
+
+        if(ePaint.shouldCommit()) {
+            ePaint.lPointsDrawn = lPoints;
+            ePaint.lSegmentsDrawn = lSegments;
+            ePaint.iSectors = iSectors;
+            ePaint.iStrokeCount = iStrokeCount;
+            ePaint.lAllocatedBytes = lAllocated;
+            ePaint.commit();
+        }
+    }
+
+    /**
+     * Records a finished erase and commits its event
+     * @param eErase The event, begun when the erase started and ended when it finished
+     * @param lNanos How long the erase took
+     * @param lPointsErased The points removed from the strokes
+     */
+    public synchronized void recordErase(EraseEvent eErase, long lNanos, long lPointsErased) {
+        rwEraseNanos.add(lNanos);
+        rwPointsErased.add(lPointsErased);
+
+        if(eErase.shouldCommit()) {
+            eErase.lPointsErased = lPointsErased;
+            eErase.commit();
+        }
+    }
+
+    /**
+     * Records a frame put up by the render thread and commits its event
+     * @param lNanos How long the frame took, from applying its input to swapping it to the front
+     * @param lIntervalNanos The time since the frame before went up, or -1 if there was no input waiting then
+     * @param lLatencyNanos The time from its oldest input being queued to the frame going up, or -1 if it had none
+     */
+    public synchronized void recordFrame(long lNanos, long lIntervalNanos, long lLatencyNanos) {
+        lFrames++;
+        if(lIntervalNanos >= 0) {
+            rwFrameIntervalNanos.add(lIntervalNanos);
+        }
+        if(lLatencyNanos >= 0) {
+            rwInputLatencyNanos.add(lLatencyNanos);
+        }
+
+        FrameEvent eFrame = new FrameEvent();
+        if(eFrame.shouldCommit()) {
+            eFrame.lFrameNanos = lNanos;
+            eFrame.lIntervalNanos = lIntervalNanos;
+            eFrame.lLatencyNanos = lLatencyNanos;
+            eFrame.commit();
+        }
+    }
+
+    /**
+     * Records the event thread copying a finished frame to the screen
+     * @param lNanos How long the copy took
+     */
+    public synchronized void recordBlit(long lNanos) {
+        rwBlitNanos.add(lNanos);
+    }
+
+    /**
+     * Gets the bytes allocated by the current thread so far, to take the difference across a frame
+     * @return The bytes, or -1 if the JVM can't measure it
+     */
+    public static long allocatedBytes() {
+        if(THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean tmxb = (com.sun.management.ThreadMXBean) THREADS;
+            if(tmxb.isThreadAllocatedMemorySupported() && tmxb.isThreadAllocatedMemoryEnabled()) {
+                return tmxb.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    public synchronized void reset() {
+        rwPaintNanos.clear();
+        rwPointsDrawn.clear();
+        rwSegmentsDrawn.clear();
+        rwAllocatedBytes.clear();
+        rwEraseNanos.clear();
+        rwPointsErased.clear();
+        rwFrameIntervalNanos.clear();
+        rwInputLatencyNanos.clear();
+        rwBlitNanos.clear();
+        lPaintNanosMax = 0;
+        lFrames = 0;
+    }
+
+    //getters
+    public synchronized long getPaintCount() {
+        return rwPaintNanos.getTotal();
+    }
+
+    public synchronized double getPaintMillisP50() {
+        return rwPaintNanos.getPercentile(50) / 1e6;
+    }
+
+    public synchronized double getPaintMillisP95() {
+        return rwPaintNanos.getPercentile(95) / 1e6;
+    }
+
+    public synchronized double getPaintMillisP99() {
+        return rwPaintNanos.getPercentile(99) / 1e6;
+    }
+
+    public synchronized double getPaintMillisMax() {
+        return lPaintNanosMax / 1e6;
+    }
+
+    public synchronized long getPointsDrawnP50() {
+        return rwPointsDrawn.getPercentile(50);
+    }
+
+    public synchronized long getPointsDrawnP95() {
+        return rwPointsDrawn.getPercentile(95);
+    }
+
+    public synchronized long getSegmentsDrawnP50() {
+        return rwSegmentsDrawn.getPercentile(50);
+    }
+
+    public synchronized long getSegmentsDrawnP95() {
+        return rwSegmentsDrawn.getPercentile(95);
+    }
+
+    public synchronized long getAllocatedBytesP50() {
+        return rwAllocatedBytes.getCount() == 0 ? -1 : rwAllocatedBytes.getPercentile(50);
+    }
+
+    public synchronized long getAllocatedBytesP95() {
+        return rwAllocatedBytes.getCount() == 0 ? -1 : rwAllocatedBytes.getPercentile(95);
+    }
+
+    public synchronized int getSectors() {
+        return iSectors;
+    }
+
+    public synchronized int getStrokeCount() {
+        return iStrokeCount;
+    }
+
+    public synchronized long getEraseCount() {
+        return rwEraseNanos.getTotal();
+    }
+
+    public synchronized double getEraseMillisP50() {
+        return rwEraseNanos.getPercentile(50) / 1e6;
+    }
+
+    public synchronized double getEraseMillisP95() {
+        return rwEraseNanos.getPercentile(95) / 1e6;
+    }
+
+    public synchronized double getEraseMillisP99() {
+        return rwEraseNanos.getPercentile(99) / 1e6;
+    }
+
+    public synchronized long getPointsErasedP50() {
+        return rwPointsErased.getPercentile(50);
+    }
+
+    public synchronized long getPointsErasedP95() {
+        return rwPointsErased.getPercentile(95);
+    }
+
+    public synchronized long getFrameCount() {
+        return lFrames;
+    }
+
+    public synchronized double getFrameIntervalMillisP50() {
+        return rwFrameIntervalNanos.getPercentile(50) / 1e6;
+    }
+
+    public synchronized double getFrameIntervalMillisP95() {
+        return rwFrameIntervalNanos.getPercentile(95) / 1e6;
+    }
+
+    public synchronized double getFrameIntervalMillisP99() {
+        return rwFrameIntervalNanos.getPercentile(99) / 1e6;
+    }
+
+    public synchronized double getInputLatencyMillisP50() {
+        return rwInputLatencyNanos.getPercentile(50) / 1e6;
+    }
+
+    public synchronized double getInputLatencyMillisP95() {
+        return rwInputLatencyNanos.getPercentile(95) / 1e6;
+    }
+
+    public synchronized double getInputLatencyMillisP99() {
+        return rwInputLatencyNanos.getPercentile(99) / 1e6;
+    }
+
+    public synchronized double getBlitMillisP50() {
+        return rwBlitNanos.getPercentile(50) / 1e6;
+    }
+
+    public synchronized double getBlitMillisP95() {
+        return rwBlitNanos.getPercentile(95) / 1e6;
+    }
+
+    /**
+     * A JFR event for one paint of the drawing panel, lasting as long as the paint did
+     */
+    @Name("doily.Paint")
+    @Label("Doily Paint")
+    @Category("Doily")
+    public static class PaintEvent extends Event {
+        @Label("Points Drawn")
+        long lPointsDrawn;
+
+        @Label("Segments Drawn")
+        long lSegmentsDrawn;
+
+        @Label("Sectors")
+        int iSectors;
+
+        @Label("Stroke Count")
+        int iStrokeCount;
+
+        @Label("Allocated")
+        @DataAmount
+        long lAllocatedBytes;
+    }
+
+    /**
+     * A JFR event for one frame put up by the render thread, with the pacing and latency it was recorded with
+     */
+    @Name("doily.Frame")
+    @Label("Doily Frame")
+    @Category("Doily")
+    public static class FrameEvent extends Event {
+        @Label("Frame Time")
+        @Timespan
+        long lFrameNanos;
+
+        @Label("Interval")
+        @Timespan
+        long lIntervalNanos;
+
+        @Label("Input Latency")
+        @Timespan
+        long lLatencyNanos;
+    }
+
+    /**
+     * A JFR event for one batch of points removed by the eraser, lasting as long as the removal did
+     */
+    @Name("doily.Erase")
+    @Label("Doily Erase")
+    @Category("Doily")
+    public static class EraseEvent extends Event {
+        @Label("Points Erased")
+        long lPointsErased;
+    }
+}
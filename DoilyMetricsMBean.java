@@ -0,0 +1,82 @@
+/**
+ * What the drawing panel's metrics show through JMX, for reading with jconsole or any other JMX client
+ * Percentiles are over the most recent frames and erases only, so they follow what the panel is doing now
+ */
+
+public interface DoilyMetricsMBean {
+    long getPaintCount();
+
+    double getPaintMillisP50();
+
+    double getPaintMillisP95();
+
+    double getPaintMillisP99();
+
+    double getPaintMillisMax();
+
+    long getPointsDrawnP50();
+
+    long getPointsDrawnP95();
+
+    long getSegmentsDrawnP50();
+
+    long getSegmentsDrawnP95();
+
+    /**
+     * @return The median bytes allocated by the painting thread per frame, or -1 if the JVM can't measure it
+     */
+    long getAllocatedBytesP50();
+
+    long getAllocatedBytesP95();
+
+    int getSectors();
+
+    int getStrokeCount();
+
+    long getEraseCount();
+
+    double getEraseMillisP50();
+
+    double getEraseMillisP95();
+
+    double getEraseMillisP99();
+
+    long getPointsErasedP50();
+
+    long getPointsErasedP95();
+
+    /**
+     * @return The number of frames put up by the render thread, or 0 if frames are drawn on the event thread
+     */
+    long getFrameCount();
+
+    /**
+     * @return The median time between frames while input kept arriving, which is the frame interval if frames keep up
+     */
+    double getFrameIntervalMillisP50();
+
+    double getFrameIntervalMillisP95();
+
+    double getFrameIntervalMillisP99();
+
+    /**
+     * @return The median time from input being queued for the render thread to a frame showing it going up
+     */
+    double getInputLatencyMillisP50();
+
+    double getInputLatencyMillisP95();
+
+    double getInputLatencyMillisP99();
+
+    /**
+     * @return The median time the event thread took to copy a finished frame to the screen
+     */
+    double getBlitMillisP50();
+
+    double getBlitMillisP95();
+
+    /**
+     * Forgets every sample, such as before reproducing a problem
+     */
+    void reset();
+}
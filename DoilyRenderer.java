@@ -0,0 +1,531 @@
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Draws strokes and sector lines into every sector of the doily
+ * Shared by the DrawingPanel and anything which renders a doily away from the screen, so they all have the same geometry
+ * Large areas are split into bands which are drawn in parallel, each into its own buffer, and then copied into place,
+ * unless the renderer is given no pool, as when its caller already keeps every core busy
+ */
+
+public class DoilyRenderer {
+    private static final BasicStroke POINT_STROKE = new BasicStroke(1);
+    //bands thinner than this cost more in repeated path work than they save
+    private static final int MIN_BAND_HEIGHT = 32;
+    private static final int BANDS_PER_THREAD = 2;
+
+    private final SectorTransforms stfTransforms;
+    private final ForkJoinPool fjpPool;
+
+    /**
+     * Creates a renderer for a number of sectors and canvas size, drawing on the common pool
+     * @param stfTransforms The transforms for each sector
+     */
+    public DoilyRenderer(SectorTransforms stfTransforms) {
+        this(stfTransforms, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a renderer for a number of sectors and canvas size
+     * @param stfTransforms The transforms for each sector
+     * @param fjpPool The pool to draw bands on, or null to draw everything on the calling thread
+     */
+    public DoilyRenderer(SectorTransforms stfTransforms, ForkJoinPool fjpPool) {
+        this.stfTransforms = stfTransforms;
+        this.fjpPool = fjpPool;
+    }
+
+    /**
+     * Renders a whole document on to a black background, as the DrawingPanel would show it
+     * The bottom visible layer is drawn straight over the background, and each one above it on a clear image laid over the rest,
+     * as the panel composites its layers' caches
+     * @param ddDocument The document to render
+     * @return The rendered image, the size of the document's canvas, which is left black if no layer is visible
+     */
+    public static BufferedImage render(DoilyDocument ddDocument) {
+        return render(ddDocument, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Renders a whole document on to a black background, drawing its bands on a particular pool
+     * @param ddDocument The document to render
+     * @param fjpPool The pool to draw bands on, or null to draw everything on the calling thread
+     * @return The rendered image, the size of the document's canvas, which is left black if no layer is visible
+     */
+    public static BufferedImage render(DoilyDocument ddDocument, ForkJoinPool fjpPool) {
+        BufferedImage image = new BufferedImage(Math.max(1, ddDocument.getWidth())
+                , Math.max(1, ddDocument.getHeight())
+                , BufferedImage.TYPE_INT_RGB);
+        Rectangle rAll = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+
+        BufferedImage biLayer = null;
+        boolean bBottom = true;
+        for(DoilyDocument.Layer dlLayer : ddDocument.getLayers()) {
+            if(!dlLayer.isVisible()) {
+                continue;
+            }
+            DoilyRenderer drRenderer = new DoilyRenderer(new SectorTransforms(dlLayer.getSectors()
+                    , ddDocument.getWidth()
+                    , ddDocument.getHeight())
+                    , fjpPool);
+            if(bBottom) {
+                drRenderer.renderRegion(image, rAll, dlLayer.getStrokes(), dlLayer.isDrawingLines(), Color.BLACK);
+                bBottom = false;
+                continue;
+            }
+
+            if(biLayer == null) {
+                biLayer = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            }
+            drRenderer.renderRegion(biLayer, rAll, dlLayer.getStrokes(), dlLayer.isDrawingLines(), null);
+            Graphics2D g2d = image.createGraphics();
+            g2d.drawImage(biLayer, 0, 0, null);
+            g2d.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Replaces part of an image with the sector lines and strokes drawn over a background
+     * The part is split into bands drawn in parallel on the pool, unless it is too small or there is no pool or only one thread
+     * The strokes must not change until this returns
+     * @param image The image to draw into
+     * @param rRegion The part of the image to replace
+     * @param lStrokes The strokes to draw, bottom first
+     * @param bLines Whether to draw the sector lines
+     * @param cBackground The colour to draw over, or null to leave the background transparent
+     */
+    public void renderRegion(BufferedImage image, Rectangle rRegion, List<DraggedPoints> lStrokes, boolean bLines, Color cBackground) {
+        Rectangle rArea = rRegion.intersection(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if(rArea.isEmpty()) {
+            return;
+        }
+
+        //strokes which can't reach the area in any sector are left out, so a small area only costs the strokes near it
+        List<DraggedPoints> lReaching = new ArrayList<>();
+        for(DraggedPoints d : lStrokes) {
+            if(this.ringReaches(d, rArea)) {
+                lReaching.add(d);
+            }
+        }
+
+        //every band draws every stroke left, so the paths are only built once up front
+        DraggedPoints[] daStrokes = lReaching.toArray(new DraggedPoints[0]);
+        Path2D.Float[] paPaths = new Path2D.Float[daStrokes.length];
+        for(int i = 0 ; i < daStrokes.length ; i++) {
+            if(daStrokes[i].getPointCount() != 1) {
+                paPaths[i] = daStrokes[i].toPath();
+            }
+        }
+
+        int iBands = fjpPool == null || fjpPool.getParallelism() == 1
+                ? 1
+                : Math.min(fjpPool.getParallelism() * BANDS_PER_THREAD, rArea.height / MIN_BAND_HEIGHT);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setClip(rArea);
+        if(iBands <= 1) {
+            //not worth splitting, so draw straight into the image
+            this.renderBand(g2d, rArea, daStrokes, paPaths, bLines, cBackground);
+        }
+        else {
+            //each band is drawn into its own image of the same type, then they are copied into place in order
+            int iType = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB_PRE : image.getType();
+            List<ForkJoinTask<BufferedImage>> lBands = new ArrayList<>();
+            for(int i = 0 ; i < iBands ; i++) {
+                int iTop = rArea.y + rArea.height * i / iBands;
+                int iBottom = rArea.y + rArea.height * (i + 1) / iBands;
+                Rectangle rBand = new Rectangle(rArea.x, iTop, rArea.width, iBottom - iTop);
+                lBands.add(fjpPool.submit(() -> this.renderBandImage(rBand, iType, daStrokes, paPaths, bLines, cBackground)));
+            }
+            g2d.setComposite(AlphaComposite.Src);
+            for(int i = 0 ; i < iBands ; i++) {
+                int iTop = rArea.y + rArea.height * i / iBands;
+                g2d.drawImage(lBands.get(i).join(), rArea.x, iTop, null);
+            }
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * Run on the pool, draws one band into an image of its own
+     * @param iType The type of image to draw into
+     * @return The band, with its top left corner at the band's top left
+     */
+    private BufferedImage renderBandImage(Rectangle rBand, int iType, DraggedPoints[] daStrokes, Path2D.Float[] paPaths, boolean bLines, Color cBackground) {
+        BufferedImage biBand = new BufferedImage(rBand.width, rBand.height, iType);
+        Graphics2D g2d = biBand.createGraphics();
+        g2d.translate(-rBand.x, -rBand.y);
+        g2d.setClip(rBand);
+        this.renderBand(g2d, rBand, daStrokes, paPaths, bLines, cBackground);
+        g2d.dispose();
+        return biBand;
+    }
+
+    /**
+     * Wipes an area and draws the lines and strokes into it
+     * @param g2d The graphics to draw with, already clipped to the area
+     * @param rBand The area to draw
+     */
+    private void renderBand(Graphics2D g2d, Rectangle rBand, DraggedPoints[] daStrokes, Path2D.Float[] paPaths, boolean bLines, Color cBackground) {
+        if(cBackground == null) {
+            g2d.setComposite(AlphaComposite.Clear);
+            g2d.fill(rBand);
+            g2d.setComposite(AlphaComposite.SrcOver);
+        }
+        else {
+            g2d.setColor(cBackground);
+            g2d.fill(rBand);
+        }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        if(bLines) {
+            this.drawBackgroundLines(g2d);
+        }
+        for(int i = 0 ; i < daStrokes.length ; i++) {
+            g2d.setColor(daStrokes[i].getcPointsColor());
+            if(paPaths[i] == null) {
+                this.drawPoint(g2d, daStrokes[i]);
+            }
+            else {
+                this.drawLines(g2d, daStrokes[i], paPaths[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces a whole image with the sector lines and strokes, drawing only the first sector's wedge and stamping it into the rest
+     * The doily looks the same once turned by a sector, reflections included, so each wedge is the first one turned into place.
+     * Only the copies of each stroke which reach the first wedge are drawn, so the drawing no longer grows with the sectors,
+     * but every wedge after the first is resampled, so it is a little softer than when each sector is drawn
+     * @param image The image to draw into, the size of the canvas
+     * @param lStrokes The strokes to draw, bottom first
+     * @param bLines Whether to draw the sector lines
+     * @param cBackground The colour to draw over, or null to leave the background transparent
+     */
+    public void renderStamped(BufferedImage image, List<DraggedPoints> lStrokes, boolean bLines, Color cBackground) {
+        if(stfTransforms.getSectors() == 1) {
+            this.renderRegion(image, new Rectangle(0, 0, image.getWidth(), image.getHeight()), lStrokes, bLines, cBackground);
+            return;
+        }
+        this.renderWedges(image, lStrokes, bLines, cBackground, false, 1);
+    }
+
+    /**
+     * Replaces a whole image with a rough preview of the sector lines and strokes, for while the settings are changing quickly
+     * The first sector's wedge is stamped into the rest as in renderStamped, but without antialiasing or smoothing,
+     * and only every few points of each stroke are joined, so its cost hardly changes with the sectors or the length of the strokes
+     * @param image The image to draw into, the size of the canvas
+     * @param lStrokes The strokes to draw, bottom first
+     * @param bLines Whether to draw the sector lines
+     * @param cBackground The colour to draw over, or null to leave the background transparent
+     * @param iStep How many points of each stroke to move along for each one joined
+     */
+    public void renderPreview(BufferedImage image, List<DraggedPoints> lStrokes, boolean bLines, Color cBackground, int iStep) {
+        this.renderWedges(image, lStrokes, bLines, cBackground, true, iStep);
+    }
+
+    /**
+     * Does the work of renderStamped and renderPreview
+     * With one sector the wedge is the whole canvas, so it is only copied into place
+     * @param bPreview Whether to draw without antialiasing and stamp without smoothing
+     * @param iStep How many points of each stroke to move along for each one joined
+     */
+    private void renderWedges(BufferedImage image, List<DraggedPoints> lStrokes, boolean bLines, Color cBackground, boolean bPreview, int iStep) {
+        int iSectors = stfTransforms.getSectors();
+        Object oAntialiasing = bPreview ? RenderingHints.VALUE_ANTIALIAS_OFF : RenderingHints.VALUE_ANTIALIAS_ON;
+        Object oInterpolation = bPreview ? RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR : RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+
+        //a copy reaches the wedge when the stroke reaches the wedge turned back out of that copy's sector
+        //turning back a rotation is the rotation the other way, and every reflection is its own reverse
+        Shape sWedge = iSectors == 1 ? new Rectangle(0, 0, image.getWidth(), image.getHeight()) : this.getWedge();
+        Shape[] saRotated = new Shape[iSectors];
+        Shape[] saReflected = new Shape[iSectors];
+        for(int i = 0 ; i < iSectors ; i++) {
+            saRotated[i] = stfTransforms.getRotation((iSectors - i) % iSectors).createTransformedShape(sWedge);
+            saReflected[i] = stfTransforms.getReflection(i).createTransformedShape(sWedge);
+        }
+
+        //the wedge reaches past the edge of the canvas, as turning it into the other sectors brings that part into the corners
+        //it is drawn over the background, so stamping it replaces the pixels underneath
+        Rectangle rWedge = sWedge.getBounds();
+        rWedge.grow(2, 2);
+        BufferedImage biWedge = new BufferedImage(rWedge.width, rWedge.height, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = biWedge.createGraphics();
+        g2d.translate(-rWedge.x, -rWedge.y);
+        if(cBackground != null) {
+            g2d.setColor(cBackground);
+            g2d.fill(rWedge);
+        }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, oAntialiasing);
+        if(bLines) {
+            this.drawBackgroundLines(g2d);
+        }
+        AffineTransform atxBase = g2d.getTransform();
+        for(DraggedPoints d : lStrokes) {
+            Rectangle2D rBounds = getBounds(d);
+            Path2D.Float path = d.getPointCount() == 1 ? null : d.toPath(iStep);
+            g2d.setColor(d.getcPointsColor());
+            //as in drawLines and drawPoint, the reflected copies go under the rotated ones
+            if(d.isbReflected()) {
+                for(int i = 0 ; i < iSectors ; i++) {
+                    if(saReflected[i].intersects(rBounds)) {
+                        stfTransforms.setReflection(g2d, atxBase, i);
+                        this.drawCopy(g2d, d, path);
+                    }
+                }
+            }
+            for(int i = 0 ; i < iSectors ; i++) {
+                if(saRotated[i].intersects(rBounds)) {
+                    stfTransforms.setRotation(g2d, atxBase, i);
+                    this.drawCopy(g2d, d, path);
+                }
+            }
+        }
+        g2d.dispose();
+
+        //each sector's wedge overlaps its neighbours a little, so no pixel along the edges between them is missed
+        g2d = image.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, oInterpolation);
+        for(int i = 0 ; i < iSectors ; i++) {
+            AffineTransform atxRotation = stfTransforms.getRotation(i);
+            g2d.setClip(atxRotation.createTransformedShape(sWedge));
+            atxRotation.translate(rWedge.x, rWedge.y);
+            g2d.drawImage(biWedge, atxRotation, null);
+        }
+        g2d.dispose();
+    }
+
+    /**
+     * Works out the first sector's wedge, from the sector line drawn up from the centre round to the next one
+     * It is widened very slightly at both sides and reaches as far as the corners, with its arc made of short straight lines
+     * @return The wedge
+     */
+    private Shape getWedge() {
+        double dCentreX = stfTransforms.getWidth() / 2.0;
+        double dCentreY = stfTransforms.getHeight() / 2.0;
+        //the arc's lines cut inside it by at most a twentieth, so it is drawn a little further out
+        double dRadius = Math.max(1, Math.hypot(dCentreX, dCentreY) * 1.05);
+        double dOverlap = 1 / dRadius;
+        double dStart = -Math.PI / 2 - dOverlap;
+        double dSpan = 2 * Math.PI / stfTransforms.getSectors() + dOverlap * 2;
+        int iSteps = (int) Math.ceil(dSpan / (Math.PI / 8));
+
+        Path2D.Double pWedge = new Path2D.Double();
+        pWedge.moveTo(dCentreX, dCentreY);
+        for(int i = 0 ; i <= iSteps ; i++) {
+            double dAngle = dStart + dSpan * i / iSteps;
+            pWedge.lineTo(dCentreX + dRadius * Math.cos(dAngle), dCentreY + dRadius * Math.sin(dAngle));
+        }
+        pWedge.closePath();
+        return pWedge;
+    }
+
+    /**
+     * Works out the area a stroke covers before it is copied into any sector
+     * @param d The stroke
+     * @return The area, widened by the size of the stroke plus a little for the point outline and antialiasing
+     */
+    private static Rectangle2D getBounds(DraggedPoints d) {
+        double dPadding = getPadding(d);
+        return new Rectangle2D.Double(d.getMinX() - dPadding, d.getMinY() - dPadding
+                , d.getMaxX() - d.getMinX() + dPadding * 2, d.getMaxY() - d.getMinY() + dPadding * 2);
+    }
+
+    //how far a stroke's drawing reaches past its points, from its size plus a little for the point outline and antialiasing
+    private static double getPadding(DraggedPoints d) {
+        return d.getiSize() / 2.0 + 2;
+    }
+
+    /**
+     * Checks whether any copy of a stroke could reach an area, from the ring around the centre its bounds cover
+     * @param d The stroke
+     * @param rArea The area
+     * @return false if no copy in any sector can reach the area
+     */
+    private boolean ringReaches(DraggedPoints d, Rectangle2D rArea) {
+        double dPadding = getPadding(d);
+        return stfTransforms.ringReaches(d.getMinX() - dPadding, d.getMinY() - dPadding, d.getMaxX() + dPadding, d.getMaxY() + dPadding, rArea);
+    }
+
+    /**
+     * Checks whether one copy of a stroke reaches the area being drawn
+     * @param rClip The area being drawn, or null if it isn't clipped
+     * @return false if the copy can be skipped
+     */
+    private boolean copyReaches(DraggedPoints d, int i, boolean bReflection, Rectangle rClip) {
+        if(rClip == null) {
+            return true;
+        }
+        double dPadding = getPadding(d);
+        return stfTransforms.copyReaches(i, bReflection, d.getMinX() - dPadding, d.getMinY() - dPadding
+                , d.getMaxX() + dPadding, d.getMaxY() + dPadding, rClip);
+    }
+
+    /**
+     * Draws one copy of a stroke, with the graphics already set to its sector
+     * @param path The points of the stroke joined into a path, or null if it is a single point
+     */
+    private void drawCopy(Graphics2D g2d, DraggedPoints d, Path2D.Float path) {
+        if(path == null) {
+            Ellipse2D.Double e = getPointShape(d);
+            g2d.setStroke(POINT_STROKE);
+            g2d.draw(e);
+            g2d.fill(e);
+        }
+        else {
+            g2d.setStroke(d.getStroke());
+            g2d.draw(path);
+        }
+    }
+
+    /**
+     * Draws a single committed stroke, as either a point or a line
+     * @param g2d
+     * @param d The stroke to draw
+     */
+    public void drawStroke(Graphics2D g2d, DraggedPoints d) {
+        this.drawStroke(g2d, d, d.getPointCount() == 1 ? null : d.toPath());
+    }
+
+    /**
+     * Draws a single committed stroke whose points have already been joined, for callers which draw it more than once
+     * @param g2d
+     * @param d The stroke to draw
+     * @param path The points of d joined into a path, or null if it is a single point
+     */
+    public void drawStroke(Graphics2D g2d, DraggedPoints d, Path2D.Float path) {
+        g2d.setColor(d.getcPointsColor());
+        //if only one point in the stroke
+        if(path == null) {
+            this.drawPoint(g2d, d);
+        }
+        //if multiple points in the stroke
+        else {
+            this.drawLines(g2d, d, path);
+        }
+    }
+
+    /**
+     * Draw the background lines
+     * @param g2d
+     */
+    public void drawBackgroundLines(Graphics2D g2d) {
+        AffineTransform atxBase = g2d.getTransform();
+        g2d.setColor(Color.WHITE);
+        g2d.setStroke(POINT_STROKE);
+        for(int i = 0 ; i < stfTransforms.getSectors() ; i++) {
+            stfTransforms.setRotation(g2d, atxBase, i);
+            g2d.drawLine(stfTransforms.getWidth() / 2, 0, stfTransforms.getWidth() / 2, stfTransforms.getHeight() / 2);
+        }
+        g2d.setTransform(atxBase);
+    }
+
+    /**
+     * Drawing a singular point from the stack
+     * @param g2d
+     * @param d DraggedPoint from the stack
+     */
+    private void drawPoint(Graphics2D g2d, DraggedPoints d) {
+        //only the copies which reach the area being repainted are drawn
+        Rectangle rClip = g2d.getClipBounds();
+        if(rClip != null && !this.ringReaches(d, rClip)) {
+            return;
+        }
+
+        //define variables
+        Ellipse2D.Double e = getPointShape(d);
+        AffineTransform atxBase = g2d.getTransform();
+        g2d.setStroke(POINT_STROKE);
+
+        //if reflecting, use the reflected transforms and then draw the reflected parts.
+        if(d.isbReflected()) {
+            for (int i = 0; i < stfTransforms.getSectors(); i++) {
+                if(!this.copyReaches(d, i, true, rClip)) {
+                    continue;
+                }
+                stfTransforms.setReflection(g2d, atxBase, i);
+                g2d.draw(e);
+                g2d.fill(e);
+            }
+        }
+        //draw the normal points
+        for (int i = 0; i < stfTransforms.getSectors(); i++) {
+            if(!this.copyReaches(d, i, false, rClip)) {
+                continue;
+            }
+            stfTransforms.setRotation(g2d, atxBase, i);
+            g2d.draw(e);
+            g2d.fill(e);
+        }
+        g2d.setTransform(atxBase);
+    }
+
+    /**
+     * The circle drawn for a single point, before it is copied into any sector
+     * @param d The stroke, which has one point
+     * @return The circle
+     */
+    private static Ellipse2D.Double getPointShape(DraggedPoints d) {
+        return new Ellipse2D.Double(d.getX(0) - (d.getiSize() / 2)
+                , d.getY(0) - (d.getiSize() / 2)
+                , d.getiSize()
+                , d.getiSize());
+    }
+
+    /**
+     * Drawing a list of points (as lines) from the stack
+     * The points are joined into one path, which is drawn once for each sector rather than once per line
+     * @param g2d
+     * @param d DraggedPoints from the stack
+     * @param path The points of d joined into a path
+     */
+    private void drawLines(Graphics2D g2d, DraggedPoints d, Path2D.Float path) {
+        //only the copies which reach the area being repainted are drawn
+        Rectangle rClip = g2d.getClipBounds();
+        if(rClip != null && !this.ringReaches(d, rClip)) {
+            return;
+        }
+        AffineTransform atxBase = g2d.getTransform();
+        g2d.setStroke(d.getStroke());
+
+        //for the path, draw it reflected in each sector
+        if(d.isbReflected()) {
+            for (int j = 0; j < stfTransforms.getSectors(); j++) {
+                if(!this.copyReaches(d, j, true, rClip)) {
+                    continue;
+                }
+                stfTransforms.setReflection(g2d, atxBase, j);
+                g2d.draw(path);
+            }
+        }
+        //draw the normal path in each sector
+        for (int j = 0; j < stfTransforms.getSectors(); j++) {
+            if(!this.copyReaches(d, j, false, rClip)) {
+                continue;
+            }
+            stfTransforms.setRotation(g2d, atxBase, j);
+            g2d.draw(path);
+        }
+        g2d.setTransform(atxBase);
+    }
+
+    //getter
+    public SectorTransforms getTransforms() {
+        return stfTransforms;
+    }
+}
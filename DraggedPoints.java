@@ -1,40 +1,289 @@
+import java.awt.BasicStroke;
 import java.awt.Color;
-import java.util.ArrayList;
+import java.awt.geom.Path2D;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * DraggedPoints
  * The class which holds a sequence of points, along with its associated settings
+ * The points are packed into a single int array as x, y pairs, rather than one object per point
  */
 
 public class DraggedPoints {
-    private ArrayList<Point> alListOfPoints;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] iaPoints;
+    private int iPointCount;
     private int iSize;
+    private BasicStroke bsStroke;
     Color cPointsColor;
     private boolean bReflected;
     private boolean bEraser;
+    //the box around the points, kept up to date as they change so reading it never writes, as other threads draw finished strokes
+    private int iMinX;
+    private int iMinY;
+    private int iMaxX;
+    private int iMaxY;
+
+    //constructors
+    public DraggedPoints(int iSize
+            , Color cPointsColor
+            , boolean bReflected
+            , boolean bEraser) {
+        this(new int[DEFAULT_CAPACITY * 2], 0, iSize, cPointsColor, bReflected, bEraser);
+    }
 
-    //constructor
-    public DraggedPoints(ArrayList<Point> alListOfPoints
+    public DraggedPoints(int[] iaPoints
+            , int iPointCount
             , int iSize
             , Color cPointsColor
             , boolean bReflected
             , boolean bEraser) {
-        this.setAlListOfPoints(alListOfPoints);
+        this.iaPoints = iaPoints;
+        this.iPointCount = iPointCount;
+        this.findBounds();
         this.setiSize(iSize);
         this.setcPointsColor(cPointsColor);
         this.setbReflected(bReflected);
         this.setbEraser(bEraser);
     }
 
+    /**
+     * Adds a point to the end of the sequence
+     * Only allocates when the backing array is full, so appending while dragging is normally free
+     * @param iX The x coordinate
+     * @param iY The y coordinate
+     */
+    public void addPoint(int iX, int iY) {
+        if(iPointCount * 2 == iaPoints.length) {
+            //grow by half again, the same as an ArrayList would
+            iaPoints = Arrays.copyOf(iaPoints, Math.max(DEFAULT_CAPACITY * 2, iaPoints.length + (iaPoints.length >> 2) * 2));
+        }
+        iaPoints[iPointCount * 2] = iX;
+        iaPoints[iPointCount * 2 + 1] = iY;
+        iPointCount++;
+        iMinX = Math.min(iMinX, iX);
+        iMinY = Math.min(iMinY, iY);
+        iMaxX = Math.max(iMaxX, iX);
+        iMaxY = Math.max(iMaxY, iY);
+    }
+
+    /**
+     * Shrinks the backing array to fit the points, used once a stroke has been finished
+     */
+    public void trimToSize() {
+        if(iaPoints.length != iPointCount * 2) {
+            iaPoints = Arrays.copyOf(iaPoints, iPointCount * 2);
+        }
+    }
+
+    /**
+     * Drops points which make no visible difference to the line, using Ramer-Douglas-Peucker
+     * A point is only kept if leaving it out would move the line by more than the tolerance,
+     * or if the points either side of it would otherwise be further apart than the largest gap
+     * @param dTolerance The furthest the line may move, in pixels
+     * @param dMaxGap The furthest apart neighbouring points may be left, so the eraser can still find the line
+     * @return The number of points removed
+     */
+    public int simplify(double dTolerance, double dMaxGap) {
+        if(iPointCount < 3 || dTolerance <= 0) {
+            return 0;
+        }
+        BitSet bsKeep = new BitSet(iPointCount);
+        bsKeep.set(0);
+        bsKeep.set(iPointCount - 1);
+
+        //an explicit stack of start and end indices, as a long stroke would go too deep to recurse
+        int[] iaStack = new int[64];
+        int iStackSize = 0;
+        iaStack[iStackSize++] = 0;
+        iaStack[iStackSize++] = iPointCount - 1;
+        double dToleranceSquared = dTolerance * dTolerance;
+        double dMaxGapSquared = dMaxGap * dMaxGap;
+        while(iStackSize > 0) {
+            int iEnd = iaStack[--iStackSize];
+            int iStart = iaStack[--iStackSize];
+            if(iEnd - iStart < 2) {
+                continue;
+            }
+
+            //find the point furthest from the line between the two ends
+            int iFurthest = -1;
+            double dFurthest = -1;
+            for(int i = iStart + 1 ; i < iEnd ; i++) {
+                double dDistance = this.distanceSquared(i, iStart, iEnd);
+                if(dDistance > dFurthest) {
+                    dFurthest = dDistance;
+                    iFurthest = i;
+                }
+            }
+
+            //split at the furthest point if it is too far off, or in the middle if the ends are too far apart
+            int iSplit = -1;
+            if(dFurthest > dToleranceSquared) {
+                iSplit = iFurthest;
+            }
+            else if(this.lengthSquared(iStart, iEnd) > dMaxGapSquared) {
+                iSplit = (iStart + iEnd) >>> 1;
+            }
+            if(iSplit >= 0) {
+                bsKeep.set(iSplit);
+                if(iStackSize + 4 > iaStack.length) {
+                    iaStack = Arrays.copyOf(iaStack, iaStack.length * 2);
+                }
+                iaStack[iStackSize++] = iStart;
+                iaStack[iStackSize++] = iSplit;
+                iaStack[iStackSize++] = iSplit;
+                iaStack[iStackSize++] = iEnd;
+            }
+        }
+
+        //move the kept points down over the dropped ones, in order
+        int iKept = 0;
+        for(int i = bsKeep.nextSetBit(0) ; i >= 0 ; i = bsKeep.nextSetBit(i + 1)) {
+            iaPoints[iKept * 2] = iaPoints[i * 2];
+            iaPoints[iKept * 2 + 1] = iaPoints[i * 2 + 1];
+            iKept++;
+        }
+        int iRemoved = iPointCount - iKept;
+        iPointCount = iKept;
+        //a dropped point may have been on the edge of the box
+        this.findBounds();
+        return iRemoved;
+    }
+
+    //works out the box around the points, which is empty with no points so the first one added becomes the box
+    private void findBounds() {
+        iMinX = Integer.MAX_VALUE;
+        iMinY = Integer.MAX_VALUE;
+        iMaxX = Integer.MIN_VALUE;
+        iMaxY = Integer.MIN_VALUE;
+        for(int i = 0 ; i < iPointCount ; i++) {
+            iMinX = Math.min(iMinX, this.getX(i));
+            iMinY = Math.min(iMinY, this.getY(i));
+            iMaxX = Math.max(iMaxX, this.getX(i));
+            iMaxY = Math.max(iMaxY, this.getY(i));
+        }
+    }
+
+    //the squared distance from a point to the line segment between two others
+    private double distanceSquared(int i, int iStart, int iEnd) {
+        double dX = this.getX(i) - this.getX(iStart);
+        double dY = this.getY(i) - this.getY(iStart);
+        double dLineX = this.getX(iEnd) - this.getX(iStart);
+        double dLineY = this.getY(iEnd) - this.getY(iStart);
+        double dLength = dLineX * dLineX + dLineY * dLineY;
+        //the ends can be in the same place when a stroke loops back on itself
+        if(dLength > 0) {
+            double dAlong = Math.max(0, Math.min(1, (dX * dLineX + dY * dLineY) / dLength));
+            dX -= dAlong * dLineX;
+            dY -= dAlong * dLineY;
+        }
+        return dX * dX + dY * dY;
+    }
+
+    //the squared distance between two points
+    private double lengthSquared(int iStart, int iEnd) {
+        double dX = this.getX(iEnd) - this.getX(iStart);
+        double dY = this.getY(iEnd) - this.getY(iStart);
+        return dX * dX + dY * dY;
+    }
+
+    /**
+     * Joins the points into a single path, so the whole stroke can be drawn in one call
+     * @return The path through every point, in order
+     */
+    public Path2D.Float toPath() {
+        return this.toPath(1);
+    }
+
+    /**
+     * Joins every few points into a single path, for a rougher but cheaper outline of the stroke
+     * @param iStep How many points to move along for each one kept, the last point is always kept
+     * @return The path through the points kept, in order
+     */
+    public Path2D.Float toPath(int iStep) {
+        Path2D.Float path = new Path2D.Float(Path2D.WIND_NON_ZERO, Math.max(1, iPointCount / iStep + 1));
+        for(int i = 0 ; i < iPointCount ; i += iStep) {
+            if(i == 0) {
+                path.moveTo(this.getX(i), this.getY(i));
+            }
+            else {
+                path.lineTo(this.getX(i), this.getY(i));
+            }
+        }
+        if(iPointCount > 1 && (iPointCount - 1) % iStep != 0) {
+            path.lineTo(this.getX(iPointCount - 1), this.getY(iPointCount - 1));
+        }
+        return path;
+    }
+
+    /**
+     * Copies a run of points into a new DraggedPoints with the same settings
+     * @param iStart Index of the first point to copy
+     * @param iEnd Index after the last point to copy
+     * @return The new DraggedPoints
+     */
+    public DraggedPoints subPoints(int iStart, int iEnd) {
+        return new DraggedPoints(Arrays.copyOfRange(iaPoints, iStart * 2, iEnd * 2)
+                , iEnd - iStart
+                , this.getiSize()
+                , this.getcPointsColor()
+                , this.isbReflected()
+                , this.isbEraser());
+    }
+
     //getters
-    public ArrayList<Point> getAlListOfPoints() {
-        return alListOfPoints;
+    public int getPointCount() {
+        return iPointCount;
+    }
+
+    public int getX(int i) {
+        return iaPoints[i * 2];
+    }
+
+    public int getY(int i) {
+        return iaPoints[i * 2 + 1];
+    }
+
+    /**
+     * Gets the left of the box around the points, which is kept with the stroke so painting can skip it cheaply
+     * Like the other bounds, it is only meaningful once the stroke has a point
+     * @return The smallest x of any point
+     */
+    public int getMinX() {
+        return iMinX;
+    }
+
+    public int getMinY() {
+        return iMinY;
+    }
+
+    public int getMaxX() {
+        return iMaxX;
+    }
+
+    public int getMaxY() {
+        return iMaxY;
     }
 
     public int getiSize() {
         return iSize;
     }
 
+    /**
+     * Gets the stroke used to draw the lines, creating it the first time it is needed
+     * Round joins stand in for the overlapping ends the separate lines used to have
+     * @return The stroke for this size
+     */
+    public BasicStroke getStroke() {
+        if(bsStroke == null) {
+            bsStroke = new BasicStroke((float)(this.getiSize() / Math.sqrt(2.0)), BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND);
+        }
+        return bsStroke;
+    }
+
     public Color getcPointsColor() {
         return cPointsColor;
     }
@@ -48,15 +297,16 @@ public class DraggedPoints {
     }
 
     //setters
-    public void setAlListOfPoints(ArrayList<Point> alListOfPoints) {
-        this.alListOfPoints = alListOfPoints;
-    }
-
     public void setiSize(int iSize) {
         this.iSize = iSize;
+        this.bsStroke = null;
     }
 
     public void setcPointsColor(Color cPointsColor) {
+        //saving and exporting write the colour out, so a stroke can't be without one
+        if(cPointsColor == null) {
+            throw new IllegalArgumentException("A stroke needs a colour");
+        }
         this.cPointsColor = cPointsColor;
     }
 
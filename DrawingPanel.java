@@ -3,10 +3,13 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.geom.AffineTransform;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Handles the drawing functionality of the doily.
@@ -14,16 +17,56 @@ import java.util.*;
  */
 
 public class DrawingPanel extends JPanel {
-    private ArrayList<Point> alCurrentShapes = new ArrayList<>();
-    private Stack<DraggedPoints> stCurrentStack = new Stack<>();
-    private Stack<DraggedPoints> stRedoStack = new Stack<>();
+    //simplified strokes never move by less than this, and never leave points further apart than the gap, in pixels
+    //the eraser finds lines as well as points, but longer lines make every eraser search reach further
+    private static final double MIN_SIMPLIFY_TOLERANCE = 0.5;
+    private static final double SIMPLIFY_MAX_GAP = 8;
+
+    private DraggedPoints dCurrentStroke;
+    private final StrokeCapture scCapture = new StrokeCapture(2);
+    //the layers are drawn bottom first, and strokes are drawn on, erased from and undone on the active one
+    private final ArrayList<DoilyLayer> alLayers = new ArrayList<>();
+    private DoilyLayer dlActive;
+    private int iCheckpointInterval = 25;
+    //the active layer with the eraser cutting into it, while erasing, so the layers under it still show through
+    private BufferedImage biErasedLayer;
+
+    //the layers' strokes, indexes and caches are shared with the eraser thread, so are only touched while holding oStrokeLock
+    private final Object oStrokeLock = new Object();
+    private final Object oEraserLock = new Object();
+    private final ExecutorService esEraser = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Doily eraser");
+        t.setDaemon(true);
+        return t;
+    });
+    private DraggedPoints dPendingEraser;
+    private DraggedPoints dPendingGesture;
+    private DoilyLayer dlPendingLayer;
 
-    private int iSectors;
     private int iSize;
     private Color cColor;
-    private boolean bReflecting;
     private boolean bErasing;
-    private boolean bLines;
+    private boolean bStampingSectors;
+    private double dSimplifyTolerance;
+    private long lSimplifiedPoints;
+
+    //the work done by the frame being painted and the last erase, for the metrics
+    private final DoilyMetrics dmMetrics = new DoilyMetrics();
+    private long lFramePoints;
+    private long lFrameSegments;
+    private long lErasedPoints;
+
+    //full redraws become rough previews while the settings are changing quickly, and are redone once they settle
+    private final QualityGovernor qgGovernor = new QualityGovernor();
+    //whether a setting is being dragged as last set, as the governor is only changed on the render thread
+    private boolean bAdjusting;
+    private final javax.swing.Timer tRestoreQuality;
+
+    //what the user does is written here while a session is being recorded
+    private SessionRecorder srRecorder;
+
+    //once started, frames are drawn on the render thread and painting only copies the latest one
+    private volatile RenderLoop rlLoop;
 
     /**
      * Constructor that initialises the size, background colour, initial variables and listeners
@@ -34,47 +77,45 @@ public class DrawingPanel extends JPanel {
 
         this.addMouseListener(new DragListener());
         this.addMouseMotionListener(new DragListener());
+        dlActive = new DoilyLayer("Layer 1", 12, true);
+        alLayers.add(dlActive);
         this.setSectors(12);
         this.setStrokeSize(5);
         this.setDrawingLines(true);
         this.setColor(Color.RED);
+        this.setSimplifyTolerance(0.05);
+
+        tRestoreQuality = new javax.swing.Timer(qgGovernor.getSettleMillis(), e -> this.runOnRenderer(this::restoreQuality));
+        tRestoreQuality.setRepeats(false);
     }
 
     /**
      * Listener that handles the user drawing on the screen
+     * The stroke is changed on the render thread if there is one, so the mouse is never held up by a slow frame
      */
     class DragListener implements MouseListener, MouseMotionListener {
-        //when first pressed, get the coordinates and add to an arraylist. repaint to show new point
+        //when first pressed, start a new stroke with the current settings
         public void mousePressed(MouseEvent e) {
-            DrawingPanel.this.getCurrentShapes().add(new Point(e.getX(), e.getY()));
-            repaint();
+            DrawingPanel.this.recordMouse(SessionRecorder.PRESS, e);
+            DraggedPoints d = new DraggedPoints(DrawingPanel.this.getStrokeSize()
+                    , DrawingPanel.this.getColor()
+                    , DrawingPanel.this.isReflecting()
+                    , DrawingPanel.this.isErasing());
+            int iX = e.getX();
+            int iY = e.getY();
+            DrawingPanel.this.runOnRenderer(() -> DrawingPanel.this.beginStroke(d, iX, iY));
         }
 
-        //when mouse is released, if not erasing then add the new shape to the stack, repaint
-        //if erasing, send the arraylist to removePoints and then repaint once complete
-        //clear the list once done
+        //when mouse is released, finish the stroke
         public void mouseReleased(MouseEvent e) {
-            if(!DrawingPanel.this.isErasing()) {
-                ArrayList<Point> newCurrentShapes;
-                newCurrentShapes = (ArrayList) DrawingPanel.this.getCurrentShapes().clone();
-                DrawingPanel.this.getCurrentStack().push(new DraggedPoints(newCurrentShapes
-                        , DrawingPanel.this.getStrokeSize()
-                        , DrawingPanel.this.getColor()
-                        , DrawingPanel.this.isReflecting()
-                        , DrawingPanel.this.isErasing())
-                );
-                repaint();
-            }
-            else {
-                DrawingPanel.this.removePoints(DrawingPanel.this.getCurrentShapes());
-                repaint();
-            }
-            DrawingPanel.this.getCurrentShapes().clear();
+            DrawingPanel.this.recordMouse(SessionRecorder.RELEASE, e);
+            DrawingPanel.this.queueInput(RenderLoop.RELEASE, e.getX(), e.getY());
         }
 
+        //add to the stroke being drawn
         public void mouseDragged(MouseEvent e) {
-            DrawingPanel.this.getCurrentShapes().add(new Point(e.getX(), e.getY()));
-            repaint();
+            DrawingPanel.this.recordMouse(SessionRecorder.DRAG, e);
+            DrawingPanel.this.queueInput(RenderLoop.DRAG, e.getX(), e.getY());
         }
 
         //unimplemented methods
@@ -92,329 +133,990 @@ public class DrawingPanel extends JPanel {
         }
     }
 
+    /**
+     * Applies a drag or release of the mouse, on the render thread if there is one
+     * @param iType RenderLoop.DRAG or RenderLoop.RELEASE
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    void applyInput(int iType, int iX, int iY) {
+        if(iType == RenderLoop.DRAG) {
+            this.extendStroke(iX, iY);
+        }
+        else if(iType == RenderLoop.RELEASE) {
+            this.endStroke();
+        }
+    }
+
+    /**
+     * Starts a stroke where the mouse was pressed, repainting to show the new point
+     * @param d The new stroke, with the settings from when the mouse was pressed
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    private void beginStroke(DraggedPoints d, int iX, int iY) {
+        this.setCurrentStroke(d);
+        d.addPoint(iX, iY);
+        this.getCapture().begin(iX, iY);
+        if(d.isbEraser()) {
+            this.erasePoint(iX, iY);
+        }
+        this.repaint(this.getDirtyRegion(d, 0));
+    }
+
+    /**
+     * Captures a point the mouse was dragged to, unless it is too close to the last one, to be added to the stroke on the next paint
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    private void extendStroke(int iX, int iY) {
+        DraggedPoints d = this.getCurrentStroke();
+        if(d == null) {
+            return;
+        }
+        StrokeCapture scCapture = this.getCapture();
+        if(scCapture.isFull()) {
+            this.drainCapture();
+        }
+        int iLastX = scCapture.getLastX();
+        int iLastY = scCapture.getLastY();
+        if(scCapture.offer(iX, iY)) {
+            if(d.isbEraser()) {
+                this.erasePoint(iX, iY);
+            }
+            //only the new line, in each sector, needs repainting
+            this.repaint(this.getDirtyRegion(Math.min(iLastX, iX), Math.min(iLastY, iY)
+                    , Math.max(iLastX, iX), Math.max(iLastY, iY)
+                    , d.getiSize(), d.isbReflected()));
+        }
+    }
+
+    /**
+     * Finishes the stroke when the mouse is released, adding it to the active layer if not erasing, and repaints
+     * If erasing, the eraser thread has been removing points all along, so the stroke is dropped once it has caught up
+     */
+    private void endStroke() {
+        DraggedPoints d = this.getCurrentStroke();
+        if(d == null) {
+            return;
+        }
+        //make sure the stroke ends where the mouse did, and has every sample captured since the last frame
+        if(this.getCapture().isFull()) {
+            this.drainCapture();
+        }
+        if(this.getCapture().finish() && d.isbEraser()) {
+            this.erasePoint(this.getCapture().getLastX(), this.getCapture().getLastY());
+        }
+        this.drainCapture();
+        if(!d.isbEraser()) {
+            this.simplifyStroke(d);
+            d.trimToSize();
+            this.pushStroke(d);
+            this.setCurrentStroke(null);
+            this.repaint();
+        }
+        else {
+            this.finishErasing(d);
+        }
+    }
+
     /**
      * Method that paints the panel, once called
+     * With a render thread the latest frame it drew is copied, otherwise the frame is drawn here
      * @param g
      */
     public void paintComponent(Graphics g) {
-        //initialising variables and calling super-class
+        RenderLoop rl = rlLoop;
+        if(rl != null) {
+            long lStart = System.nanoTime();
+            //until the first frame is ready, show the background and ask for the whole panel
+            if(!rl.blit(g)) {
+                super.paintComponent(g);
+                this.repaint();
+            }
+            dmMetrics.recordBlit(System.nanoTime() - lStart);
+            return;
+        }
+
+        //calling super-class to fill in the background
         super.paintComponent(g);
-        Ellipse2D.Double e;
-        DraggedPoints d;
+        this.renderFrame((Graphics2D) g);
+    }
+
+    /**
+     * Draws a frame over the background, on the event thread or the render thread
+     * The committed strokes are blitted from the layers' caches, so only the stroke being drawn is rendered each time
+     * @param g2d Where to draw, clipped to the part being repainted
+     */
+    void renderFrame(Graphics2D g2d) {
+        //timing the whole frame, along with what it draws and allocates, for the metrics
+        DoilyMetrics.PaintEvent ePaint = new DoilyMetrics.PaintEvent();
+        ePaint.begin();
+        long lStart = System.nanoTime();
+        long lAllocated = DoilyMetrics.allocatedBytes();
+        lFramePoints = 0;
+        lFrameSegments = 0;
 
-        Graphics2D g2d = (Graphics2D) g;
-        AffineTransform atx;
         //setting antialiasing on to make it look pretty!
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         g2d.setBackground(Color.BLACK);
 
-        //draw the lines if required
-        if(DrawingPanel.this.isDrawingLines()) {
-            this.drawBackgroundLines(g2d);
+        //composite the visible layers' caches, bottom first, copying only the part being repainted
+        Rectangle rClip = g2d.getClipBounds();
+        if(rClip == null) {
+            rClip = new Rectangle(0, 0, this.getWidth(), this.getHeight());
         }
+        //for the stroke currently being drawn, with the samples captured since the last frame added in one go
+        this.drainCapture();
+        DraggedPoints d = this.getCurrentStroke();
+        int iStrokes = 0;
+        //the layers can be added to from the event thread while a frame is drawn on the render thread
+        synchronized(oStrokeLock) {
+            for(DoilyLayer dlLayer : this.getLayers()) {
+                iStrokes += dlLayer.getStrokes().size();
+                BufferedImage biLayer = dlLayer.isVisible() ? this.getStrokeCache(dlLayer) : null;
+                //the eraser only cuts into its own layer, so it is drawn on a copy of that layer's cache
+                if(dlLayer == this.getActiveLayer() && d != null && d.isbEraser() && biLayer != null) {
+                    biLayer = this.getErasedLayer(biLayer, rClip, d);
+                    this.countDrawn(dlLayer, d);
+                }
+                if(biLayer != null) {
+                    g2d.drawImage(biLayer
+                            , rClip.x, rClip.y, rClip.x + rClip.width, rClip.y + rClip.height
+                            , rClip.x, rClip.y, rClip.x + rClip.width, rClip.y + rClip.height
+                            , null);
+                }
 
-        //for the alCurrentShapes currently inside of the current points stack
-        Iterator<DraggedPoints> it = DrawingPanel.this.getCurrentStack().iterator();
-        while (it.hasNext()) {
-            d = it.next();
-            g2d.setColor(d.getcPointsColor());
-            //if only one Point in the arraylist
-            if(d.getAlListOfPoints().size() == 1) {
-                this.drawPoint(g2d, d);
-            }
-            //if multiple points in the arraylist
-            else {
-                this.drawLines(g2d, d);
+                //the stroke being drawn goes on its own layer, under the layers above it
+                if(dlLayer == this.getActiveLayer() && d != null && !d.isbEraser() && dlLayer.isVisible()) {
+                    this.getRenderer().drawStroke(g2d, d);
+                    this.countDrawn(dlLayer, d);
+                }
             }
         }
 
-        //if erasing, temporarily set the alphacomposite to DST_OUT.
-        if(this.isErasing()) {
-            g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OUT));
+        ePaint.end();
+        dmMetrics.recordPaint(ePaint, System.nanoTime() - lStart, lFramePoints, lFrameSegments
+                , this.getActiveLayer().getSectors(), iStrokes
+                , lAllocated < 0 ? -1 : DoilyMetrics.allocatedBytes() - lAllocated);
+    }
+
+    /**
+     * Copies the part of the active layer's cache being repainted and cuts the eraser stroke out of it
+     * @param biLayer The active layer's cache
+     * @param rClip The part being repainted
+     * @param dEraser The eraser stroke being drawn
+     * @return The copy, the same size as the cache, which is reused on the next frame
+     */
+    private BufferedImage getErasedLayer(BufferedImage biLayer, Rectangle rClip, DraggedPoints dEraser) {
+        if(biErasedLayer == null || biErasedLayer.getWidth() != biLayer.getWidth() || biErasedLayer.getHeight() != biLayer.getHeight()) {
+            biErasedLayer = new BufferedImage(biLayer.getWidth(), biLayer.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        }
+        Graphics2D g2d = biErasedLayer.createGraphics();
+        g2d.setClip(rClip);
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(biLayer, 0, 0, null);
+        g2d.setComposite(AlphaComposite.DstOut);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        this.getRenderer().drawStroke(g2d, dEraser);
+        g2d.dispose();
+        return biErasedLayer;
+    }
+
+    /**
+     * Sends repaints to the render thread while there is one, which draws the area in its next frame and then repaints it
+     */
+    @Override
+    public void repaint(long lTime, int iX, int iY, int iWidth, int iHeight) {
+        RenderLoop rl = rlLoop;
+        if(rl != null) {
+            rl.damage(iX, iY, iWidth, iHeight);
+        }
+        else {
+            super.repaint(lTime, iX, iY, iWidth, iHeight);
+        }
+    }
+
+    /**
+     * Repaints an area of the panel once the render thread has a frame showing it
+     * @param rArea The area drawn in the new frame
+     */
+    void present(Rectangle rArea) {
+        super.repaint(0, rArea.x, rArea.y, rArea.width, rArea.height);
+    }
+
+    /**
+     * Runs a change to what is drawn on the render thread, behind the input already queued, or straight away if there isn't one
+     * @param rChange The change
+     */
+    private void runOnRenderer(Runnable rChange) {
+        RenderLoop rl = rlLoop;
+        if(rl != null) {
+            rl.post(rChange);
         }
-        //for the currently drawn alCurrentShapes
-        if(DrawingPanel.this.getCurrentShapes().size() == 1) {
-            this.drawPoint(g2d, DrawingPanel.this.getCurrentShapes().get(0));
+        else {
+            rChange.run();
+        }
+    }
+
+    /**
+     * Queues a drag or release for the render thread as plain numbers, so moving the mouse allocates nothing, or applies it straight away if there isn't one
+     * @param iType RenderLoop.DRAG or RenderLoop.RELEASE
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    private void queueInput(int iType, int iX, int iY) {
+        RenderLoop rl = rlLoop;
+        if(rl != null) {
+            rl.input(iType, iX, iY);
         }
         else {
-            this.drawLines(g2d, DrawingPanel.this.getCurrentShapes());
+            this.applyInput(iType, iX, iY);
+        }
+    }
+
+    /**
+     * Starts drawing frames on a render thread, after which painting only copies the latest frame to the screen
+     * @param lFrameNanos The shortest time between the starts of two frames
+     */
+    protected void startRenderThread(long lFrameNanos) {
+        if(rlLoop == null) {
+            rlLoop = new RenderLoop(this, dmMetrics, lFrameNanos);
+            this.repaint();
         }
-        g2d.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER));
     }
 
     /**
-     * Draw the background lines
-     * @param g2d
+     * Stops the render thread, applying whatever is still queued, after which frames are drawn while painting again
      */
-    private void drawBackgroundLines(Graphics2D g2d) {
-        g2d.setColor(Color.WHITE);
-        for(int i = 0 ; i < this.getSectors() ; i++) {
-            g2d.rotate(Math.toRadians(360.0 / this.getSectors()), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
-            g2d.drawLine((int) this.getSize().getWidth() / 2, 0, (int) this.getSize().getWidth() / 2, (int) this.getSize().getHeight() / 2);
-            g2d.setStroke(new BasicStroke(1));
+    protected void stopRenderThread() {
+        RenderLoop rl = rlLoop;
+        rlLoop = null;
+        if(rl != null) {
+            rl.stop();
+            this.repaint();
         }
     }
 
     /**
-     * Drawing a singular point from the stack
-     * @param g2d
-     * @param d DraggedPoint from the stack
+     * Adds a stroke drawn this frame to the counts for the metrics, once for every copy the renderer draws
+     * @param dlLayer The layer it was drawn on
+     * @param d The stroke drawn
+     */
+    private void countDrawn(DoilyLayer dlLayer, DraggedPoints d) {
+        this.countDrawn(d, d.isbReflected() ? dlLayer.getSectors() * 2 : dlLayer.getSectors());
+    }
+
+    /**
+     * Adds a stroke drawn this frame to the counts for the metrics
+     * @param d The stroke drawn
+     * @param iCopies The number of copies of it drawn
+     */
+    private void countDrawn(DraggedPoints d, int iCopies) {
+        lFramePoints += (long) d.getPointCount() * iCopies;
+        lFrameSegments += (long) Math.max(0, d.getPointCount() - 1) * iCopies;
+    }
+
+    /**
+     * Gets the cached image of a layer's sector lines and committed strokes, rebuilding it if it is out of date
+     * @param dlLayer The layer
+     * @return The cached image, the same size as the panel
      */
-    private void drawPoint(Graphics2D g2d, DraggedPoints d) {
-        //define variables
-        Ellipse2D.Double e;
-        AffineTransform atx;
-        e = new Ellipse2D.Double(d.getAlListOfPoints().get(0).getX() - (d.getiSize() / 2)
-                , d.getAlListOfPoints().get(0).getY() - (d.getiSize() / 2)
-                , d.getiSize()
-                , d.getiSize());
+    private BufferedImage getStrokeCache(DoilyLayer dlLayer) {
+        int iWidth = Math.max(1, this.getWidth());
+        int iHeight = Math.max(1, this.getHeight());
 
-        //if reflecting, perform an affinetranform and then draw the reflected parts.
-        if(d.isbReflected()) {
-            for (int i = 0; i < this.getSectors(); i++) {
-                atx = AffineTransform.getTranslateInstance(this.getSize().getWidth() / 2, 0);
-                atx.scale(-1, 1);
-                atx.translate(-this.getSize().getWidth() / 2, 0);
-                atx.rotate(Math.toRadians((360.0 / this.getSectors()) * i), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
+        synchronized(oStrokeLock) {
+            BufferedImage biStrokeCache = dlLayer.prepareCache(iWidth, iHeight);
+            DoilyRenderer drRenderer = dlLayer.getRenderer(iWidth, iHeight);
+
+            //redraw everything if the cache is out of date, or just the part which has changed
+            //if a checkpoint shows the bottom of the stack, start from that and only draw the strokes above it
+            Rectangle rRedraw = null;
+            boolean bPreview = false;
+            if(!dlLayer.isCacheValid()) {
+                int iShown = dlLayer.restoreCheckpoint();
+                if(iShown >= 0) {
+                    Graphics2D g2d = biStrokeCache.createGraphics();
+                    g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                    for(int i = iShown ; i < dlLayer.getStrokes().size() ; i++) {
+                        drRenderer.drawStroke(g2d, dlLayer.getStrokes().get(i));
+                        this.countDrawn(dlLayer, dlLayer.getStrokes().get(i));
+                    }
+                    g2d.dispose();
+                }
+                else {
+                    bPreview = this.redrawStrokeCache(dlLayer, iWidth, iHeight);
+                }
+            }
+            else if(dlLayer.getCacheDirty() != null) {
+                rRedraw = dlLayer.getCacheDirty().intersection(new Rectangle(0, 0, iWidth, iHeight));
+                bPreview = dlLayer.isCachePreview();
+            }
+
+            //the old contents are wiped to transparent so the background shows through
+            //large redraws are split across cores, which is safe as the eraser can't change the stack while the lock is held
+            if(rRedraw != null && !rRedraw.isEmpty()) {
+                drRenderer.renderRegion(biStrokeCache, rRedraw, dlLayer.getStrokes(), dlLayer.isDrawingLines(), null);
+                for(DraggedPoints d : dlLayer.getStrokes()) {
+                    this.countDrawn(dlLayer, d);
+                }
+            }
+            dlLayer.markCacheDrawn(bPreview);
 
-                g2d.setTransform(atx);
-                g2d.draw(e);
-                g2d.fill(e);
+            //the cache now shows exactly the stack, so it can be kept if there have been enough edits since the last one
+            dlLayer.checkpoint(iCheckpointInterval);
+            return biStrokeCache;
+        }
+    }
 
-                g2d.setTransform(AffineTransform.getScaleInstance(1, 1));
+    /**
+     * Redraws a layer's whole cache, as a preview if the governor asks for one, once the lock is held
+     * Full redraws are timed so the governor can tell when they are too slow to keep up with the input
+     * @param dlLayer The layer
+     * @param iWidth The width of the cache
+     * @param iHeight The height of the cache
+     * @return true if it was redrawn as a preview
+     */
+    private boolean redrawStrokeCache(DoilyLayer dlLayer, int iWidth, int iHeight) {
+        BufferedImage biStrokeCache = dlLayer.getCache();
+        DoilyRenderer drRenderer = dlLayer.getRenderer(iWidth, iHeight);
+        long lStart = System.nanoTime();
+        boolean bPreview = qgGovernor.shouldPreview(lStart);
+        if(bPreview) {
+            //one rough wedge stamped round, so the sectors can be dragged smoothly
+            drRenderer.renderPreview(biStrokeCache, dlLayer.getStrokes(), dlLayer.isDrawingLines(), null, qgGovernor.getStep());
+            for(DraggedPoints d : dlLayer.getStrokes()) {
+                this.countDrawn(d, 1);
             }
         }
-        //draw the normal points
-        for (int i = 0; i < this.getSectors(); i++) {
-            g2d.rotate(Math.toRadians(360.0 / this.getSectors()), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
-            g2d.draw(e);
-            g2d.fill(e);
+        else if(this.isStampingSectors()) {
+            //only the first sector's wedge is drawn, so each stroke is drawn about once whatever the sectors
+            drRenderer.renderStamped(biStrokeCache, dlLayer.getStrokes(), dlLayer.isDrawingLines(), null);
+            for(DraggedPoints d : dlLayer.getStrokes()) {
+                this.countDrawn(d, 1);
+            }
+        }
+        else {
+            //split across cores, which is safe as the eraser can't change the stack while the lock is held
+            drRenderer.renderRegion(biStrokeCache, new Rectangle(0, 0, iWidth, iHeight), dlLayer.getStrokes(), dlLayer.isDrawingLines(), null);
+            for(DraggedPoints d : dlLayer.getStrokes()) {
+                this.countDrawn(dlLayer, d);
+            }
+        }
+        long lEnd = System.nanoTime();
+        qgGovernor.recordRedraw(lEnd, lEnd - lStart, bPreview);
+
+        //full quality comes back once nothing else has been redrawn for a while, which may have been changed since the last preview
+        if(bPreview) {
+            tRestoreQuality.setInitialDelay(qgGovernor.getSettleMillis());
+            tRestoreQuality.restart();
         }
+        return bPreview;
     }
 
     /**
-     * Drawing a singular point from the current shapes
-     * @param g2d
-     * @param p Point from the ArrayList
+     * Called once the input has settled after a preview, redraws at full quality every layer whose cache still shows a preview
      */
-    private void drawPoint(Graphics2D g2d, Point p) {
-        //initialise variables, set color to the current one being used
-        Ellipse2D.Double e;
-        AffineTransform atx;
-        g2d.setColor(DrawingPanel.this.getColor());
+    private void restoreQuality() {
+        synchronized(oStrokeLock) {
+            if(qgGovernor.isAdjusting()) {
+                return;
+            }
+            qgGovernor.settle();
+            for(DoilyLayer dlLayer : this.getLayers()) {
+                if(dlLayer.isCachePreview()) {
+                    dlLayer.invalidateCache();
+                }
+            }
+        }
+        this.repaint();
+    }
 
-        e = new Ellipse2D.Double(p.getX() - (DrawingPanel.this.getStrokeSize() / 2)
-                , p.getY() - (DrawingPanel.this.getStrokeSize() / 2)
-                , DrawingPanel.this.getStrokeSize()
-                , DrawingPanel.this.getStrokeSize());
+    /**
+     * Drops the points of a finished stroke which make no visible difference, before it is committed
+     * Slow drags give many nearly collinear points, which would otherwise be drawn in every sector on every repaint
+     * @param d The stroke to simplify
+     */
+    private void simplifyStroke(DraggedPoints d) {
+        if(this.getSimplifyTolerance() <= 0) {
+            return;
+        }
+        double dTolerance = Math.max(MIN_SIMPLIFY_TOLERANCE, d.getiSize() * this.getSimplifyTolerance());
+        lSimplifiedPoints += d.simplify(dTolerance, SIMPLIFY_MAX_GAP);
+    }
 
-        //if reflecting, perform an affinetranform and then draw the reflected parts.
-        if(DrawingPanel.this.isReflecting()) {
-            for (int i = 0; i < this.getSectors(); i++) {
-                atx = AffineTransform.getTranslateInstance(this.getSize().getWidth() / 2, 0);
-                atx.scale(-1, 1);
-                atx.translate(-this.getSize().getWidth() / 2, 0);
-                atx.rotate(Math.toRadians((360.0 / this.getSectors()) * i), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
+    /**
+     * Pushes a new stroke onto the stack, drawing it straight on to the cache rather than rebuilding it
+     * @param d The stroke to add
+     */
+    protected void pushStroke(DraggedPoints d) {
+        synchronized(oStrokeLock) {
+            DoilyLayer dlLayer = this.getActiveLayer();
+            dlLayer.recordEdit(StackEdit.draw(d, dlLayer.getStrokes().size()), null);
+            dlLayer.getStrokes().push(d);
+            if(dlLayer.getBuiltIndex() != null) {
+                dlLayer.getBuiltIndex().addStroke(d);
+            }
 
-                g2d.setTransform(atx);
-                g2d.draw(e);
-                g2d.fill(e);
+            //strokes are drawn in stack order, so the newest one can go on top of what is already cached
+            //unless part of the cache is waiting to be redrawn, in which case it is drawn then
+            if(dlLayer.isCacheValid() && dlLayer.getCacheDirty() == null && dlLayer.getCache() != null) {
+                Graphics2D g2d = dlLayer.getCache().createGraphics();
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                this.getRenderer().drawStroke(g2d, d);
+                g2d.dispose();
+            }
+            else if(dlLayer.isCacheValid()) {
+                dlLayer.invalidateCache(this.getDirtyRegion(d, 0));
             }
-            g2d.setTransform(AffineTransform.getScaleInstance(1, 1));
         }
-        //draw the normal points
-        for (int i = 0; i < this.getSectors(); i++) {
-            g2d.rotate(Math.toRadians(360.0 / this.getSectors()), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
-            g2d.draw(e);
-            g2d.fill(e);
+    }
+
+    /**
+     * Undoes the newest draw, erase or clear
+     * @return false if there was nothing to undo
+     */
+    protected boolean undo() {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordAction(SessionRecorder.UNDO);
+        }
+        synchronized(oStrokeLock) {
+            return this.applyEdits(this.getActiveLayer(), this.getActiveLayer().getHistory().undo());
         }
     }
 
     /**
-     * Drawing a list of points (as lines) from the stack
-     * @param g2d
-     * @param d DraggedPoints from the stack
+     * Redoes the last draw, erase or clear undone
+     * @return false if there was nothing to redo
      */
-    private void drawLines(Graphics2D g2d, DraggedPoints d) {
-        AffineTransform atx;
+    protected boolean redo() {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordAction(SessionRecorder.REDO);
+        }
+        synchronized(oStrokeLock) {
+            return this.applyEdits(this.getActiveLayer(), this.getActiveLayer().getHistory().redo());
+        }
+    }
 
-        //start from one, easier than requiring an if statement inside each time to check if 0
-        for (int i = 1; i < d.getAlListOfPoints().size(); i++) {
-            //for the pair of points, draw a line between them and rotate by the appropriate amount.
-            if(d.isbReflected()) {
-                for (int j = 0; j < this.getSectors(); j++) {
-                    atx = AffineTransform.getTranslateInstance(this.getSize().getWidth() / 2, 0);
-                    atx.scale(-1, 1);
-                    atx.translate(-this.getSize().getWidth() / 2, 0);
-                    atx.rotate(Math.toRadians((360.0 / this.getSectors()) * j), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
+    /**
+     * Applies edits from a layer's history to its stack, keeping the index up to date and redrawing what changed
+     * Only that layer's cache is redrawn, the layers above and below it are left as they are
+     * @param dlLayer The layer
+     * @param alEdits The edits to apply in order, or null if there are none
+     * @return false if there were no edits
+     */
+    private boolean applyEdits(DoilyLayer dlLayer, ArrayList<StackEdit> alEdits) {
+        if(alEdits == null) {
+            return false;
+        }
+        PointGrid pgIndex = dlLayer.getBuiltIndex();
+        Rectangle rChanged = null;
+        for(StackEdit seEdit : alEdits) {
+            java.util.List<DraggedPoints> lAfter = seEdit.apply(dlLayer.getStrokes());
+            dlLayer.getStrokes().clear();
+            dlLayer.getStrokes().addAll(lAfter);
 
-                    g2d.setTransform(atx);
-                    g2d.drawLine(d.getAlListOfPoints().get(i).getX()
-                            , d.getAlListOfPoints().get(i).getY()
-                            , d.getAlListOfPoints().get(i - 1).getX()
-                            , d.getAlListOfPoints().get(i - 1).getY());
-                    g2d.setStroke(new BasicStroke((float)(d.getiSize() / Math.sqrt(2.0))));
+            for(DraggedPoints d : seEdit.getRemoved()) {
+                if(pgIndex != null) {
+                    pgIndex.removeStroke(d);
+                }
+                rChanged = this.addRegion(rChanged, this.getDirtyRegion(dlLayer, d, 0));
+            }
+            for(DraggedPoints d : seEdit.getInserted()) {
+                if(pgIndex != null) {
+                    pgIndex.addStroke(d);
                 }
-                g2d.setTransform(AffineTransform.getScaleInstance(1,1));
+                rChanged = this.addRegion(rChanged, this.getDirtyRegion(dlLayer, d, 0));
+            }
+        }
+
+        //starting from a checkpoint only draws the strokes above it, otherwise redraw just the area which changed
+        if(dlLayer.canRestoreCheckpoint(this.getWidth(), this.getHeight())) {
+            dlLayer.invalidateCache();
+        }
+        else if(rChanged != null) {
+            this.invalidateCache(dlLayer, rChanged);
+        }
+        this.repaint();
+        return true;
+    }
+
+    //grows a region to cover another, starting it if there isn't one yet
+    private Rectangle addRegion(Rectangle rRegion, Rectangle rMore) {
+        if(rRegion == null) {
+            return rMore;
+        }
+        rRegion.add(rMore);
+        return rRegion;
+    }
+
+    /**
+     * Removes every stroke from the active layer
+     */
+    protected void clearStrokes() {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordAction(SessionRecorder.CLEAR);
+        }
+        synchronized(oStrokeLock) {
+            DoilyLayer dlLayer = this.getActiveLayer();
+            if(dlLayer.getStrokes().isEmpty()) {
+                return;
             }
-            for (int j = 0; j < this.getSectors(); j++) {
-                g2d.rotate(Math.toRadians(360.0 / this.getSectors()), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
-                g2d.drawLine(d.getAlListOfPoints().get(i).getX()
-                        , d.getAlListOfPoints().get(i).getY()
-                        , d.getAlListOfPoints().get(i - 1).getX()
-                        , d.getAlListOfPoints().get(i - 1).getY());
-                g2d.setStroke(new BasicStroke((float)(d.getiSize() / Math.sqrt(2.0))));
+            dlLayer.recordEdit(StackEdit.clear(dlLayer.getStrokes()), null);
+            dlLayer.getStrokes().clear();
+            if(dlLayer.getBuiltIndex() != null) {
+                dlLayer.getBuiltIndex().clear();
             }
+            dlLayer.invalidateCache();
+        }
+    }
+
+    /**
+     * Works out the area of the panel changed by drawing a stroke from a given point onwards, in every sector
+     * @param d The stroke being drawn
+     * @param iFrom The first new point, the point before it is included so the line joining them is covered
+     * @return The area to repaint
+     */
+    protected Rectangle getDirtyRegion(DraggedPoints d, int iFrom) {
+        return this.getDirtyRegion(this.getActiveLayer(), d, iFrom);
+    }
+
+    /**
+     * Works out the area of the panel changed by drawing a stroke from a given point onwards, in every sector of a layer
+     * @param dlLayer The layer the stroke is on
+     * @param d The stroke being drawn
+     * @param iFrom The first new point, the point before it is included so the line joining them is covered
+     * @return The area to repaint
+     */
+    private Rectangle getDirtyRegion(DoilyLayer dlLayer, DraggedPoints d, int iFrom) {
+        //the whole stroke's box is kept with it, so only part of a stroke needs its points walked
+        if(iFrom == 0) {
+            return dlLayer.getDirtyRegion(d.getMinX(), d.getMinY(), d.getMaxX(), d.getMaxY()
+                    , d.getiSize(), d.isbReflected(), this.getWidth(), this.getHeight());
+        }
+        double dMinX = Double.POSITIVE_INFINITY;
+        double dMinY = Double.POSITIVE_INFINITY;
+        double dMaxX = Double.NEGATIVE_INFINITY;
+        double dMaxY = Double.NEGATIVE_INFINITY;
+
+        for(int i = Math.max(0, iFrom - 1) ; i < d.getPointCount() ; i++) {
+            dMinX = Math.min(dMinX, d.getX(i));
+            dMinY = Math.min(dMinY, d.getY(i));
+            dMaxX = Math.max(dMaxX, d.getX(i));
+            dMaxY = Math.max(dMaxY, d.getY(i));
         }
+
+        return dlLayer.getDirtyRegion(dMinX, dMinY, dMaxX, dMaxY, d.getiSize(), d.isbReflected(), this.getWidth(), this.getHeight());
+    }
+
+    /**
+     * Works out the area of the panel changed by drawing inside a rectangle, in every sector of the active layer
+     * @param dMinX The left of the points drawn
+     * @param dMinY The top of the points drawn
+     * @param dMaxX The right of the points drawn
+     * @param dMaxY The bottom of the points drawn
+     * @param iSize The size of the stroke
+     * @param bReflected Whether the stroke is reflected
+     * @return The area to repaint
+     */
+    private Rectangle getDirtyRegion(double dMinX, double dMinY, double dMaxX, double dMaxY, int iSize, boolean bReflected) {
+        return this.getActiveLayer().getDirtyRegion(dMinX, dMinY, dMaxX, dMaxY, iSize, bReflected, this.getWidth(), this.getHeight());
     }
 
     /**
-     * Drawing a list of points (as lines) from the current shapes list
-     * @param g2d
-     * @param d ArrayList from the current shapes list
+     * Adds the samples captured since the last frame to the stroke being drawn
      */
-    private void drawLines(Graphics2D g2d, ArrayList<Point> d) {
-        AffineTransform atx;
-        g2d.setColor(DrawingPanel.this.getColor());
+    private void drainCapture() {
+        DraggedPoints d = this.getCurrentStroke();
+        if(d != null) {
+            this.getCapture().drainTo(d);
+        }
+    }
 
-        //start from one, easier than requiring an if statement inside each time to check if 0
-        for (int i = 1; i < d.size(); i++) {
-            //for the pair of points, draw a line between them and rotate by the appropriate amount.
-            if(DrawingPanel.this.isReflecting()) {
-                for (int j = 0; j < this.getSectors(); j++) {
-                    atx = AffineTransform.getTranslateInstance(this.getSize().getWidth() / 2, 0);
-                    atx.scale(-1, 1);
-                    atx.translate(-this.getSize().getWidth() / 2, 0);
-                    atx.rotate(Math.toRadians((360.0 / this.getSectors()) * j), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
+    /**
+     * Marks every layer's cached strokes as out of date, so they are all redrawn on the next paint
+     */
+    protected void invalidateCache() {
+        synchronized(oStrokeLock) {
+            for(DoilyLayer dlLayer : this.getLayers()) {
+                dlLayer.invalidateCache();
+            }
+        }
+    }
 
-                    g2d.setTransform(atx);
-                    g2d.drawLine(d.get(i).getX()
-                            , d.get(i).getY()
-                            , d.get(i - 1).getX()
-                            , d.get(i - 1).getY());
-                    g2d.setStroke(new BasicStroke((float)(DrawingPanel.this.getStrokeSize() / Math.sqrt(2.0))));
+    /**
+     * Marks part of a layer's cached strokes as out of date, so only that part is redrawn on the next paint
+     * @param dlLayer The layer which has changed
+     * @param rRegion The area which has changed
+     */
+    private void invalidateCache(DoilyLayer dlLayer, Rectangle rRegion) {
+        synchronized(oStrokeLock) {
+            dlLayer.invalidateCache(rRegion);
+        }
+    }
+
+    /**
+     * Queues a point of the eraser to be removed on the eraser thread, so the mouse is never held up
+     * Points which arrive while the thread is busy are erased together in one go
+     * @param iX The x coordinate of the eraser
+     * @param iY The y coordinate of the eraser
+     */
+    private void erasePoint(int iX, int iY) {
+        synchronized(oEraserLock) {
+            //a new drag always starts a new batch, so each batch belongs to one drag
+            //and belongs to the layer which was active when the drag started
+            if(dPendingEraser == null || dPendingGesture != this.getCurrentStroke()) {
+                DraggedPoints dBatch = new DraggedPoints(this.getStrokeSize(), this.getColor(), false, true);
+                DraggedPoints dGesture = this.getCurrentStroke();
+                DoilyLayer dlLayer = dPendingGesture == dGesture && dlPendingLayer != null ? dlPendingLayer : this.getActiveLayer();
+                dPendingEraser = dBatch;
+                dPendingGesture = dGesture;
+                dlPendingLayer = dlLayer;
+                esEraser.execute(() -> this.erasePending(dBatch, dGesture, dlLayer));
+            }
+            dPendingEraser.addPoint(iX, iY);
+        }
+    }
+
+    /**
+     * Run on the eraser thread, removes every point queued in a batch
+     * @param dBatch The batch of points
+     * @param dGesture The eraser stroke being dragged, so every batch from one drag is undone together
+     * @param dlLayer The layer to erase from
+     */
+    private void erasePending(DraggedPoints dBatch, DraggedPoints dGesture, DoilyLayer dlLayer) {
+        synchronized(oEraserLock) {
+            //no more points can be added to the batch once it is no longer pending
+            if(dPendingEraser == dBatch) {
+                dPendingEraser = null;
+            }
+        }
+        this.removePoints(dlLayer, dBatch, dGesture);
+    }
+
+    /**
+     * Called once the eraser is released, drops the eraser stroke once every point queued has been removed
+     * Until then it is still drawn, so the erased strokes don't flash back up in the meantime
+     * @param dEraser The stroke drawn by the eraser
+     */
+    private void finishErasing(DraggedPoints dEraser) {
+        esEraser.execute(() -> {
+            Runnable rDrop = () -> {
+                if(this.getCurrentStroke() == dEraser) {
+                    this.setCurrentStroke(null);
+                    this.repaint();
                 }
-                g2d.setTransform(AffineTransform.getScaleInstance(1,1));
+            };
+            //the stroke belongs to the thread which draws it
+            RenderLoop rl = rlLoop;
+            if(rl != null) {
+                rl.post(rDrop);
+            }
+            else {
+                SwingUtilities.invokeLater(rDrop);
             }
-            for (int j = 0; j < this.getSectors(); j++) {
-                g2d.rotate(Math.toRadians(360.0 / this.getSectors()), this.getSize().getWidth() / 2, this.getSize().getHeight() / 2);
-                g2d.drawLine(d.get(i).getX()
-                        , d.get(i).getY()
-                        , d.get(i - 1).getX()
-                        , d.get(i - 1).getY());
-                g2d.setStroke(new BasicStroke((float)(DrawingPanel.this.getStrokeSize() / Math.sqrt(2.0))));
+        });
+    }
+
+    /**
+     * Waits until the eraser thread has removed every point queued so far
+     */
+    protected void waitForEraser() {
+        try {
+            esEraser.submit(() -> { }).get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch(ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Used to remove points under the eraser, run on the eraser thread as the eraser is dragged
+     * The eraser is copied into every sector up front, and the index is used to find only the stroke points near each copy
+     * The split strokes are swapped into the stack in one go while holding the lock, so painting never sees half of an erase
+     * Package-private so the JMH suite can time an erase on its own
+     * @param dEraser The points of the eraser to remove under
+     */
+    void removePoints(DraggedPoints dEraser) {
+        this.removePoints(this.getActiveLayer(), dEraser, null);
+    }
+
+    /**
+     * Used to remove points of one layer under the eraser, recording the change so it can be undone
+     * @param dlLayer The layer to erase from
+     * @param dEraser The points of the eraser to remove under
+     * @param oGroup Erases with the same group in a row are undone together, or null for none
+     */
+    private void removePoints(DoilyLayer dlLayer, DraggedPoints dEraser, Object oGroup) {
+        synchronized(oStrokeLock) {
+            //timed once the lock is held, so a slow paint isn't counted as a slow erase
+            DoilyMetrics.EraseEvent eErase = new DoilyMetrics.EraseEvent();
+            eErase.begin();
+            long lStart = System.nanoTime();
+            lErasedPoints = 0;
+            Rectangle rChanged = this.removePointsLocked(dlLayer, dEraser, oGroup);
+            if(rChanged != null) {
+                this.invalidateCache(dlLayer, rChanged);
+                this.repaint(rChanged);
             }
+            eErase.end();
+            dmMetrics.recordErase(eErase, System.nanoTime() - lStart, lErasedPoints);
         }
     }
 
     /**
-     * Used to remove points once the user has released the mouse
-     * @param alEraserPoints
+     * Does the work of removePoints, once the lock is held
+     * @param dlLayer The layer to erase from
+     * @param dEraser The points of the eraser to remove under
+     * @param oGroup The group to record the erase in
+     * @return The area of the panel covered by the strokes which were changed, or null if nothing was erased
      */
-    private void removePoints(ArrayList<Point> alEraserPoints) {
+    private Rectangle removePointsLocked(DoilyLayer dlLayer, DraggedPoints dEraser, Object oGroup) {
         //declare and initialise variables
-        Iterator<DraggedPoints> it = this.getCurrentStack().iterator();
-        DraggedPoints d;
-        TreeSet<Integer> tPointsToRemove = new TreeSet<>();
-        ArrayList<DraggedPoints> alListOfNewPoints = new ArrayList<>();
-        ArrayList<Point> alInnerPoints = new ArrayList<>();
-        double dLength1, dAngle1;
-        boolean bErased;
-
-        //iterate through the stack
-        while(it.hasNext()) {
-            bErased = false;
-            d = it.next();
-
-            //for all points of DraggedPoint, check it with each drawn eraser point in each sector
-            for(int i = 0 ; i < d.getAlListOfPoints().size() ; i++) {
-
-                for(int j = 0 ; j < alEraserPoints.size() ; j++) {
-                    dLength1 = Math.sqrt(Math.pow(alEraserPoints.get(j).getX() - (this.getWidth() / 2), 2) + Math.pow(alEraserPoints.get(j).getY() - (this.getHeight() / 2), 2));
-                    dAngle1 = Math.atan2((double)(alEraserPoints.get(j).getY() - (this.getHeight() / 2)), (double)(alEraserPoints.get(j).getX() - (this.getWidth() / 2)));
-
-                    //if the distance between the two points is less than the radius of the eraser, mark for deletion in a set
-                    for(int k = 0 ; k < this.getSectors() ; k++) {
-                        if(Math.sqrt(Math.pow(d.getAlListOfPoints().get(i).getX() - (dLength1 * Math.cos(dAngle1 + Math.toRadians((360 / this.getSectors()) * k)) + (this.getWidth() / 2)), 2)
-                                + Math.pow(d.getAlListOfPoints().get(i).getY() - (dLength1 * Math.sin(dAngle1 + Math.toRadians((360 / this.getSectors()) * k)) + (this.getHeight() / 2)), 2)) <= (this.getStrokeSize() / 2)) {
-                            tPointsToRemove.add(i);
-                            bErased = true;
-                        }
-                    }
-                    //if the points in question are reflected, check the alternate side and iterate through them
-                    if(d.isbReflected()) {
-                        dLength1 = Math.sqrt(Math.pow((this.getWidth() / 2) - alEraserPoints.get(j).getX(), 2) + Math.pow((this.getHeight() / 2) - alEraserPoints.get(j).getY(), 2));
-                        dAngle1 = Math.atan2((double)((this.getHeight() / 2) - alEraserPoints.get(j).getY()), (double)((this.getWidth() / 2) - alEraserPoints.get(j).getX()));
-
-                        //if the distance between the two points is less than the radius of the eraser, mark for deletion in a set
-                        for(int k = 0 ; k < this.getSectors() ; k++) {
-                            if(Math.sqrt(Math.pow(d.getAlListOfPoints().get(i).getX() - (dLength1 * Math.cos(dAngle1 + Math.toRadians((360 / this.getSectors()) * k)) + (this.getWidth() / 2)), 2)
-                                    + Math.pow(d.getAlListOfPoints().get(i).getY() - (dLength1 * Math.sin(dAngle1 + Math.toRadians((360 / this.getSectors()) * k)) + (this.getHeight() / 2)), 2)) <= (this.getStrokeSize() / 2)) {
-                                tPointsToRemove.add(i);
-                                bErased = true;
-                            }
-                        }
-                    }
-                }
+        SectorTransforms stfTransforms = dlLayer.getSectorTransforms(this.getWidth(), this.getHeight());
+        PointGrid pgIndex = dlLayer.getPointIndex(this.getWidth(), this.getHeight());
+        HashMap<DraggedPoints, BitSet> mErased = new HashMap<>();
+        int iEraserPoints = dEraser.getPointCount();
+        double[] daEraser = new double[iEraserPoints * 2];
+        double[] daMirrored = new double[iEraserPoints * 2];
+        double[] daRotated = new double[iEraserPoints * 2 * stfTransforms.getSectors()];
+        double[] daReflected = new double[iEraserPoints * 2 * stfTransforms.getSectors()];
+        double dRadius = dEraser.getiSize() / 2.0;
+
+        //a point drawn in sector k is under the eraser when the eraser, turned back by k sectors, is over the point
+        //reflected points are under the eraser when the mirrored eraser is
+        for(int j = 0 ; j < iEraserPoints ; j++) {
+            daEraser[j * 2] = dEraser.getX(j);
+            daEraser[j * 2 + 1] = dEraser.getY(j);
+        }
+        stfTransforms.mirrorPoints(daEraser, daMirrored, iEraserPoints);
+        for(int k = 0 ; k < stfTransforms.getSectors() ; k++) {
+            stfTransforms.rotatePoints(k, daEraser, daRotated, k * iEraserPoints * 2, iEraserPoints);
+            stfTransforms.rotatePoints(k, daMirrored, daReflected, k * iEraserPoints * 2, iEraserPoints);
+        }
+
+        //mark every point and line within the radius of any copy of the eraser
+        for(int j = 0 ; j < daRotated.length ; j += 2) {
+            pgIndex.findPoints(daRotated[j], daRotated[j + 1], dRadius, false, mErased);
+            pgIndex.findPoints(daReflected[j], daReflected[j + 1], dRadius, true, mErased);
+        }
+        if(mErased.isEmpty()) {
+            return null;
+        }
+
+        //replace each erased stroke with the runs of points left between the marked points and lines, in the same place in the stack
+        //the stack is rebuilt in one go, as inserting into the middle of it would shift everything above each time
+        //each replacement is also kept as a splice of the edit, so the erase can be undone
+        Stack<DraggedPoints> stStrokes = dlLayer.getStrokes();
+        ArrayList<DraggedPoints> alListOfNewPoints = new ArrayList<>(stStrokes.size() + mErased.size());
+        int[] iaPositions = new int[mErased.size()];
+        DraggedPoints[][] daRemoved = new DraggedPoints[mErased.size()][];
+        DraggedPoints[][] daInserted = new DraggedPoints[mErased.size()][];
+        int iSplices = 0;
+        Rectangle rChanged = null;
+        for(int iPosition = 0 ; iPosition < stStrokes.size() ; iPosition++) {
+            DraggedPoints d = stStrokes.get(iPosition);
+            BitSet bsMarked = mErased.get(d);
+            if(bsMarked == null) {
+                alListOfNewPoints.add(d);
+                continue;
             }
+            int iPieces = alListOfNewPoints.size();
 
-            //if erasing, iterate through each point in the line
-            if(bErased) {
-                int iStartLine = 0;
-                int iEndLine = 0;
-
-                for(int i = 0 ; i < d.getAlListOfPoints().size() ; i++) {
-                    //if a point marked for deletion appears, and does not follow another point, or is the last point
-                    if((tPointsToRemove.contains(i)) || (i == d.getAlListOfPoints().size() - 1)) {
-                        //mark the end of the line
-                        iEndLine = i;
-                        if(tPointsToRemove.contains(i - 1)) {
-                            iStartLine++;
-                            continue;
-                        }
-                        //iterate through the subset of the points marked and add to an arraylist of erased lines
-                        for(int j = iStartLine ; j < iEndLine ; j++) {
-                            alInnerPoints.add(d.getAlListOfPoints().get(j));
-                        }
-                        alListOfNewPoints.add(new DraggedPoints(new ArrayList<>(alInnerPoints)
-                                , d.getiSize()
-                                , d.getcPointsColor()
-                                , d.isbReflected()
-                                , d.isbEraser()));
-
-                        iStartLine = i + 1;
-                        alInnerPoints.clear();
-                    }
-                    else {
-                        iEndLine++;
-                    }
+            //the lines either side of an erased point go too, so the whole of the old stroke needs redrawing
+            rChanged = this.addRegion(rChanged, this.getDirtyRegion(dlLayer, d, 0));
+            pgIndex.removeStroke(d);
+            //a run ends before an erased point, or at a point whose line on to the next one was erased
+            int iStartLine = -1;
+            for(int j = 0 ; j < d.getPointCount() ; j++) {
+                boolean bErased = bsMarked.get(j * 2);
+                if(bErased) {
+                    lErasedPoints++;
                 }
-                //remove the old line
-                it.remove();
+                else if(iStartLine < 0) {
+                    iStartLine = j;
+                }
+                if(iStartLine >= 0 && (bErased || bsMarked.get(j * 2 + 1) || j == d.getPointCount() - 1)) {
+                    DraggedPoints dNew = d.subPoints(iStartLine, bErased ? j : j + 1);
+                    alListOfNewPoints.add(dNew);
+                    pgIndex.addStroke(dNew);
+                    iStartLine = -1;
+                }
+            }
+
+            iaPositions[iSplices] = iPosition;
+            daRemoved[iSplices] = new DraggedPoints[] {d};
+            daInserted[iSplices] = alListOfNewPoints.subList(iPieces, alListOfNewPoints.size()).toArray(new DraggedPoints[0]);
+            iSplices++;
+        }
+        //strokes missing from the stack are never in the index, but if one were it would leave unused splices
+        dlLayer.recordEdit(new StackEdit(Arrays.copyOf(iaPositions, iSplices)
+                , Arrays.copyOf(daRemoved, iSplices)
+                , Arrays.copyOf(daInserted, iSplices)), oGroup);
+        stStrokes.clear();
+        stStrokes.addAll(alListOfNewPoints);
+        return rChanged;
+    }
+
+    /**
+     * Takes a copy of every layer's strokes and the settings needed to draw them, for saving or rendering elsewhere
+     * @return The document
+     */
+    protected DoilyDocument getDocument() {
+        synchronized(oStrokeLock) {
+            ArrayList<DoilyDocument.Layer> alSaved = new ArrayList<>();
+            for(DoilyLayer dlLayer : alLayers) {
+                alSaved.add(dlLayer.toDocumentLayer());
+            }
+            return new DoilyDocument(alSaved, this.getWidth(), this.getHeight());
+        }
+    }
+
+    /**
+     * Replaces every layer with those from a document, such as one opened from a file
+     * The bottom layer becomes the active one, as in a new doily
+     * @param ddDocument The document to show
+     */
+    protected void setDocument(DoilyDocument ddDocument) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordDocument(ddDocument);
+        }
+        synchronized(oStrokeLock) {
+            //an opened document starts a new history on every layer
+            alLayers.clear();
+            for(DoilyDocument.Layer dlSaved : ddDocument.getLayers()) {
+                alLayers.add(DoilyLayer.fromDocumentLayer(dlSaved));
             }
+            dlActive = alLayers.get(0);
+        }
+        this.repaint();
+    }
+
+    /**
+     * Starts recording what the user does, beginning with the strokes and every setting as they are now
+     * @param osOut Where to write the recording, which is closed when it stops
+     * @throws IOException If the recording couldn't be started
+     */
+    protected void startRecording(OutputStream osOut) throws IOException {
+        SessionRecorder srRecorder = new SessionRecorder(osOut, this.getWidth(), this.getHeight());
+        synchronized(oStrokeLock) {
+            //the layers are recorded as a document, which brings their settings with it
+            srRecorder.recordDocument(this.getDocument());
+            srRecorder.recordSetting(SessionRecorder.LAYER_SELECT, this.getActiveLayerIndex());
+        }
+        srRecorder.recordSetting(SessionRecorder.SIZE, this.getStrokeSize());
+        srRecorder.recordColour(this.getColor());
+        srRecorder.recordSetting(SessionRecorder.ERASER, this.isErasing());
+        srRecorder.recordSetting(SessionRecorder.STAMP, this.isStampingSectors());
+        this.setRecorder(srRecorder);
+    }
+
+    /**
+     * Adds an empty layer on top of the others and makes it the active one
+     * It starts with the active layer's sectors and reflection, but without sector lines so the ones below show through
+     * @param sName The name shown for the layer
+     */
+    protected void addLayer(String sName) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordLayer(sName);
+        }
+        synchronized(oStrokeLock) {
+            DoilyLayer dlLayer = new DoilyLayer(sName, this.getSectors(), false);
+            dlLayer.setReflecting(this.isReflecting());
+            alLayers.add(dlLayer);
+            dlActive = dlLayer;
         }
+        this.repaint();
+    }
+
+    /**
+     * Stops recording, finishing the recording if there is one
+     * @throws IOException If the end of the recording couldn't be written
+     */
+    protected void stopRecording() throws IOException {
+        SessionRecorder srRecorder = this.getRecorder();
+        this.setRecorder(null);
+        if(srRecorder != null) {
+            srRecorder.close();
+        }
+    }
 
-        //add each new line to the stack
-        for(DraggedPoints newD : alListOfNewPoints) {
-            this.getCurrentStack().add(newD);
+    //records a mouse event if a session is being recorded
+    private void recordMouse(int iType, MouseEvent e) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordMouse(iType, e.getX(), e.getY());
         }
     }
 
     //getters
-    private ArrayList<Point> getCurrentShapes() {
-        return alCurrentShapes;
+    private DraggedPoints getCurrentStroke() {
+        return dCurrentStroke;
     }
 
-    protected Stack<DraggedPoints> getCurrentStack() {
-        return stCurrentStack;
+    protected DoilyMetrics getMetrics() {
+        return dmMetrics;
     }
 
-    protected Stack<DraggedPoints> getRedoStack() {
-        return stRedoStack;
+    private StrokeCapture getCapture() {
+        return scCapture;
     }
 
-    private int getSectors() {
-        return iSectors;
+    /**
+     * Gets the number of strokes on the active layer, for tools which report on a drawing without reaching into it
+     * @return The number of strokes
+     */
+    protected int getStrokeCount() {
+        synchronized(oStrokeLock) {
+            return this.getActiveLayer().getStrokes().size();
+        }
+    }
+
+    protected boolean canUndo() {
+        synchronized(oStrokeLock) {
+            return this.getActiveLayer().getHistory().canUndo();
+        }
+    }
+
+    protected boolean canRedo() {
+        synchronized(oStrokeLock) {
+            return this.getActiveLayer().getHistory().canRedo();
+        }
+    }
+
+    /**
+     * Gets the layers, bottom first, which are only changed through the panel
+     * @return The layers
+     */
+    protected java.util.List<DoilyLayer> getLayers() {
+        return Collections.unmodifiableList(alLayers);
+    }
+
+    protected DoilyLayer getActiveLayer() {
+        return dlActive;
+    }
+
+    protected int getActiveLayerIndex() {
+        return alLayers.indexOf(dlActive);
+    }
+
+    /**
+     * Gets the active layer's sectors as last set, which the render thread may not have drawn yet
+     * @return The number of sectors
+     */
+    protected int getSectors() {
+        return this.getActiveLayer().getRequestedSectors();
+    }
+
+    /**
+     * Gets the renderer for the active layer's sector transforms, so the panel draws with the same geometry as anything else
+     * @return The renderer
+     */
+    private DoilyRenderer getRenderer() {
+        return this.getActiveLayer().getRenderer(this.getWidth(), this.getHeight());
     }
 
     private int getStrokeSize() {
@@ -426,39 +1128,221 @@ public class DrawingPanel extends JPanel {
     }
 
     private boolean isReflecting() {
-        return bReflecting;
+        return this.getActiveLayer().isReflecting();
     }
 
     private boolean isErasing() {
         return bErasing;
     }
 
-    private boolean isDrawingLines() {
-        return bLines;
+    protected boolean isDrawingLines() {
+        return this.getActiveLayer().isRequestedLines();
+    }
+
+    protected boolean isStampingSectors() {
+        return bStampingSectors;
+    }
+
+    protected SessionRecorder getRecorder() {
+        return srRecorder;
+    }
+
+    protected QualityGovernor getGovernor() {
+        return qgGovernor;
+    }
+
+    protected double getMinSampleDistance() {
+        return this.getCapture().getMinDistance();
+    }
+
+    protected double getSimplifyTolerance() {
+        return dSimplifyTolerance;
+    }
+
+    /**
+     * Gets how many points have been dropped from strokes by simplifying them as they were committed
+     * @return The number of points removed
+     */
+    protected long getSimplifiedPoints() {
+        return lSimplifiedPoints;
     }
 
     //setters
+    private void setCurrentStroke(DraggedPoints dCurrentStroke) {
+        this.dCurrentStroke = dCurrentStroke;
+    }
+
+    private void setRecorder(SessionRecorder srRecorder) {
+        this.srRecorder = srRecorder;
+    }
+
+    /**
+     * Makes another layer the active one, which is drawn on, erased from and undone
+     * The panel's sectors, reflection and sector lines are then those of that layer
+     * @param iLayer The position of the layer, bottom first
+     */
+    protected void setActiveLayer(int iLayer) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.LAYER_SELECT, iLayer);
+        }
+        synchronized(oStrokeLock) {
+            dlActive = alLayers.get(iLayer);
+        }
+    }
+
+    /**
+     * Shows or hides a layer, which is only composited rather than redrawn
+     * @param iLayer The position of the layer, bottom first
+     * @param bVisible true to show it
+     */
+    protected void setLayerVisible(int iLayer, boolean bVisible) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordLayerVisible(iLayer, bVisible);
+        }
+        synchronized(oStrokeLock) {
+            alLayers.get(iLayer).setVisible(bVisible);
+        }
+        this.repaint();
+    }
+
     protected void setSectors(int iSectors) {
-        this.iSectors = iSectors;
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.SECTORS, iSectors);
+        }
+        //the slider gives many changes, so they are queued rather than waiting for the frame being drawn
+        DoilyLayer dlLayer = this.getActiveLayer();
+        dlLayer.requestSectors(iSectors);
+        this.runOnRenderer(() -> {
+            synchronized(oStrokeLock) {
+                dlLayer.setSectors(iSectors);
+            }
+        });
     }
 
     protected void setStrokeSize(int iSize) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.SIZE, iSize);
+        }
         this.iSize = iSize;
     }
 
     protected void setColor(Color cColor) {
+        //every stroke needs a colour, so no colour leaves the current one
+        if(cColor == null) {
+            return;
+        }
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordColour(cColor);
+        }
         this.cColor = cColor;
     }
 
     protected void setReflecting(boolean bReflecting) {
-        this.bReflecting = bReflecting;
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.REFLECT, bReflecting);
+        }
+        this.getActiveLayer().setReflecting(bReflecting);
     }
 
     protected void setErasing(boolean bErasing) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.ERASER, bErasing);
+        }
         this.bErasing = bErasing;
     }
 
     protected void setDrawingLines(boolean bLines) {
-        this.bLines = bLines;
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.LINES, bLines);
+        }
+        DoilyLayer dlLayer = this.getActiveLayer();
+        dlLayer.requestDrawingLines(bLines);
+        this.runOnRenderer(() -> {
+            synchronized(oStrokeLock) {
+                dlLayer.setDrawingLines(bLines);
+            }
+        });
+    }
+
+    /**
+     * Sets whether the whole cache is redrawn by drawing the first sector and stamping it into the others
+     * Much faster with many sectors, but the stamped sectors are resampled so they are a little softer
+     * @param bStampingSectors true to stamp, false to draw every sector
+     */
+    protected void setStampingSectors(boolean bStampingSectors) {
+        if(this.getRecorder() != null) {
+            this.getRecorder().recordSetting(SessionRecorder.STAMP, bStampingSectors);
+        }
+        this.bStampingSectors = bStampingSectors;
+        this.runOnRenderer(() -> {
+            synchronized(oStrokeLock) {
+                for(DoilyLayer dlLayer : this.getLayers()) {
+                    dlLayer.changeCacheSettings();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets whether a setting such as the sectors is being dragged, during which full redraws are rough previews
+     * @param bAdjusting true while it is being dragged, false once it is let go
+     */
+    protected void setAdjusting(boolean bAdjusting) {
+        //the slider reports every step, so only a change is recorded
+        if(this.getRecorder() != null && this.bAdjusting != bAdjusting) {
+            this.getRecorder().recordSetting(SessionRecorder.ADJUSTING, bAdjusting);
+        }
+        this.bAdjusting = bAdjusting;
+        this.runOnRenderer(() -> {
+            synchronized(oStrokeLock) {
+                boolean bLetGo = qgGovernor.isAdjusting() && !bAdjusting;
+                qgGovernor.setAdjusting(bAdjusting);
+                //letting go may not change the sectors, so the previews it left are redrawn here rather than when the timer fires
+                if(bLetGo) {
+                    this.restoreQuality();
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets how long a full redraw may take before the redraws soon after it become previews
+     * @param lFrameBudgetMillis The frame time to keep to, in milliseconds
+     */
+    protected void setFrameBudget(long lFrameBudgetMillis) {
+        synchronized(oStrokeLock) {
+            qgGovernor.setFrameBudgetMillis(lFrameBudgetMillis);
+        }
+    }
+
+    /**
+     * Sets how many edits are made between checkpoints of the cache, which undo can start redrawing from
+     * @param iCheckpointInterval The number of edits, or 0 to stop taking checkpoints
+     */
+    protected void setCheckpointInterval(int iCheckpointInterval) {
+        synchronized(oStrokeLock) {
+            this.iCheckpointInterval = iCheckpointInterval;
+            if(iCheckpointInterval <= 0) {
+                for(DoilyLayer dlLayer : this.getLayers()) {
+                    dlLayer.clearCheckpoints();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets how far the mouse has to move from the last sample kept before another is captured
+     * @param dMinSampleDistance The distance in pixels, or 0 to keep every sample
+     */
+    protected void setMinSampleDistance(double dMinSampleDistance) {
+        this.getCapture().setMinDistance(dMinSampleDistance);
+    }
+
+    /**
+     * Sets how far simplifying may move a committed stroke, as a fraction of its size
+     * @param dSimplifyTolerance The fraction of the stroke size, or 0 to keep every point
+     */
+    protected void setSimplifyTolerance(double dSimplifyTolerance) {
+        this.dSimplifyTolerance = dSimplifyTolerance;
     }
 }
\ No newline at end of file
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+
+/**
+ * The log of edits made to the stack of strokes, for undo and redo
+ * Each command is a list of edits done together, such as every batch the eraser removed during one drag
+ * Not thread safe, so it is only used while holding the DrawingPanel's stroke lock
+ */
+
+public class EditHistory {
+    private final ArrayList<ArrayList<StackEdit>> alUndo = new ArrayList<>();
+    private final ArrayList<ArrayList<StackEdit>> alRedo = new ArrayList<>();
+    private Object oLastGroup;
+
+    /**
+     * Records an edit which has just been made, forgetting anything which could have been redone
+     * @param seEdit The edit
+     * @param oGroup Edits recorded one after another with the same group are undone together, or null to stand alone
+     */
+    public void record(StackEdit seEdit, Object oGroup) {
+        alRedo.clear();
+        if(oGroup != null && oGroup == oLastGroup && !alUndo.isEmpty()) {
+            alUndo.get(alUndo.size() - 1).add(seEdit);
+        }
+        else {
+            ArrayList<StackEdit> alCommand = new ArrayList<>();
+            alCommand.add(seEdit);
+            alUndo.add(alCommand);
+        }
+        oLastGroup = oGroup;
+    }
+
+    /**
+     * Takes the newest command off the log, moving it so it can be redone
+     * @return The edits which undo it, to be applied in order, or null if there is nothing to undo
+     */
+    public ArrayList<StackEdit> undo() {
+        if(alUndo.isEmpty()) {
+            return null;
+        }
+        ArrayList<StackEdit> alCommand = alUndo.remove(alUndo.size() - 1);
+        alRedo.add(alCommand);
+        oLastGroup = null;
+
+        ArrayList<StackEdit> alInverse = new ArrayList<>(alCommand.size());
+        for(int i = alCommand.size() - 1 ; i >= 0 ; i--) {
+            alInverse.add(alCommand.get(i).inverse());
+        }
+        return alInverse;
+    }
+
+    /**
+     * Puts the last command undone back on the log
+     * @return The edits which redo it, to be applied in order, or null if there is nothing to redo
+     */
+    public ArrayList<StackEdit> redo() {
+        if(alRedo.isEmpty()) {
+            return null;
+        }
+        ArrayList<StackEdit> alCommand = alRedo.remove(alRedo.size() - 1);
+        alUndo.add(alCommand);
+        oLastGroup = null;
+        return alCommand;
+    }
+
+    /**
+     * Forgets every command, such as when a different document is opened
+     */
+    public void clear() {
+        alUndo.clear();
+        alRedo.clear();
+        oLastGroup = null;
+    }
+
+    //getters
+    public boolean canUndo() {
+        return !alUndo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !alRedo.isEmpty();
+    }
+}
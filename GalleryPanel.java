@@ -2,77 +2,85 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Handles the Gallery panel, including holding the images, removing and saving the images
+ * The images are kept on disk by a GalleryStore, and only the page being shown is loaded, so the gallery can hold any number
  */
 
 public class GalleryPanel extends JPanel {
+    private static final int PANES_PER_PAGE = 6;
+    //enough for a couple of pages of half size thumbnails, so paging back and forth doesn't go to the disk
+    private static final long CACHE_BYTES = 8L * 1024 * 1024;
+
     private DrawingPanel dp;
-    private JToggleButton[] jGalleryPanes = new JToggleButton[12];
+    private GalleryStore gsStore;
+    private JToggleButton[] jGalleryPanes = new JToggleButton[PANES_PER_PAGE];
+    private ButtonGroup buttonGroup = new ButtonGroup();
+    private JLabel jPageLabel = new JLabel("", SwingConstants.CENTER);
+    private JButton jPreviousPageButton = new JButton("Previous Page");
+    private JButton jNextPageButton = new JButton("Next Page");
+
+    //the id shown on each pane, or -1 if it is empty
+    private int[] iaPaneIds = new int[PANES_PER_PAGE];
+    private int iPage;
+    //bumped whenever the page is shown again, so a thumbnail finishing late can't land on the wrong page
+    private int iPageVersion;
+
+    //every change to the store happens on the one thread, in the order they were asked for
+    private final ExecutorService esWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "Gallery writer");
+        t.setDaemon(true);
+        return t;
+    });
 
     /**
-     * The constructor of the GalleryPanel
+     * The constructor of the GalleryPanel, keeping the gallery in the user's home directory
      * @param dp The DrawingPanel, used to get images
      */
     protected GalleryPanel(DrawingPanel dp) {
+        this(dp, openDefaultStore());
+    }
+
+    /**
+     * The constructor of the GalleryPanel
+     * @param dp The DrawingPanel, used to get images
+     * @param gsStore Where the images are kept
+     */
+    protected GalleryPanel(DrawingPanel dp, GalleryStore gsStore) {
         //set jpanel properties
         this.setPreferredSize(new Dimension(900, 900));
         this.dp = dp;
+        this.gsStore = gsStore;
         this.setLayout(new BorderLayout());
 
-        //button group for gallery panes
-        ButtonGroup buttonGroup = new ButtonGroup();
-
-        //jpanels for the cardlayout for multiple pages
-        JPanel jCardGallery = new JPanel(new CardLayout());
-        JPanel jFirstPage = new JPanel();
-        JPanel jSecondPage = new JPanel();
-
-        //instantiate togglebuttons and add to the buttongroup
-        for(int i = 0 ; i < 12 ; i++) {
+        //one page of panes, showing whichever page of the gallery is current, as a (3x2) grid
+        JPanel jPage = new JPanel(new GridLayout(3, 2));
+        for(int i = 0 ; i < PANES_PER_PAGE ; i++) {
             this.getGalleryPanes()[i] = new JToggleButton();
             buttonGroup.add(this.getGalleryPanes()[i]);
+            jPage.add(this.getGalleryPanes()[i]);
         }
 
-        //add 6 buttons to the first page, 6 to the second
-        for(int i = 0 ; i < 6 ; i++) {
-            jFirstPage.add(jGalleryPanes[i]);
-        }
-        for(int i = 6 ; i < 12 ; i++) {
-            jSecondPage.add(jGalleryPanes[i]);
-        }
-
-        //set page layouts as (3x2) grid
-        jFirstPage.setLayout(new GridLayout(3,2));
-        jSecondPage.setLayout(new GridLayout(3,2));
-
-        //add to cardlayout pane the pages
-        jCardGallery.add(jFirstPage);
-        jCardGallery.add(jSecondPage);
-
-        //create new jbuttons for saving, remove and changing page
-        JButton jPreviousPageButton = new JButton("Previous Page");
+        //create new jbuttons for saving and removing
         JButton jSaveButton = new JButton("Save");
         JButton jRemoveButton = new JButton("Remove");
-        JButton jNextPageButton = new JButton("Next Page");
-
-        jPreviousPageButton.setEnabled(false);
 
         //go back a page
         jPreviousPageButton.addActionListener((ActionEvent e) -> {
-            CardLayout cardLayout = (CardLayout) jCardGallery.getLayout();
-            cardLayout.previous(jCardGallery);
-            jNextPageButton.setEnabled(true);
-            jPreviousPageButton.setEnabled(false);
+            this.showPage(iPage - 1);
         });
 
-        //save an image to a button
+        //save an image to a button, copying the panel now and scaling it down in the background
         jSaveButton.addActionListener((ActionEvent e) -> {
-            BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
-            dp.paint(image.getGraphics());
-            Image scaledImage = image.getScaledInstance(dp.getWidth() / 2, dp.getHeight() / 2, BufferedImage.TYPE_INT_RGB);
-            this.saveImage(scaledImage);
+            this.saveImage(snapshot(dp));
         });
 
         //remove an image
@@ -82,72 +90,235 @@ public class GalleryPanel extends JPanel {
 
         //change to the next page
         jNextPageButton.addActionListener((ActionEvent e) -> {
-            CardLayout cardLayout = (CardLayout) jCardGallery.getLayout();
-            cardLayout.next(jCardGallery);
-            jNextPageButton.setEnabled(false);
-            jPreviousPageButton.setEnabled(true);
+            this.showPage(iPage + 1);
         });
 
-        //create one final jpanel for the buttons on the bottom
+        //create one final jpanel for the buttons on the bottom, with the page number above them
         JPanel jButtonPanel = new JPanel();
         jButtonPanel.setLayout(new GridLayout(1, 4));
         jButtonPanel.add(jPreviousPageButton);
         jButtonPanel.add(jRemoveButton);
         jButtonPanel.add(jSaveButton);
         jButtonPanel.add(jNextPageButton);
+        JPanel jBottomPanel = new JPanel(new BorderLayout());
+        jBottomPanel.add(jPageLabel, BorderLayout.NORTH);
+        jBottomPanel.add(jButtonPanel, BorderLayout.CENTER);
 
         //add the two jpanels to the main jpanel
-        this.add(jCardGallery, BorderLayout.CENTER);
-        this.add(jButtonPanel, BorderLayout.SOUTH);
+        this.add(jPage, BorderLayout.CENTER);
+        this.add(jBottomPanel, BorderLayout.SOUTH);
+        this.showPage(0);
     }
 
     /**
-     * Saving an image to a button
-     * @param image The image to save to the button
+     * Opens the gallery kept in the user's home directory, or a temporary one if that can't be used
+     * @return The store
      */
-    private void saveImage(Image image) {
-        boolean bSelected = false;
-        //find the selected button, and add the image to the button
-        for(JToggleButton button : this.getGalleryPanes()) {
-            if(button.isSelected()) {
-                button.setIcon(new ImageIcon(image));
-                bSelected = true;
-                break;
+    private static GalleryStore openDefaultStore() {
+        try {
+            return new GalleryStore(new File(System.getProperty("user.home"), ".doily-gallery"), CACHE_BYTES);
+        }
+        catch(IOException e) {
+            try {
+                return new GalleryStore(Files.createTempDirectory("doily-gallery").toFile(), CACHE_BYTES);
+            }
+            catch(IOException ex) {
+                throw new UncheckedIOException(ex);
             }
         }
+    }
 
-        //if no button is selected, go through each button and add to an empty button if it exists
-        if(!bSelected) {
-            for(JToggleButton button : this.getGalleryPanes()) {
-                if(button.getIcon() == null) {
-                    button.setIcon(new ImageIcon(image));
-                    bSelected = true;
-                    break;
-                }
+    /**
+     * Paints the drawing panel into an image, which only copies from its cache so is quick enough for the EDT
+     * @param dp The DrawingPanel to take the picture of
+     * @return The full size picture
+     */
+    protected static BufferedImage snapshot(DrawingPanel dp) {
+        BufferedImage image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        dp.paint(g2d);
+        g2d.dispose();
+        return image;
+    }
+
+    /**
+     * Scales a picture down to half size, for showing on a gallery button
+     * Halves it with bilinear filtering at each step, as one big bilinear step would skip pixels and alias
+     * @param image The full size picture
+     * @return The scaled image
+     */
+    protected static BufferedImage createThumbnail(BufferedImage image) {
+        return scaleDown(image, Math.max(1, image.getWidth() / 2), Math.max(1, image.getHeight() / 2));
+    }
+
+    /**
+     * Scales an image down to a size, halving it until the last step is at most a half
+     * @param image The image to scale
+     * @param iWidth The width to end at
+     * @param iHeight The height to end at
+     * @return The scaled image
+     */
+    private static BufferedImage scaleDown(BufferedImage image, int iWidth, int iHeight) {
+        BufferedImage biScaled = image;
+        do {
+            int iStepWidth = Math.max(iWidth, biScaled.getWidth() / 2);
+            int iStepHeight = Math.max(iHeight, biScaled.getHeight() / 2);
+            BufferedImage biStep = new BufferedImage(iStepWidth, iStepHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = biStep.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(biScaled, 0, 0, iStepWidth, iStepHeight, null);
+            g2d.dispose();
+            biScaled = biStep;
+        } while(biScaled.getWidth() != iWidth || biScaled.getHeight() != iHeight);
+        return biScaled;
+    }
+
+    /**
+     * Shows a page of the gallery, using thumbnails already in the cache and loading the rest in the background
+     * @param iPage The page to show, moved back into range if the gallery has shrunk
+     */
+    private void showPage(int iPage) {
+        int iPages = Math.max(1, (this.getStore().size() + PANES_PER_PAGE - 1) / PANES_PER_PAGE);
+        this.iPage = Math.max(0, Math.min(iPages - 1, iPage));
+        int iVersion = ++iPageVersion;
+        buttonGroup.clearSelection();
+
+        int[] iaIds = this.getStore().getIds(this.iPage * PANES_PER_PAGE, PANES_PER_PAGE);
+        for(int i = 0 ; i < PANES_PER_PAGE ; i++) {
+            JToggleButton button = this.getGalleryPanes()[i];
+            button.setText(null);
+            iaPaneIds[i] = i < iaIds.length ? iaIds[i] : -1;
+            BufferedImage image = iaPaneIds[i] < 0 ? null : this.getStore().getCachedThumbnail(iaPaneIds[i]);
+            button.setIcon(image == null ? null : new ImageIcon(image));
+            if(iaPaneIds[i] >= 0 && image == null) {
+                this.loadThumbnail(i, iaPaneIds[i], iVersion);
             }
         }
 
-        //if there is still no place to save it, overwrite the first icon
-        if(!bSelected) {
-            this.getGalleryPanes()[0].setIcon(new ImageIcon(image));
+        jPageLabel.setText("Page " + (this.iPage + 1) + " of " + iPages);
+        jPreviousPageButton.setEnabled(this.iPage > 0);
+        jNextPageButton.setEnabled(this.iPage < iPages - 1);
+    }
+
+    /**
+     * Reads a thumbnail on a worker, and puts it on its pane if the same page is still being shown
+     * @param iPane The pane to show it on
+     * @param iId The id of the entry
+     * @param iVersion The page version it was asked for on
+     */
+    private void loadThumbnail(int iPane, int iId, int iVersion) {
+        new SwingWorker<BufferedImage, Void>() {
+            @Override
+            protected BufferedImage doInBackground() throws IOException {
+                return GalleryPanel.this.getStore().getThumbnail(iId);
+            }
+
+            @Override
+            protected void done() {
+                if(iPageVersion != iVersion || iaPaneIds[iPane] != iId) {
+                    return;
+                }
+                try {
+                    BufferedImage image = this.get();
+                    if(image != null) {
+                        GalleryPanel.this.getGalleryPanes()[iPane].setIcon(new ImageIcon(image));
+                    }
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch(ExecutionException e) {
+                    GalleryPanel.this.getGalleryPanes()[iPane].setText("Could not load");
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Saving an image to the gallery, over the selected pane's image if it has one, or as a new entry at the end
+     * The image is scaled down and written on the writer thread, and the page is shown again once it is saved
+     * @param image The full size picture to save
+     */
+    private void saveImage(BufferedImage image) {
+        int iReplaceId = -1;
+        //find the selected button
+        for(int i = 0 ; i < PANES_PER_PAGE ; i++) {
+            if(this.getGalleryPanes()[i].isSelected()) {
+                iReplaceId = iaPaneIds[i];
+            }
         }
+
+        int iTargetId = iReplaceId;
+        this.runOnWriter("save", () -> {
+            BufferedImage biThumbnail = createThumbnail(image);
+            if(iTargetId >= 0) {
+                this.getStore().replace(iTargetId, biThumbnail);
+                return false;
+            }
+            this.getStore().add(biThumbnail);
+            return true;
+        });
     }
 
     /**
      * Removing an image from the gallery
      */
     private void removeImage() {
-        //if a button is selected (and only one will be), then remove the image form the button
-        for(JToggleButton button : this.getGalleryPanes()) {
-            if(button.isSelected()) {
-                button.setIcon(null);
+        //if a button is selected (and only one will be), then remove its image from the gallery
+        for(int i = 0 ; i < PANES_PER_PAGE ; i++) {
+            if(this.getGalleryPanes()[i].isSelected() && iaPaneIds[i] >= 0) {
+                int iId = iaPaneIds[i];
+                this.runOnWriter("remove", () -> {
+                    this.getStore().remove(iId);
+                    return false;
+                });
                 break;
             }
         }
     }
 
-    //getter
+    /**
+     * Changes the store on the writer thread, then shows the page again on the EDT
+     * @param sAction What is being done, for the error message
+     * @param cChange The change, returning true if the last page should be shown afterwards
+     */
+    private void runOnWriter(String sAction, StoreChange cChange) {
+        esWriter.execute(new SwingWorker<Boolean, Void>() {
+            @Override
+            protected Boolean doInBackground() throws IOException {
+                return cChange.run();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    GalleryPanel.this.showPage(this.get() ? Integer.MAX_VALUE : iPage);
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                catch(ExecutionException e) {
+                    JOptionPane.showMessageDialog(GalleryPanel.this, "Could not " + sAction + " the image: " + e.getCause().getMessage()
+                            , "Gallery", JOptionPane.ERROR_MESSAGE);
+                    GalleryPanel.this.showPage(iPage);
+                }
+            }
+        });
+    }
+
+    /**
+     * A change to the store, run on the writer thread
+     */
+    private interface StoreChange {
+        boolean run() throws IOException;
+    }
+
+    //getters
     private JToggleButton[] getGalleryPanes() {
         return this.jGalleryPanes;
     }
+
+    protected GalleryStore getStore() {
+        return this.gsStore;
+    }
 }
@@ -0,0 +1,211 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The gallery's thumbnails, kept as numbered PNG files in a directory so there can be any number of them
+ * Only the ids are held for every entry. Decoded thumbnails are kept in a least recently used cache,
+ * bounded by the bytes of pixels it holds, so heap use doesn't grow with the size of the gallery
+ * Safe to use from several threads, with the disk work done outside the lock
+ */
+
+public class GalleryStore {
+    private static final String SUFFIX = ".png";
+    //nine digits always fit in an int, with room for the next id, so a stray file with a long number can't stop the gallery loading
+    private static final Pattern NAME = Pattern.compile("\\d{1,9}\\" + SUFFIX);
+    private static final int MAX_ID = 999_999_999;
+
+    private final File fDirectory;
+    private final ArrayList<Integer> alIds = new ArrayList<>();
+    private int iNextId;
+
+    private final LinkedHashMap<Integer, BufferedImage> mCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final long lCacheLimit;
+    private long lCacheBytes;
+
+    /**
+     * Opens the store in a directory, creating it if needed, and lists the entries already saved there
+     * @param fDirectory The directory holding the thumbnails
+     * @param lCacheLimit The most bytes of decoded thumbnails to keep in memory
+     * @throws IOException If the directory can't be created or read
+     */
+    public GalleryStore(File fDirectory, long lCacheLimit) throws IOException {
+        this.fDirectory = fDirectory;
+        this.lCacheLimit = lCacheLimit;
+        Files.createDirectories(fDirectory.toPath());
+
+        File[] faFiles = fDirectory.listFiles();
+        if(faFiles == null) {
+            throw new IOException("Could not list " + fDirectory);
+        }
+        for(File f : faFiles) {
+            String sName = f.getName();
+            if(NAME.matcher(sName).matches()) {
+                alIds.add(Integer.parseInt(sName.substring(0, sName.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(alIds);
+        iNextId = alIds.isEmpty() ? 1 : alIds.get(alIds.size() - 1) + 1;
+    }
+
+    /**
+     * Saves a thumbnail as a new entry at the end of the gallery
+     * @param image The thumbnail
+     * @return The id of the new entry
+     * @throws IOException If it couldn't be written
+     */
+    public int add(BufferedImage image) throws IOException {
+        int iId;
+        synchronized(this) {
+            if(iNextId > MAX_ID) {
+                throw new IOException("The gallery in " + fDirectory + " has no ids left");
+            }
+            iId = iNextId++;
+        }
+        this.write(iId, image);
+        synchronized(this) {
+            //adds can finish out of order, so keep the ids sorted
+            alIds.add(-Collections.binarySearch(alIds, iId) - 1, iId);
+            this.cache(iId, image);
+        }
+        return iId;
+    }
+
+    /**
+     * Saves a thumbnail over an existing entry
+     * @param iId The id of the entry
+     * @param image The thumbnail
+     * @throws IOException If it couldn't be written
+     */
+    public void replace(int iId, BufferedImage image) throws IOException {
+        this.write(iId, image);
+        synchronized(this) {
+            this.cache(iId, image);
+        }
+    }
+
+    /**
+     * Removes an entry and deletes its file
+     * @param iId The id of the entry
+     * @throws IOException If the file couldn't be deleted
+     */
+    public void remove(int iId) throws IOException {
+        synchronized(this) {
+            alIds.remove(Integer.valueOf(iId));
+            BufferedImage image = mCache.remove(iId);
+            if(image != null) {
+                lCacheBytes -= sizeOf(image);
+            }
+        }
+        Files.deleteIfExists(this.getFile(iId).toPath());
+    }
+
+    /**
+     * Gets a thumbnail, from the cache if it is there or by reading its file if not
+     * @param iId The id of the entry
+     * @return The thumbnail, or null if the entry has gone
+     * @throws IOException If the file couldn't be read
+     */
+    public BufferedImage getThumbnail(int iId) throws IOException {
+        BufferedImage image = this.getCachedThumbnail(iId);
+        if(image != null) {
+            return image;
+        }
+
+        File f = this.getFile(iId);
+        if(!f.exists()) {
+            return null;
+        }
+        image = ImageIO.read(f);
+        synchronized(this) {
+            //it may have been removed while it was being read
+            if(image != null && Collections.binarySearch(alIds, iId) >= 0) {
+                this.cache(iId, image);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Gets a thumbnail only if it is already decoded, so it can be shown without touching the disk
+     * @param iId The id of the entry
+     * @return The thumbnail, or null if it isn't in the cache
+     */
+    public synchronized BufferedImage getCachedThumbnail(int iId) {
+        return mCache.get(iId);
+    }
+
+    //writes to a temporary file first, so a failed write never leaves half an image behind
+    private void write(int iId, BufferedImage image) throws IOException {
+        Path pFile = this.getFile(iId).toPath();
+        Path pTemporary = pFile.resolveSibling(pFile.getFileName() + ".tmp");
+        if(!ImageIO.write(image, "png", pTemporary.toFile())) {
+            throw new IOException("No PNG writer available");
+        }
+        Files.move(pTemporary, pFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    //adds to the cache, then drops the least recently used thumbnails until it is back under the limit
+    //always keeps the newest one, even if it alone is over the limit
+    private void cache(int iId, BufferedImage image) {
+        BufferedImage biOld = mCache.put(iId, image);
+        if(biOld != null) {
+            lCacheBytes -= sizeOf(biOld);
+        }
+        lCacheBytes += sizeOf(image);
+
+        Iterator<Map.Entry<Integer, BufferedImage>> it = mCache.entrySet().iterator();
+        while(lCacheBytes > lCacheLimit && mCache.size() > 1) {
+            Map.Entry<Integer, BufferedImage> e = it.next();
+            lCacheBytes -= sizeOf(e.getValue());
+            it.remove();
+        }
+    }
+
+    //roughly what a decoded image holds on the heap, whatever its type
+    private static long sizeOf(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    private File getFile(int iId) {
+        return new File(fDirectory, String.format("%08d", iId) + SUFFIX);
+    }
+
+    //getters
+    public synchronized int size() {
+        return alIds.size();
+    }
+
+    /**
+     * Gets the ids of a run of entries in one go, so the entries can't change part way through
+     * @param iFrom The position of the first entry, from 0
+     * @param iCount The most entries to get
+     * @return The ids, fewer than asked for if the gallery ends first
+     */
+    public synchronized int[] getIds(int iFrom, int iCount) {
+        int iTo = Math.min(alIds.size(), iFrom + iCount);
+        int[] iaIds = new int[Math.max(0, iTo - iFrom)];
+        for(int i = 0 ; i < iaIds.length ; i++) {
+            iaIds[i] = alIds.get(iFrom + i);
+        }
+        return iaIds;
+    }
+
+    public synchronized long getCacheBytes() {
+        return lCacheBytes;
+    }
+
+    public File getDirectory() {
+        return fDirectory;
+    }
+}
@@ -0,0 +1,155 @@
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an opaque RGB PNG a few rows at a time, so the whole image never has to be held in memory
+ * Rows are compressed as they arrive and written out in IDAT chunks, each row using the Sub filter
+ */
+
+public class PngStreamWriter implements Closeable {
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte FILTER_SUB = 1;
+
+    private final DataOutputStream dosOut;
+    private final int iWidth;
+    private final int iHeight;
+    private final Deflater dfDeflater = new Deflater();
+    private final DeflaterOutputStream dosCompressed;
+    private final int[] iaPixels;
+    private final byte[] baRow;
+    private int iRowsWritten;
+
+    /**
+     * Starts a PNG, writing its header straight away
+     * @param osOut Where to write it, which is not closed when the PNG is finished
+     * @param iWidth The width of the image
+     * @param iHeight The height of the image
+     * @throws IOException If the header couldn't be written
+     */
+    public PngStreamWriter(OutputStream osOut, int iWidth, int iHeight) throws IOException {
+        this.dosOut = new DataOutputStream(osOut);
+        this.iWidth = iWidth;
+        this.iHeight = iHeight;
+        this.iaPixels = new int[iWidth];
+        this.baRow = new byte[1 + iWidth * 3];
+        this.dosCompressed = new DeflaterOutputStream(new IdatOutputStream(), dfDeflater, CHUNK_SIZE);
+
+        dosOut.write(SIGNATURE);
+        byte[] baHeader = new byte[13];
+        writeInt(baHeader, 0, iWidth);
+        writeInt(baHeader, 4, iHeight);
+        //8 bits per channel, truecolour, deflate, adaptive filtering, not interlaced
+        baHeader[8] = 8;
+        baHeader[9] = 2;
+        this.writeChunk("IHDR", baHeader, baHeader.length);
+    }
+
+    /**
+     * Adds the next rows of the image from the top of a band
+     * @param biBand The band, at least as wide as the image, whose alpha is ignored
+     * @param iRows The number of rows to take from it
+     * @throws IOException If they couldn't be written, or there would be more rows than the image has
+     */
+    public void writeRows(BufferedImage biBand, int iRows) throws IOException {
+        if(iRowsWritten + iRows > iHeight) {
+            throw new IOException("Too many rows for a PNG " + iHeight + " high");
+        }
+        baRow[0] = FILTER_SUB;
+        for(int y = 0 ; y < iRows ; y++) {
+            biBand.getRGB(0, y, iWidth, 1, iaPixels, 0, iWidth);
+            //each byte is written as the difference from the same channel of the pixel to its left
+            int iLast = 0;
+            for(int x = 0 ; x < iWidth ; x++) {
+                int iPixel = iaPixels[x];
+                baRow[1 + x * 3] = (byte) ((iPixel >> 16) - (iLast >> 16));
+                baRow[2 + x * 3] = (byte) ((iPixel >> 8) - (iLast >> 8));
+                baRow[3 + x * 3] = (byte) (iPixel - iLast);
+                iLast = iPixel;
+            }
+            dosCompressed.write(baRow);
+        }
+        iRowsWritten += iRows;
+    }
+
+    /**
+     * Finishes the PNG once every row has been written
+     * @throws IOException If it couldn't be written, or rows are missing
+     */
+    public void close() throws IOException {
+        if(iRowsWritten != iHeight) {
+            throw new IOException("Only " + iRowsWritten + " of " + iHeight + " rows were written");
+        }
+        dosCompressed.close();
+        dfDeflater.end();
+        this.writeChunk("IEND", new byte[0], 0);
+        dosOut.flush();
+    }
+
+    //a chunk is its length, type, data and then the CRC of the type and data
+    private void writeChunk(String sType, byte[] baData, int iLength) throws IOException {
+        byte[] baType = sType.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(baType);
+        crc.update(baData, 0, iLength);
+
+        dosOut.writeInt(iLength);
+        dosOut.write(baType);
+        dosOut.write(baData, 0, iLength);
+        dosOut.writeInt((int) crc.getValue());
+    }
+
+    private static void writeInt(byte[] ba, int iOffset, int iValue) {
+        ba[iOffset] = (byte) (iValue >>> 24);
+        ba[iOffset + 1] = (byte) (iValue >>> 16);
+        ba[iOffset + 2] = (byte) (iValue >>> 8);
+        ba[iOffset + 3] = (byte) iValue;
+    }
+
+    /**
+     * Collects the compressed data and writes it out as IDAT chunks once there is a chunk's worth
+     */
+    private class IdatOutputStream extends OutputStream {
+        private final byte[] baChunk = new byte[CHUNK_SIZE];
+        private int iLength;
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] ba, int iOffset, int iCount) throws IOException {
+            while(iCount > 0) {
+                int iCopy = Math.min(iCount, baChunk.length - iLength);
+                System.arraycopy(ba, iOffset, baChunk, iLength, iCopy);
+                iLength += iCopy;
+                iOffset += iCopy;
+                iCount -= iCopy;
+                if(iLength == baChunk.length) {
+                    this.flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(iLength > 0) {
+                PngStreamWriter.this.writeChunk("IDAT", baChunk, iLength);
+                iLength = 0;
+            }
+        }
+
+        //leaves the real output open, as the IEND chunk still has to go after
+        @Override
+        public void close() throws IOException {
+            this.flush();
+        }
+    }
+}
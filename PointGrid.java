@@ -0,0 +1,260 @@
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Uniform grid over the canvas holding every committed stroke point, so the eraser only has to look at points near it
+ * Each cell keeps the runs of consecutive stroke points which fall inside it. Points off the canvas go in the nearest edge cell
+ * A line is found through the point at its end, so searches reach out by the longest line added, as simplified or fast strokes
+ * can have lines much longer than the eraser is wide
+ * Removed strokes are only forgotten by id, and their runs are cleared out once they outnumber the live ones
+ */
+
+public class PointGrid {
+    private static final int CELL_SIZE = 16;
+
+    private final int iWidth;
+    private final int iHeight;
+    private final int iColumns;
+    private final int iRows;
+    private final Cell[] cCells;
+
+    private final IdentityHashMap<DraggedPoints, Integer> mIds = new IdentityHashMap<>();
+    private DraggedPoints[] dStrokes = new DraggedPoints[64];
+    private int[] iRunCounts = new int[64];
+    private int iNextId;
+    private int iLiveRuns;
+    private int iDeadRuns;
+    private double dLongestLine;
+
+    /**
+     * Creates an empty grid covering the canvas
+     * @param iWidth The width of the canvas
+     * @param iHeight The height of the canvas
+     */
+    public PointGrid(int iWidth, int iHeight) {
+        this.iWidth = iWidth;
+        this.iHeight = iHeight;
+        this.iColumns = Math.max(1, (iWidth + CELL_SIZE - 1) / CELL_SIZE);
+        this.iRows = Math.max(1, (iHeight + CELL_SIZE - 1) / CELL_SIZE);
+        this.cCells = new Cell[iColumns * iRows];
+    }
+
+    /**
+     * Checks whether this grid was built for the given canvas size
+     * @return true if it can be reused
+     */
+    public boolean matches(int iWidth, int iHeight) {
+        return this.iWidth == iWidth && this.iHeight == iHeight;
+    }
+
+    /**
+     * Adds every point of a stroke to the grid
+     * @param d The stroke to add
+     */
+    public void addStroke(DraggedPoints d) {
+        if(iNextId == dStrokes.length) {
+            dStrokes = Arrays.copyOf(dStrokes, iNextId * 2);
+            iRunCounts = Arrays.copyOf(iRunCounts, iNextId * 2);
+        }
+        int iId = iNextId++;
+        dStrokes[iId] = d;
+        iRunCounts[iId] = 0;
+        mIds.put(d, iId);
+
+        for(int i = 1 ; i < d.getPointCount() ; i++) {
+            dLongestLine = Math.max(dLongestLine, Math.hypot(d.getX(i) - d.getX(i - 1), d.getY(i) - d.getY(i - 1)));
+        }
+
+        int iRunCell = -1;
+        int iRunStart = 0;
+        for(int i = 0 ; i < d.getPointCount() ; i++) {
+            int iCell = this.getCell(this.getColumn(d.getX(i)), this.getRow(d.getY(i)));
+            //neighbouring points usually share a cell, so they are stored together as one run
+            if(iCell != iRunCell) {
+                this.addRun(iRunCell, iId, iRunStart, i);
+                iRunCell = iCell;
+                iRunStart = i;
+            }
+        }
+        this.addRun(iRunCell, iId, iRunStart, d.getPointCount());
+    }
+
+    /**
+     * Removes a stroke from the grid
+     * Its runs are left in the cells and skipped, until there are enough of them to be worth clearing out
+     * @param d The stroke to remove
+     */
+    public void removeStroke(DraggedPoints d) {
+        Integer iId = mIds.remove(d);
+        if(iId == null) {
+            return;
+        }
+        dStrokes[iId] = null;
+
+        iDeadRuns += iRunCounts[iId];
+        iLiveRuns -= iRunCounts[iId];
+        if(iDeadRuns > iLiveRuns) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Empties the grid
+     */
+    public void clear() {
+        Arrays.fill(cCells, null);
+        Arrays.fill(dStrokes, null);
+        mIds.clear();
+        iNextId = 0;
+        iLiveRuns = 0;
+        iDeadRuns = 0;
+        dLongestLine = 0;
+    }
+
+    /**
+     * Finds the points and lines within a radius of a position, and marks them in the set for their stroke
+     * Point j is marked as bit 2j, and the line from point j to the next as bit 2j + 1,
+     * so a line passing under the position is found even when the points at either end of it aren't
+     * @param dX The x coordinate of the position
+     * @param dY The y coordinate of the position
+     * @param dRadius The distance to search
+     * @param bReflectedOnly If true, only points from reflected strokes are found
+     * @param mFound The marked points and lines for each stroke, added to as they are found
+     */
+    public void findPoints(double dX, double dY, double dRadius, boolean bReflectedOnly, Map<DraggedPoints, BitSet> mFound) {
+        //a line within the radius ends at a point no further away than the radius and the line's length
+        double dReach = dRadius + dLongestLine;
+        int iFirstColumn = this.getColumn(dX - dReach);
+        int iLastColumn = this.getColumn(dX + dReach);
+        int iFirstRow = this.getRow(dY - dReach);
+        int iLastRow = this.getRow(dY + dReach);
+        double dRadiusSquared = dRadius * dRadius;
+
+        for(int iRow = iFirstRow ; iRow <= iLastRow ; iRow++) {
+            for(int iColumn = iFirstColumn ; iColumn <= iLastColumn ; iColumn++) {
+                Cell c = cCells[this.getCell(iColumn, iRow)];
+                if(c == null) {
+                    continue;
+                }
+                for(int i = 0 ; i < c.iCount ; i++) {
+                    DraggedPoints d = dStrokes[c.iStrokeIds[i]];
+                    //skip strokes which have been removed, or aren't reflected when looking for reflected points
+                    if(d == null || (bReflectedOnly && !d.isbReflected())) {
+                        continue;
+                    }
+                    for(int j = c.iStarts[i] ; j < c.iEnds[i] ; j++) {
+                        double dDistanceX = d.getX(j) - dX;
+                        double dDistanceY = d.getY(j) - dY;
+                        if(dDistanceX * dDistanceX + dDistanceY * dDistanceY <= dRadiusSquared) {
+                            mFound.computeIfAbsent(d, k -> new BitSet()).set(j * 2);
+                        }
+                        //the line from the point before ends here, so it is only looked at once
+                        if(j > 0 && Line2D.ptSegDistSq(d.getX(j - 1), d.getY(j - 1), d.getX(j), d.getY(j), dX, dY) <= dRadiusSquared) {
+                            mFound.computeIfAbsent(d, k -> new BitSet()).set(j * 2 - 1);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //adds a run of points to a cell, creating the cell if needed
+    private void addRun(int iCell, int iId, int iStart, int iEnd) {
+        if(iCell < 0 || iStart == iEnd) {
+            return;
+        }
+        if(cCells[iCell] == null) {
+            cCells[iCell] = new Cell();
+        }
+        cCells[iCell].add(iId, iStart, iEnd);
+        iRunCounts[iId]++;
+        iLiveRuns++;
+    }
+
+    //drops the runs of removed strokes from every cell, and renumbers the strokes left so ids don't keep growing
+    private void compact() {
+        int[] iaNewIds = new int[iNextId];
+        int iLive = 0;
+        for(int i = 0 ; i < iNextId ; i++) {
+            if(dStrokes[i] == null) {
+                iaNewIds[i] = -1;
+            }
+            else {
+                iaNewIds[i] = iLive;
+                dStrokes[iLive] = dStrokes[i];
+                iRunCounts[iLive] = iRunCounts[i];
+                mIds.put(dStrokes[iLive], iLive);
+                iLive++;
+            }
+        }
+        Arrays.fill(dStrokes, iLive, iNextId, null);
+        iNextId = iLive;
+
+        for(Cell c : cCells) {
+            if(c != null) {
+                c.renumber(iaNewIds);
+            }
+        }
+        iDeadRuns = 0;
+    }
+
+    //cell lookups, clamped so anything off the canvas lands on the edge
+    private int getColumn(int iX) {
+        return Math.max(0, Math.min(iColumns - 1, Math.floorDiv(iX, CELL_SIZE)));
+    }
+
+    private int getRow(int iY) {
+        return Math.max(0, Math.min(iRows - 1, Math.floorDiv(iY, CELL_SIZE)));
+    }
+
+    private int getColumn(double dX) {
+        return Math.max(0, Math.min(iColumns - 1, (int) Math.floor(dX / CELL_SIZE)));
+    }
+
+    private int getRow(double dY) {
+        return Math.max(0, Math.min(iRows - 1, (int) Math.floor(dY / CELL_SIZE)));
+    }
+
+    private int getCell(int iColumn, int iRow) {
+        return iRow * iColumns + iColumn;
+    }
+
+    /**
+     * The runs of stroke points inside one cell, kept in parallel arrays
+     */
+    private static class Cell {
+        private int[] iStrokeIds = new int[4];
+        private int[] iStarts = new int[4];
+        private int[] iEnds = new int[4];
+        private int iCount;
+
+        private void add(int iId, int iStart, int iEnd) {
+            if(iCount == iStarts.length) {
+                iStrokeIds = Arrays.copyOf(iStrokeIds, iCount * 2);
+                iStarts = Arrays.copyOf(iStarts, iCount * 2);
+                iEnds = Arrays.copyOf(iEnds, iCount * 2);
+            }
+            iStrokeIds[iCount] = iId;
+            iStarts[iCount] = iStart;
+            iEnds[iCount] = iEnd;
+            iCount++;
+        }
+
+        //changes each run to its stroke's new id, dropping runs whose stroke has gone and keeping the rest in order
+        private void renumber(int[] iaNewIds) {
+            int iKept = 0;
+            for(int i = 0 ; i < iCount ; i++) {
+                if(iaNewIds[iStrokeIds[i]] >= 0) {
+                    iStrokeIds[iKept] = iaNewIds[iStrokeIds[i]];
+                    iStarts[iKept] = iStarts[i];
+                    iEnds[iKept] = iEnds[i];
+                    iKept++;
+                }
+            }
+            iCount = iKept;
+        }
+    }
+}
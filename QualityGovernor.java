@@ -0,0 +1,124 @@
+/**
+ * Decides when the drawing panel should redraw its cache as a rough preview rather than at full quality
+ * A preview is used while a slider is being dragged, or while full redraws take longer than the frame budget and keep being asked for.
+ * Once nothing has been redrawn for the settle time the panel goes back to full quality
+ * Not thread safe, so it is only used while holding the drawing panel's stroke lock
+ */
+
+public class QualityGovernor {
+    public static final int DEFAULT_FRAME_BUDGET_MILLIS = 33;
+    public static final int DEFAULT_SETTLE_MILLIS = 250;
+    //joining fewer points than this stops looking like the strokes at all
+    private static final int MAX_STEP = 16;
+
+    private long lBudgetNanos = DEFAULT_FRAME_BUDGET_MILLIS * 1_000_000L;
+    private int iSettleMillis = DEFAULT_SETTLE_MILLIS;
+    private boolean bAdjusting;
+    private boolean bSettled = true;
+    private long lLastRedraw;
+    private long lLastFullNanos;
+    private int iStep = 1;
+    private long lPreviews;
+
+    /**
+     * Works out whether the next full redraw should be a preview
+     * A slow redraw on its own is still done at full quality, only another one soon after it is a preview
+     * @param lNow The time now, from System.nanoTime
+     * @return true to draw a preview
+     */
+    public boolean shouldPreview(long lNow) {
+        if(bAdjusting) {
+            return true;
+        }
+        return !bSettled && lLastFullNanos > lBudgetNanos && lNow - lLastRedraw < iSettleMillis * 1_000_000L;
+    }
+
+    /**
+     * Records how long a full redraw took, so the next ones can be judged against the budget
+     * Previews join fewer points while they are still over the budget, and more again once well under it
+     * @param lNow The time the redraw finished, from System.nanoTime
+     * @param lNanos How long it took
+     * @param bPreview Whether it was a preview
+     */
+    public void recordRedraw(long lNow, long lNanos, boolean bPreview) {
+        if(bPreview) {
+            lPreviews++;
+            if(lNanos > lBudgetNanos) {
+                iStep = Math.min(MAX_STEP, iStep * 2);
+            }
+            else if(lNanos < lBudgetNanos / 4) {
+                iStep = Math.max(1, iStep / 2);
+            }
+        }
+        else {
+            lLastFullNanos = lNanos;
+            //a first guess at the step, from how far over the budget full quality was
+            iStep = (int) Math.max(1, Math.min(MAX_STEP, (lNanos + lBudgetNanos - 1) / lBudgetNanos));
+        }
+        lLastRedraw = lNow;
+        bSettled = false;
+    }
+
+    /**
+     * Marks the input as having stopped, so the next redraw is at full quality however slow the last one was
+     */
+    public void settle() {
+        bSettled = true;
+    }
+
+    //getters
+    public boolean isAdjusting() {
+        return bAdjusting;
+    }
+
+    /**
+     * @return How many points of each stroke a preview moves along for each one it joins
+     */
+    public int getStep() {
+        return iStep;
+    }
+
+    public long getFrameBudgetMillis() {
+        return lBudgetNanos / 1_000_000L;
+    }
+
+    public int getSettleMillis() {
+        return iSettleMillis;
+    }
+
+    /**
+     * @return How many previews have been drawn
+     */
+    public long getPreviews() {
+        return lPreviews;
+    }
+
+    //setters
+    /**
+     * Sets whether a control, such as the sectors slider, is being dragged, during which every redraw is a preview
+     * Letting go settles the input, so the value it ends on is drawn at full quality straight away
+     * @param bAdjusting true while it is being dragged
+     */
+    public void setAdjusting(boolean bAdjusting) {
+        if(this.bAdjusting && !bAdjusting) {
+            this.settle();
+        }
+        this.bAdjusting = bAdjusting;
+    }
+
+    /**
+     * Sets how long a full redraw may take before the ones soon after it are previews
+     * @param lMillis The budget in milliseconds
+     */
+    public void setFrameBudgetMillis(long lMillis) {
+        this.lBudgetNanos = Math.max(1, lMillis) * 1_000_000L;
+    }
+
+    /**
+     * Sets how long nothing has to be redrawn for before going back to full quality
+     * @param iSettleMillis The time in milliseconds
+     */
+    public void setSettleMillis(int iSettleMillis) {
+        this.iSettleMillis = iSettleMillis;
+    }
+}
@@ -0,0 +1,124 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies of the stroke cache taken every so often, along with the stack of strokes each one shows
+ * When the cache has to be rebuilt, such as after an undo, it can start from a checkpoint whose strokes are the bottom of
+ * the stack and only draw the strokes above them, rather than drawing every stroke again
+ * A checkpoint only fits the settings it was drawn with, so they are all dropped when those change
+ * Not thread safe, so it is only used while holding the DrawingPanel's stroke lock
+ */
+
+public class RasterCheckpoints {
+    private final int iLimit;
+    private final ArrayList<Checkpoint> alCheckpoints = new ArrayList<>();
+    private Object oSettings;
+
+    /**
+     * Creates an empty set of checkpoints
+     * @param iLimit The most to keep, as each is a full copy of the cache
+     */
+    public RasterCheckpoints(int iLimit) {
+        this.iLimit = iLimit;
+    }
+
+    /**
+     * Takes a copy of the cache, dropping the oldest checkpoint if there are too many
+     * @param biCache The cache, showing exactly the strokes on the stack
+     * @param lStack The stack of strokes
+     * @param oSettings Whatever else the cache depends on, compared by identity
+     */
+    public void add(BufferedImage biCache, List<DraggedPoints> lStack, Object oSettings) {
+        if(iLimit <= 0) {
+            return;
+        }
+        if(this.oSettings != oSettings) {
+            alCheckpoints.clear();
+            this.oSettings = oSettings;
+        }
+
+        BufferedImage biCopy = new BufferedImage(biCache.getWidth(), biCache.getHeight(), biCache.getType());
+        Graphics2D g2d = biCopy.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(biCache, 0, 0, null);
+        g2d.dispose();
+
+        if(alCheckpoints.size() == iLimit) {
+            alCheckpoints.remove(0);
+        }
+        alCheckpoints.add(new Checkpoint(biCopy, lStack.toArray(new DraggedPoints[0])));
+    }
+
+    /**
+     * Copies the checkpoint which leaves the fewest strokes to draw into the cache
+     * @param biCache The cache to copy into
+     * @param lStack The stack of strokes the cache has to show
+     * @param oSettings Whatever else the cache depends on, which must be the same as when the checkpoint was taken
+     * @return The number of strokes at the bottom of the stack now shown, or -1 if no checkpoint fits
+     */
+    public int restore(BufferedImage biCache, List<DraggedPoints> lStack, Object oSettings) {
+        Checkpoint cBest = this.find(lStack, oSettings, biCache.getWidth(), biCache.getHeight());
+        if(cBest == null) {
+            return -1;
+        }
+        Graphics2D g2d = biCache.createGraphics();
+        g2d.setComposite(AlphaComposite.Src);
+        g2d.drawImage(cBest.biImage, 0, 0, null);
+        g2d.dispose();
+        return cBest.daStack.length;
+    }
+
+    /**
+     * Checks whether a checkpoint fits a stack, without copying it
+     * @return true if restore would find one
+     */
+    public boolean canRestore(List<DraggedPoints> lStack, Object oSettings, int iWidth, int iHeight) {
+        return this.find(lStack, oSettings, iWidth, iHeight) != null;
+    }
+
+    /**
+     * Drops every checkpoint
+     */
+    public void clear() {
+        alCheckpoints.clear();
+        oSettings = null;
+    }
+
+    //finds the checkpoint with the most strokes which are all at the bottom of the stack, in the same order
+    private Checkpoint find(List<DraggedPoints> lStack, Object oSettings, int iWidth, int iHeight) {
+        if(this.oSettings != oSettings) {
+            return null;
+        }
+        Checkpoint cBest = null;
+        for(Checkpoint c : alCheckpoints) {
+            if(c.biImage.getWidth() != iWidth || c.biImage.getHeight() != iHeight || c.daStack.length > lStack.size()
+                    || (cBest != null && c.daStack.length <= cBest.daStack.length)) {
+                continue;
+            }
+            boolean bPrefix = true;
+            for(int i = 0 ; i < c.daStack.length && bPrefix ; i++) {
+                bPrefix = c.daStack[i] == lStack.get(i);
+            }
+            if(bPrefix) {
+                cBest = c;
+            }
+        }
+        return cBest;
+    }
+
+    /**
+     * A copy of the cache and the strokes it shows
+     */
+    private static class Checkpoint {
+        private final BufferedImage biImage;
+        private final DraggedPoints[] daStack;
+
+        private Checkpoint(BufferedImage biImage, DraggedPoints[] daStack) {
+            this.biImage = biImage;
+            this.daStack = daStack;
+        }
+    }
+}
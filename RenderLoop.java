@@ -0,0 +1,349 @@
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.SwingUtilities;
+
+/**
+ * Draws the drawing panel's frames on a thread of its own, so the event thread only captures input and copies finished frames
+ * Mouse input, settings changes and damaged areas are queued, and the render thread applies everything
+ * which arrived since the last frame before drawing the next one, so a slow frame never holds up the mouse.
+ * Drags and releases are queued as numbers in an array, with a marker in their place for each other change,
+ * and the damage as the edges of one box, so a moving mouse allocates nothing here. The queue is only locked
+ * to add an event or to swap it for the one the render thread has emptied, so the render thread never holds it for long.
+ * Each frame is drawn into the back of two images, which is then swapped to the front for the panel to copy,
+ * and frames are started no more often than the frame interval, so a fast mouse can't keep the screen from updating.
+ * A change or frame which fails is reported and the loop carries on, but if several frames in a row fail
+ * the panel is handed back to the event thread, rather than leaving the screen frozen
+ */
+
+public class RenderLoop {
+    public static final long DEFAULT_FRAME_NANOS = 16_666_667L;
+    //the kinds of queued input, with CHANGE marking where the next queued change goes between them
+    static final int DRAG = 1;
+    static final int RELEASE = 2;
+    private static final int CHANGE = 0;
+    //each queued input is its kind, x and y
+    private static final int INPUT_VALUES = 3;
+    private static final int INITIAL_INPUTS = 256;
+    //the number of frames in a row which may fail before the panel goes back to painting on the event thread
+    private static final int FAILURE_LIMIT = 3;
+
+    private final DrawingPanel dp;
+    private final DoilyMetrics dmMetrics;
+    private final long lFrameNanos;
+    private final Thread tRender;
+    private volatile boolean bRunning = true;
+
+    //added to by any thread while holding the queue lock, then swapped with the emptied ones by the render thread
+    private final Object oQueueLock = new Object();
+    private int[] iaInputs = new int[INITIAL_INPUTS * INPUT_VALUES];
+    private int iInputs;
+    private ArrayDeque<Runnable> adChanges = new ArrayDeque<>();
+    //when the oldest event not yet drawn was queued, or 0 if there isn't one, for the input latency
+    private long lFirstQueued;
+    private boolean bDamaged;
+    private int iDamageLeft;
+    private int iDamageTop;
+    private int iDamageRight;
+    private int iDamageBottom;
+
+    //only touched by the render thread, or by the thread which stopped it
+    private int[] iaDraining = new int[INITIAL_INPUTS * INPUT_VALUES];
+    private ArrayDeque<Runnable> adDraining = new ArrayDeque<>();
+    private BufferedImage biBack;
+    private Rectangle rDamage;
+    private Rectangle rLastDamage;
+    private long lLastFrameStart;
+    private long lLastPresent;
+    private int iFailures;
+    private boolean bFrameFailed;
+
+    //swapped by the render thread and copied by the event thread, so only while holding the lock
+    private final Object oFrameLock = new Object();
+    private BufferedImage biFront;
+
+    /**
+     * Starts the render thread for a panel
+     * @param dp The panel to draw
+     * @param dmMetrics Where to record the frame pacing
+     * @param lFrameNanos The shortest time between the starts of two frames
+     */
+    public RenderLoop(DrawingPanel dp, DoilyMetrics dmMetrics, long lFrameNanos) {
+        this.dp = dp;
+        this.dmMetrics = dmMetrics;
+        this.lFrameNanos = lFrameNanos;
+        tRender = new Thread(this::run, "Doily renderer");
+        tRender.setDaemon(true);
+        tRender.start();
+    }
+
+    /**
+     * Queues a change for the render thread, which applies it before drawing the next frame
+     * Never blocks, so it is safe to call from the event thread however long the frame being drawn takes
+     * @param rEvent The change
+     */
+    public void post(Runnable rEvent) {
+        synchronized(oQueueLock) {
+            adChanges.add(rEvent);
+            this.queue(CHANGE, 0, 0);
+        }
+        LockSupport.unpark(tRender);
+    }
+
+    /**
+     * Queues a drag or release of the mouse, which the render thread passes to the panel's applyInput in turn with the changes
+     * @param iType DRAG or RELEASE
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    public void input(int iType, int iX, int iY) {
+        synchronized(oQueueLock) {
+            this.queue(iType, iX, iY);
+        }
+        LockSupport.unpark(tRender);
+    }
+
+    /**
+     * Queues an area of the panel to be drawn again in the next frame, adding it to any area already waiting
+     * @param iX The left of the area
+     * @param iY The top of the area
+     * @param iWidth The width of the area
+     * @param iHeight The height of the area
+     */
+    public void damage(int iX, int iY, int iWidth, int iHeight) {
+        synchronized(oQueueLock) {
+            if(!bDamaged) {
+                iDamageLeft = iX;
+                iDamageTop = iY;
+                iDamageRight = iX + iWidth;
+                iDamageBottom = iY + iHeight;
+                bDamaged = true;
+            }
+            else {
+                iDamageLeft = Math.min(iDamageLeft, iX);
+                iDamageTop = Math.min(iDamageTop, iY);
+                iDamageRight = Math.max(iDamageRight, iX + iWidth);
+                iDamageBottom = Math.max(iDamageBottom, iY + iHeight);
+            }
+        }
+        LockSupport.unpark(tRender);
+    }
+
+    //adds an input to the queue, growing it if the render thread has fallen far behind, while holding the queue lock
+    private void queue(int iType, int iX, int iY) {
+        if(iInputs == 0) {
+            lFirstQueued = System.nanoTime();
+        }
+        if((iInputs + 1) * INPUT_VALUES > iaInputs.length) {
+            iaInputs = Arrays.copyOf(iaInputs, iaInputs.length * 2);
+        }
+        int i = iInputs * INPUT_VALUES;
+        iaInputs[i] = iType;
+        iaInputs[i + 1] = iX;
+        iaInputs[i + 2] = iY;
+        iInputs++;
+    }
+
+    /**
+     * Copies the part of the latest frame being repainted to the screen
+     * @param g The panel's graphics, clipped to the part being repainted
+     * @return false if there hasn't been a frame yet
+     */
+    public boolean blit(Graphics g) {
+        synchronized(oFrameLock) {
+            if(biFront == null) {
+                return false;
+            }
+            Rectangle rClip = g.getClipBounds();
+            if(rClip == null) {
+                rClip = new Rectangle(0, 0, biFront.getWidth(), biFront.getHeight());
+            }
+            g.drawImage(biFront
+                    , rClip.x, rClip.y, rClip.x + rClip.width, rClip.y + rClip.height
+                    , rClip.x, rClip.y, rClip.x + rClip.width, rClip.y + rClip.height
+                    , null);
+            return true;
+        }
+    }
+
+    /**
+     * Stops the render thread once it finishes its frame, then applies whatever is still queued on the calling thread
+     */
+    public void stop() {
+        bRunning = false;
+        LockSupport.unpark(tRender);
+        try {
+            tRender.join();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.drain();
+    }
+
+    //sleeps until something is queued, then waits out the rest of the frame interval so everything arriving meanwhile joins the frame
+    private void run() {
+        while(bRunning) {
+            if(!this.isPending()) {
+                LockSupport.park(this);
+                continue;
+            }
+            long lWait = lLastFrameStart + lFrameNanos - System.nanoTime();
+            if(lWait > 0) {
+                LockSupport.parkNanos(this, lWait);
+                continue;
+            }
+            bFrameFailed = false;
+            try {
+                this.renderFrame();
+            }
+            catch(RuntimeException e) {
+                this.report(e);
+            }
+            iFailures = bFrameFailed ? iFailures + 1 : 0;
+            if(iFailures >= FAILURE_LIMIT) {
+                //the loop ends here, and the panel is told to stop it from the event thread, as it waits for this thread
+                bRunning = false;
+                SwingUtilities.invokeLater(dp::stopRenderThread);
+            }
+        }
+    }
+
+    private boolean isPending() {
+        synchronized(oQueueLock) {
+            return iInputs > 0 || bDamaged;
+        }
+    }
+
+    /**
+     * Swaps the queue for the emptied one and applies everything in it, in the order it was queued
+     * @return When the first of them was queued, or 0 if there were none
+     */
+    private long drain() {
+        int iDraining;
+        long lBatchQueued;
+        synchronized(oQueueLock) {
+            int[] iaQueued = iaInputs;
+            iaInputs = iaDraining;
+            iaDraining = iaQueued;
+            ArrayDeque<Runnable> adQueued = adChanges;
+            adChanges = adDraining;
+            adDraining = adQueued;
+            iDraining = iInputs;
+            iInputs = 0;
+            //taken with the events it belongs to, so an event queued while these are applied counts towards the next frame
+            lBatchQueued = lFirstQueued;
+            lFirstQueued = 0;
+        }
+
+        for(int i = 0 ; i < iDraining ; i++) {
+            int iType = iaDraining[i * INPUT_VALUES];
+            if(iType == CHANGE) {
+                this.apply(adDraining.poll());
+            }
+            else {
+                this.apply(iType, iaDraining[i * INPUT_VALUES + 1], iaDraining[i * INPUT_VALUES + 2]);
+            }
+        }
+        return lBatchQueued;
+    }
+
+    //applies a queued change, reporting it rather than letting it end the thread if it fails
+    private void apply(Runnable rEvent) {
+        try {
+            rEvent.run();
+        }
+        catch(RuntimeException e) {
+            this.report(e);
+        }
+    }
+
+    //applies a queued input in the same way
+    private void apply(int iType, int iX, int iY) {
+        try {
+            dp.applyInput(iType, iX, iY);
+        }
+        catch(RuntimeException e) {
+            this.report(e);
+        }
+    }
+
+    //hands a failure to the running thread's handler, which prints it unless the application has set its own
+    private void report(RuntimeException e) {
+        bFrameFailed = true;
+        Thread tCurrent = Thread.currentThread();
+        tCurrent.getUncaughtExceptionHandler().uncaughtException(tCurrent, e);
+    }
+
+    /**
+     * Applies every queued change, draws what they damaged into the back image and swaps it to the front
+     */
+    private void renderFrame() {
+        long lStart = System.nanoTime();
+        lLastFrameStart = lStart;
+        long lFirstQueued = this.drain();
+        //what the input damaged is taken after it has all been applied
+        synchronized(oQueueLock) {
+            if(bDamaged) {
+                Rectangle rArea = new Rectangle(iDamageLeft, iDamageTop, iDamageRight - iDamageLeft, iDamageBottom - iDamageTop);
+                if(rDamage == null) {
+                    rDamage = rArea;
+                }
+                else {
+                    rDamage.add(rArea);
+                }
+                bDamaged = false;
+            }
+        }
+
+        //a new size needs new images, drawn from scratch
+        int iWidth = Math.max(1, dp.getWidth());
+        int iHeight = Math.max(1, dp.getHeight());
+        if(biBack == null || biBack.getWidth() != iWidth || biBack.getHeight() != iHeight) {
+            biBack = new BufferedImage(iWidth, iHeight, BufferedImage.TYPE_INT_RGB);
+            rDamage = new Rectangle(0, 0, iWidth, iHeight);
+            rLastDamage = null;
+        }
+        if(rDamage == null) {
+            return;
+        }
+
+        //the back image was last drawn two frames ago, so it is also missing what changed in the last frame
+        Rectangle rRedraw = new Rectangle(rDamage);
+        if(rLastDamage != null) {
+            rRedraw.add(rLastDamage);
+        }
+        rRedraw = rRedraw.intersection(new Rectangle(0, 0, iWidth, iHeight));
+        if(!rRedraw.isEmpty()) {
+            Graphics2D g2d = biBack.createGraphics();
+            try {
+                g2d.setClip(rRedraw);
+                g2d.setColor(dp.getBackground());
+                g2d.fillRect(rRedraw.x, rRedraw.y, rRedraw.width, rRedraw.height);
+                dp.renderFrame(g2d);
+            }
+            finally {
+                g2d.dispose();
+            }
+        }
+
+        synchronized(oFrameLock) {
+            BufferedImage biShown = biFront;
+            biFront = biBack;
+            biBack = biShown;
+        }
+        rLastDamage = rDamage;
+        rDamage = null;
+        dp.present(rRedraw);
+
+        //the gap between frames only shows the pacing if input was already waiting when the last frame went up
+        long lPresent = System.nanoTime();
+        long lInterval = lFirstQueued != 0 && lFirstQueued <= lLastPresent ? lPresent - lLastPresent : -1;
+        dmMetrics.recordFrame(lPresent - lStart, lInterval, lFirstQueued == 0 ? -1 : lPresent - lFirstQueued);
+        lLastPresent = lPresent;
+    }
+}
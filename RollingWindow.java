@@ -0,0 +1,66 @@
+import java.util.Arrays;
+
+/**
+ * The most recent samples of a measurement, kept in a ring so old ones drop out as new ones arrive
+ * Percentiles are worked out when asked for, as they are read far less often than samples are added
+ * Not thread safe, so it is only used while holding the DoilyMetrics lock
+ */
+
+public class RollingWindow {
+    private final long[] laSamples;
+    private int iNext;
+    private int iCount;
+    private long lTotal;
+
+    /**
+     * Creates an empty window
+     * @param iSize The number of samples to keep
+     */
+    public RollingWindow(int iSize) {
+        this.laSamples = new long[iSize];
+    }
+
+    /**
+     * Adds a sample, replacing the oldest one if the window is full
+     * @param lSample The sample
+     */
+    public void add(long lSample) {
+        laSamples[iNext] = lSample;
+        iNext = (iNext + 1) % laSamples.length;
+        iCount = Math.min(iCount + 1, laSamples.length);
+        lTotal++;
+    }
+
+    /**
+     * Works out a percentile of the samples in the window, by nearest rank
+     * @param dPercentile The percentile, from 0 to 100
+     * @return The sample at that percentile, or 0 if there are none
+     */
+    public long getPercentile(double dPercentile) {
+        if(iCount == 0) {
+            return 0;
+        }
+        long[] laSorted = Arrays.copyOf(laSamples, iCount);
+        Arrays.sort(laSorted);
+        int iRank = (int) Math.ceil(dPercentile / 100 * iCount);
+        return laSorted[Math.max(0, Math.min(iCount - 1, iRank - 1))];
+    }
+
+    /**
+     * Empties the window
+     */
+    public void clear() {
+        iNext = 0;
+        iCount = 0;
+        lTotal = 0;
+    }
+
+    //getters
+    public int getCount() {
+        return iCount;
+    }
+
+    public long getTotal() {
+        return lTotal;
+    }
+}
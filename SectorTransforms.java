@@ -0,0 +1,220 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Immutable table of the rotations and reflections which make up each sector of the doily
+ * Built once for a number of sectors and a canvas size, so drawing and erasing don't need any trig
+ */
+
+public final class SectorTransforms {
+    private final int iSectors;
+    private final int iWidth;
+    private final int iHeight;
+    private final AffineTransform[] atxRotations;
+    private final AffineTransform[] atxReflections;
+
+    /**
+     * Builds the rotation for each sector about the centre, and the same rotation followed by a reflection
+     * in the vertical line through the centre
+     * @param iSectors The number of sectors
+     * @param iWidth The width of the canvas
+     * @param iHeight The height of the canvas
+     */
+    public SectorTransforms(int iSectors, int iWidth, int iHeight) {
+        this.iSectors = iSectors;
+        this.iWidth = iWidth;
+        this.iHeight = iHeight;
+        this.atxRotations = new AffineTransform[iSectors];
+        this.atxReflections = new AffineTransform[iSectors];
+
+        double dCentreX = iWidth / 2.0;
+        double dCentreY = iHeight / 2.0;
+        for(int i = 0 ; i < iSectors ; i++) {
+            double dAngle = Math.toRadians((360.0 / iSectors) * i);
+            atxRotations[i] = AffineTransform.getRotateInstance(dAngle, dCentreX, dCentreY);
+
+            atxReflections[i] = AffineTransform.getTranslateInstance(dCentreX, 0);
+            atxReflections[i].scale(-1, 1);
+            atxReflections[i].translate(-dCentreX, 0);
+            atxReflections[i].rotate(dAngle, dCentreX, dCentreY);
+        }
+    }
+
+    /**
+     * Checks whether this table was built for the given settings
+     * @return true if it can be reused
+     */
+    public boolean matches(int iSectors, int iWidth, int iHeight) {
+        return this.iSectors == iSectors && this.iWidth == iWidth && this.iHeight == iHeight;
+    }
+
+    /**
+     * Sets the graphics to draw into a sector
+     * @param g2d The graphics to change
+     * @param atxBase The transform the graphics had before drawing began
+     * @param i The sector
+     */
+    public void setRotation(Graphics2D g2d, AffineTransform atxBase, int i) {
+        g2d.setTransform(atxBase);
+        g2d.transform(atxRotations[i]);
+    }
+
+    /**
+     * Sets the graphics to draw into the reflected copy of a sector
+     * @param g2d The graphics to change
+     * @param atxBase The transform the graphics had before drawing began
+     * @param i The sector
+     */
+    public void setReflection(Graphics2D g2d, AffineTransform atxBase, int i) {
+        g2d.setTransform(atxBase);
+        g2d.transform(atxReflections[i]);
+    }
+
+    /**
+     * Rotates a list of x, y pairs into a sector
+     * @param i The sector
+     * @param daSource The points to rotate
+     * @param daDest Where to put the rotated points
+     * @param iDestOffset The index in daDest to start at
+     * @param iPoints The number of points
+     */
+    public void rotatePoints(int i, double[] daSource, double[] daDest, int iDestOffset, int iPoints) {
+        atxRotations[i].transform(daSource, 0, daDest, iDestOffset, iPoints);
+    }
+
+    /**
+     * Reflects a list of x, y pairs in the vertical line through the centre
+     * @param daSource The points to reflect
+     * @param daDest Where to put the reflected points, which may be daSource
+     * @param iPoints The number of points
+     */
+    public void mirrorPoints(double[] daSource, double[] daDest, int iPoints) {
+        for(int i = 0 ; i < iPoints ; i++) {
+            daDest[i * 2] = iWidth - daSource[i * 2];
+            daDest[i * 2 + 1] = daSource[i * 2 + 1];
+        }
+    }
+
+    /**
+     * Works out the area covered by a rectangle once it has been copied into every sector
+     * @param dMinX The left of the rectangle
+     * @param dMinY The top of the rectangle
+     * @param dMaxX The right of the rectangle
+     * @param dMaxY The bottom of the rectangle
+     * @param bReflected Whether the reflected copies are drawn as well
+     * @return The smallest whole-pixel rectangle containing every copy
+     */
+    public Rectangle getSectorBounds(double dMinX, double dMinY, double dMaxX, double dMaxY, boolean bReflected) {
+        double[] daCorners = {dMinX, dMinY, dMaxX, dMinY, dMaxX, dMaxY, dMinX, dMaxY};
+        double[] daMoved = new double[8];
+        double dLeft = Double.POSITIVE_INFINITY;
+        double dTop = Double.POSITIVE_INFINITY;
+        double dRight = Double.NEGATIVE_INFINITY;
+        double dBottom = Double.NEGATIVE_INFINITY;
+
+        for(int i = 0 ; i < iSectors * (bReflected ? 2 : 1) ; i++) {
+            AffineTransform atx = i < iSectors ? atxRotations[i] : atxReflections[i - iSectors];
+            atx.transform(daCorners, 0, daMoved, 0, 4);
+            for(int j = 0 ; j < 8 ; j += 2) {
+                dLeft = Math.min(dLeft, daMoved[j]);
+                dRight = Math.max(dRight, daMoved[j]);
+                dTop = Math.min(dTop, daMoved[j + 1]);
+                dBottom = Math.max(dBottom, daMoved[j + 1]);
+            }
+        }
+
+        int iLeft = (int) Math.floor(dLeft);
+        int iTop = (int) Math.floor(dTop);
+        return new Rectangle(iLeft, iTop, (int) Math.ceil(dRight) - iLeft, (int) Math.ceil(dBottom) - iTop);
+    }
+
+    /**
+     * Checks whether any copy of a rectangle could reach an area, from the ring around the centre each of them covers
+     * Rotating and reflecting about the centre keeps every point the same distance from it,
+     * so if the rings don't meet then no copy in any sector can reach the area, and there is no need to check them one by one
+     * @param dMinX The left of the rectangle
+     * @param dMinY The top of the rectangle
+     * @param dMaxX The right of the rectangle
+     * @param dMaxY The bottom of the rectangle
+     * @param rArea The area
+     * @return false if no copy can reach the area
+     */
+    public boolean ringReaches(double dMinX, double dMinY, double dMaxX, double dMaxY, Rectangle2D rArea) {
+        double dCentreX = iWidth / 2.0;
+        double dCentreY = iHeight / 2.0;
+        return nearest(dMinX, dMinY, dMaxX, dMaxY, dCentreX, dCentreY)
+                        <= furthest(rArea.getMinX(), rArea.getMinY(), rArea.getMaxX(), rArea.getMaxY(), dCentreX, dCentreY)
+                && furthest(dMinX, dMinY, dMaxX, dMaxY, dCentreX, dCentreY)
+                        >= nearest(rArea.getMinX(), rArea.getMinY(), rArea.getMaxX(), rArea.getMaxY(), dCentreX, dCentreY);
+    }
+
+    /**
+     * Checks whether the copy of a rectangle in a sector reaches an area, without allocating, as it is called for every copy drawn
+     * The copy is turned, so the box around it is used, which is a little larger
+     * @param i The sector
+     * @param bReflection Whether to check the reflected copy rather than the rotated one
+     * @param dMinX The left of the rectangle
+     * @param dMinY The top of the rectangle
+     * @param dMaxX The right of the rectangle
+     * @param dMaxY The bottom of the rectangle
+     * @param rArea The area
+     * @return false if the copy misses the area
+     */
+    public boolean copyReaches(int i, boolean bReflection, double dMinX, double dMinY, double dMaxX, double dMaxY, Rectangle2D rArea) {
+        AffineTransform atx = bReflection ? atxReflections[i] : atxRotations[i];
+        double dHalfWidth = (dMaxX - dMinX) / 2;
+        double dHalfHeight = (dMaxY - dMinY) / 2;
+        double dX = dMinX + dHalfWidth;
+        double dY = dMinY + dHalfHeight;
+        //the middle of the copy, and half the size of the box around it
+        double dCopyX = atx.getScaleX() * dX + atx.getShearX() * dY + atx.getTranslateX();
+        double dCopyY = atx.getShearY() * dX + atx.getScaleY() * dY + atx.getTranslateY();
+        double dCopyHalfWidth = Math.abs(atx.getScaleX()) * dHalfWidth + Math.abs(atx.getShearX()) * dHalfHeight;
+        double dCopyHalfHeight = Math.abs(atx.getShearY()) * dHalfWidth + Math.abs(atx.getScaleY()) * dHalfHeight;
+        return dCopyX + dCopyHalfWidth >= rArea.getMinX() && dCopyX - dCopyHalfWidth <= rArea.getMaxX()
+                && dCopyY + dCopyHalfHeight >= rArea.getMinY() && dCopyY - dCopyHalfHeight <= rArea.getMaxY();
+    }
+
+    //the nearest any point of a rectangle gets to a point, which is 0 if it is inside
+    private static double nearest(double dMinX, double dMinY, double dMaxX, double dMaxY, double dX, double dY) {
+        return Math.hypot(Math.max(0, Math.max(dMinX - dX, dX - dMaxX)), Math.max(0, Math.max(dMinY - dY, dY - dMaxY)));
+    }
+
+    //the furthest any point of a rectangle gets from a point, which is always one of its corners
+    private static double furthest(double dMinX, double dMinY, double dMaxX, double dMaxY, double dX, double dY) {
+        return Math.hypot(Math.max(Math.abs(dMinX - dX), Math.abs(dMaxX - dX)), Math.max(Math.abs(dMinY - dY), Math.abs(dMaxY - dY)));
+    }
+
+    /**
+     * Gets the rotation into a sector, such as to write it out elsewhere
+     * @param i The sector
+     * @return A copy of the transform
+     */
+    public AffineTransform getRotation(int i) {
+        return new AffineTransform(atxRotations[i]);
+    }
+
+    /**
+     * Gets the reflection into a sector, such as to write it out elsewhere
+     * @param i The sector
+     * @return A copy of the transform
+     */
+    public AffineTransform getReflection(int i) {
+        return new AffineTransform(atxReflections[i]);
+    }
+
+    //getters
+    public int getSectors() {
+        return iSectors;
+    }
+
+    public int getWidth() {
+        return iWidth;
+    }
+
+    public int getHeight() {
+        return iHeight;
+    }
+}
@@ -0,0 +1,251 @@
+import java.awt.Color;
+import java.awt.GraphicsEnvironment;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+
+/**
+ * Records what the user does to the drawing panel, so a session can be replayed later by a SessionReplayer
+ * Layout, with every number a varint unless noted:
+ *   "DREC", a one byte version, the panel's width and height, then each event as a one byte type,
+ *   the microseconds since the event before, and then its values:
+ *   mouse presses, drags and releases have x and y as the difference from the mouse event before, zigzag encoded,
+ *   settings have their value, with colours as a four byte ARGB int and true or false as 1 or 0,
+ *   undo, redo and clear have nothing, and a document has its length and then the document in the DoilyFormat,
+ *   a new layer has the length of its name and then the name in UTF-8, and showing or hiding a layer has its position and 1 or 0
+ * A document replaces every layer, while sectors, lines and reflection apply to the active layer, which is chosen by its position
+ * A recording starts with every layer and setting, so it replays the same whatever the panel was showing
+ */
+
+public class SessionRecorder implements Closeable {
+    static final int MAGIC = 0x44524543;
+    //version 2 added the layer events, and version 3 documents hold every layer rather than the active one
+    static final int VERSION = 3;
+    //older documents replaced only the active layer, which the panel no longer does
+    static final int OLDEST_VERSION = 3;
+
+    static final int PRESS = 1;
+    static final int DRAG = 2;
+    static final int RELEASE = 3;
+    static final int SECTORS = 4;
+    static final int SIZE = 5;
+    static final int COLOUR = 6;
+    static final int REFLECT = 7;
+    static final int ERASER = 8;
+    static final int LINES = 9;
+    static final int STAMP = 10;
+    static final int ADJUSTING = 11;
+    static final int UNDO = 12;
+    static final int REDO = 13;
+    static final int CLEAR = 14;
+    static final int DOCUMENT = 15;
+    static final int LAYER_ADD = 16;
+    static final int LAYER_SELECT = 17;
+    static final int LAYER_VISIBLE = 18;
+
+    private final OutputStream osOut;
+    private long lLastNanos = System.nanoTime();
+    private int iLastX;
+    private int iLastY;
+    private long lEvents;
+    private boolean bFailed;
+    private IOException ioeFailure;
+
+    /**
+     * Starts a recording, writing its header straight away
+     * @param osOut Where to write it, which is closed when the recording is
+     * @param iWidth The width of the panel
+     * @param iHeight The height of the panel
+     * @throws IOException If the header couldn't be written
+     */
+    public SessionRecorder(OutputStream osOut, int iWidth, int iHeight) throws IOException {
+        this.osOut = osOut;
+        for(int iShift = 24 ; iShift >= 0 ; iShift -= 8) {
+            osOut.write(MAGIC >>> iShift);
+        }
+        osOut.write(VERSION);
+        this.putVarint(iWidth);
+        this.putVarint(iHeight);
+    }
+
+    /**
+     * Records a mouse press, drag or release on the panel
+     * @param iType PRESS, DRAG or RELEASE
+     * @param iX The x coordinate of the mouse
+     * @param iY The y coordinate of the mouse
+     */
+    public synchronized void recordMouse(int iType, int iX, int iY) {
+        try {
+            this.startEvent(iType);
+            this.putVarint(zigzag(iX - iLastX));
+            this.putVarint(zigzag(iY - iLastY));
+            iLastX = iX;
+            iLastY = iY;
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Records a setting being changed
+     * @param iType The setting, such as SECTORS or SIZE
+     * @param iValue Its new value
+     */
+    public synchronized void recordSetting(int iType, int iValue) {
+        try {
+            this.startEvent(iType);
+            this.putVarint(iValue);
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    //a setting which is on or off, as 1 or 0
+    public void recordSetting(int iType, boolean bValue) {
+        this.recordSetting(iType, bValue ? 1 : 0);
+    }
+
+    /**
+     * Records the colour being changed
+     * @param cColor The new colour
+     */
+    public synchronized void recordColour(Color cColor) {
+        try {
+            this.startEvent(COLOUR);
+            int iColour = cColor.getRGB();
+            for(int iShift = 24 ; iShift >= 0 ; iShift -= 8) {
+                osOut.write(iColour >>> iShift);
+            }
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Records an undo, redo or clear
+     * @param iType UNDO, REDO or CLEAR
+     */
+    public synchronized void recordAction(int iType) {
+        try {
+            this.startEvent(iType);
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Records the strokes being replaced by a whole document, such as when one is opened
+     * @param ddDocument The document
+     */
+    public synchronized void recordDocument(DoilyDocument ddDocument) {
+        try {
+            ByteArrayOutputStream baosDocument = new ByteArrayOutputStream();
+            DoilyFormat.write(ddDocument, Channels.newChannel(baosDocument));
+            this.startEvent(DOCUMENT);
+            this.putVarint(baosDocument.size());
+            baosDocument.writeTo(osOut);
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Records a layer being added on top of the others
+     * @param sName The name of the layer
+     */
+    public synchronized void recordLayer(String sName) {
+        try {
+            byte[] baName = sName.getBytes(StandardCharsets.UTF_8);
+            this.startEvent(LAYER_ADD);
+            this.putVarint(baName.length);
+            osOut.write(baName);
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Records a layer being shown or hidden
+     * @param iLayer The position of the layer, bottom first
+     * @param bVisible Whether it is shown
+     */
+    public synchronized void recordLayerVisible(int iLayer, boolean bVisible) {
+        try {
+            this.startEvent(LAYER_VISIBLE);
+            this.putVarint(iLayer);
+            this.putVarint(bVisible ? 1 : 0);
+        }
+        catch(IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Finishes the recording, writing out anything still buffered
+     * @throws IOException If it couldn't be written, or if the recording had already stopped because of an error
+     */
+    public synchronized void close() throws IOException {
+        bFailed = true;
+        osOut.close();
+        if(ioeFailure != null) {
+            throw ioeFailure;
+        }
+    }
+
+    //the type and the time since the last event, which is capped rather than overflowing after half an hour
+    private void startEvent(int iType) throws IOException {
+        if(bFailed) {
+            throw new IOException("The recording has stopped");
+        }
+        long lNow = System.nanoTime();
+        osOut.write(iType);
+        this.putVarint((int) Math.min(Integer.MAX_VALUE, (lNow - lLastNanos) / 1000));
+        lLastNanos = lNow;
+        lEvents++;
+    }
+
+    //a recording which can't be written stops, rather than getting in the way of drawing, and says why once the user can see it
+    private void fail(IOException e) {
+        if(!bFailed) {
+            bFailed = true;
+            ioeFailure = e;
+            if(!GraphicsEnvironment.isHeadless()) {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, "Stopped recording the session: " + e.getMessage()
+                        , "Record Session", JOptionPane.ERROR_MESSAGE));
+            }
+        }
+    }
+
+    //unsigned LEB128, as in the DoilyFormat
+    private void putVarint(int iValue) throws IOException {
+        while((iValue & ~0x7F) != 0) {
+            osOut.write((iValue & 0x7F) | 0x80);
+            iValue >>>= 7;
+        }
+        osOut.write(iValue);
+    }
+
+    //maps small negative numbers to small positive ones, so they stay short as varints
+    private static int zigzag(int iValue) {
+        return (iValue << 1) ^ (iValue >> 31);
+    }
+
+    //getter
+    /**
+     * @return How many events have been recorded
+     */
+    public synchronized long getEvents() {
+        return lEvents;
+    }
+}
@@ -0,0 +1,253 @@
+import javax.swing.SwingUtilities;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replays a session recorded by a SessionRecorder into a drawing panel, without opening a window
+ * Usage: java SessionReplayer [-realtime] [-repeat n] session...
+ * Mouse events go through the panel's own listener and settings through the same setters the settings panel uses,
+ * and the panel is painted once for every frame of recorded time, so a session becomes a repeatable workload.
+ * Events are replayed as fast as they can be, or with -realtime at the pace they were recorded
+ */
+
+public class SessionReplayer {
+    //a paint for every sixtieth of a second of the recording, as a screen would show it
+    public static final long FRAME_MICROS = 16_667;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        //must be set before anything touches AWT
+        System.setProperty("java.awt.headless", "true");
+
+        boolean bRealTime = false;
+        int iRepeats = 1;
+        int iSessions = 0;
+        for(int i = 0 ; i < args.length ; i++) {
+            if(args[i].equals("-realtime")) {
+                bRealTime = true;
+            }
+            else if(args[i].equals("-repeat") && i + 1 < args.length) {
+                iRepeats = Integer.parseInt(args[++i]);
+            }
+            else {
+                //each repeat starts from a new panel, so the later ones show the time once the JIT has warmed up
+                for(int iRepeat = 0 ; iRepeat < iRepeats ; iRepeat++) {
+                    DrawingPanel dp = new DrawingPanel();
+                    long lStart = System.nanoTime();
+                    long lEvents;
+                    try(InputStream isIn = new FileInputStream(args[i])) {
+                        lEvents = replay(isIn, dp, bRealTime);
+                    }
+                    long lNanos = System.nanoTime() - lStart;
+                    DoilyMetrics dmMetrics = dp.getMetrics();
+                    System.out.printf("%s: %d events replayed in %.1f ms (%.0f events/s), %d paints,"
+                                    + " paint p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms, %d strokes%n"
+                            , args[i], lEvents, lNanos / 1e6, lEvents / (lNanos / 1e9), dmMetrics.getPaintCount()
+                            , dmMetrics.getPaintMillisP50(), dmMetrics.getPaintMillisP95(), dmMetrics.getPaintMillisP99()
+                            , dmMetrics.getPaintMillisMax(), dp.getStrokeCount());
+                }
+                iSessions++;
+            }
+        }
+
+        if(iSessions == 0) {
+            System.err.println("Usage: java SessionReplayer [-realtime] [-repeat n] session...");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Replays a session into a panel, which must not be shown, from the calling thread
+     * The eraser thread is waited for before every release, undo, redo and clear, so erasing ends the same way every time
+     * @param isIn The recording, which is left open
+     * @param dp The panel to replay into, which is resized to the panel recorded
+     * @param bRealTime true to wait between events as long as the user did, false to replay as fast as possible
+     * @return The number of events replayed
+     * @throws IOException If the recording can't be read or isn't a valid session
+     * @throws InterruptedException If interrupted while waiting in real time
+     */
+    public static long replay(InputStream isIn, DrawingPanel dp, boolean bRealTime) throws IOException, InterruptedException {
+        DataInputStream disIn = new DataInputStream(new BufferedInputStream(isIn));
+        if(disIn.readInt() != SessionRecorder.MAGIC) {
+            throw new IOException("Not a recorded doily session");
+        }
+        int iVersion = disIn.readUnsignedByte();
+        if(iVersion < SessionRecorder.OLDEST_VERSION || iVersion > SessionRecorder.VERSION) {
+            throw new IOException("Unsupported session version " + iVersion);
+        }
+        dp.setSize(getVarint(disIn), getVarint(disIn));
+
+        DrawingPanel.DragListener listener = dp.new DragListener();
+        BufferedImage image = new BufferedImage(Math.max(1, dp.getWidth()), Math.max(1, dp.getHeight()), BufferedImage.TYPE_INT_RGB);
+        long lStart = System.nanoTime();
+        long lClock = 0;
+        long lNextFrame = FRAME_MICROS;
+        long lEvents = 0;
+        int iX = 0;
+        int iY = 0;
+
+        int iType;
+        while((iType = disIn.read()) >= 0) {
+            lClock += getVarint(disIn);
+            if(bRealTime) {
+                long lWait = lStart + lClock * 1000 - System.nanoTime();
+                if(lWait > 0) {
+                    Thread.sleep(lWait / 1_000_000, (int) (lWait % 1_000_000));
+                }
+            }
+            //the frames which would have been shown since the last event are drawn as one, as a busy screen would
+            if(lClock >= lNextFrame) {
+                paint(dp, image);
+                lNextFrame = (lClock / FRAME_MICROS + 1) * FRAME_MICROS;
+            }
+
+            switch(iType) {
+                case SessionRecorder.PRESS:
+                case SessionRecorder.DRAG:
+                case SessionRecorder.RELEASE:
+                    iX += unzigzag(getVarint(disIn));
+                    iY += unzigzag(getVarint(disIn));
+                    if(iType == SessionRecorder.PRESS) {
+                        listener.mousePressed(mouseEvent(dp, MouseEvent.MOUSE_PRESSED, iX, iY));
+                    }
+                    else if(iType == SessionRecorder.DRAG) {
+                        listener.mouseDragged(mouseEvent(dp, MouseEvent.MOUSE_DRAGGED, iX, iY));
+                    }
+                    else {
+                        listener.mouseReleased(mouseEvent(dp, MouseEvent.MOUSE_RELEASED, iX, iY));
+                        settleEraser(dp);
+                    }
+                    break;
+                case SessionRecorder.SECTORS:
+                    dp.setSectors(getVarint(disIn));
+                    break;
+                case SessionRecorder.SIZE:
+                    dp.setStrokeSize(getVarint(disIn));
+                    break;
+                case SessionRecorder.COLOUR:
+                    dp.setColor(new Color(disIn.readInt(), true));
+                    break;
+                case SessionRecorder.REFLECT:
+                    dp.setReflecting(getVarint(disIn) != 0);
+                    break;
+                case SessionRecorder.ERASER:
+                    dp.setErasing(getVarint(disIn) != 0);
+                    break;
+                case SessionRecorder.LINES:
+                    dp.setDrawingLines(getVarint(disIn) != 0);
+                    break;
+                case SessionRecorder.STAMP:
+                    dp.setStampingSectors(getVarint(disIn) != 0);
+                    break;
+                case SessionRecorder.ADJUSTING:
+                    dp.setAdjusting(getVarint(disIn) != 0);
+                    break;
+                case SessionRecorder.UNDO:
+                    settleEraser(dp);
+                    dp.undo();
+                    break;
+                case SessionRecorder.REDO:
+                    settleEraser(dp);
+                    dp.redo();
+                    break;
+                case SessionRecorder.CLEAR:
+                    settleEraser(dp);
+                    dp.clearStrokes();
+                    break;
+                case SessionRecorder.DOCUMENT:
+                    settleEraser(dp);
+                    byte[] baDocument = getBytes(disIn);
+                    dp.setDocument(DoilyFormat.read(Channels.newChannel(new ByteArrayInputStream(baDocument))));
+                    break;
+                case SessionRecorder.LAYER_ADD:
+                    byte[] baName = getBytes(disIn);
+                    dp.addLayer(new String(baName, StandardCharsets.UTF_8));
+                    break;
+                case SessionRecorder.LAYER_SELECT:
+                    dp.setActiveLayer(getVarint(disIn));
+                    break;
+                case SessionRecorder.LAYER_VISIBLE:
+                    int iLayer = getVarint(disIn);
+                    dp.setLayerVisible(iLayer, getVarint(disIn) != 0);
+                    break;
+                default:
+                    throw new IOException("Unknown event " + iType + " in session");
+            }
+            lEvents++;
+        }
+
+        settleEraser(dp);
+        paint(dp, image);
+        return lEvents;
+    }
+
+    //waits for every queued erase, and for the eraser stroke to be dropped on the event thread once they are done
+    private static void settleEraser(DrawingPanel dp) {
+        dp.waitForEraser();
+        if(!SwingUtilities.isEventDispatchThread()) {
+            try {
+                SwingUtilities.invokeAndWait(() -> { });
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            catch(InvocationTargetException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void paint(DrawingPanel dp, BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        dp.paint(g2d);
+        g2d.dispose();
+    }
+
+    private static MouseEvent mouseEvent(DrawingPanel dp, int iId, int iX, int iY) {
+        return new MouseEvent(dp, iId, System.currentTimeMillis(), 0, iX, iY, 1, false, MouseEvent.BUTTON1);
+    }
+
+    private static int getVarint(DataInputStream disIn) throws IOException {
+        int iValue = 0;
+        for(int iShift = 0 ; iShift < 35 ; iShift += 7) {
+            int b = disIn.readUnsignedByte();
+            iValue |= (b & 0x7F) << iShift;
+            if(b < 0x80) {
+                return iValue;
+            }
+        }
+        throw new IOException("Malformed number in session");
+    }
+
+    /**
+     * Reads a length and then that many bytes, such as a document or a layer's name
+     * The bytes are read as they arrive rather than allocated up front, so a corrupt length can't take up more memory than the recording
+     * @return The bytes
+     * @throws IOException If the length is negative or the recording ends first
+     */
+    private static byte[] getBytes(DataInputStream disIn) throws IOException {
+        int iLength = getVarint(disIn);
+        if(iLength < 0) {
+            throw new IOException("Negative length in session");
+        }
+        byte[] baBytes = disIn.readNBytes(iLength);
+        if(baBytes.length < iLength) {
+            throw new IOException("Session is truncated");
+        }
+        return baBytes;
+    }
+
+    private static int unzigzag(int iValue) {
+        return (iValue >>> 1) ^ -(iValue & 1);
+    }
+}
@@ -1,10 +1,14 @@
 import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ItemEvent;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Settings panel to change drawing options for the drawing panel, and to access the gallery panel.
@@ -24,7 +28,7 @@ public class SettingsPanel extends JPanel {
         this.setGalleryPanel(gp);
 
         //set the layout of the settings panel
-        this.setLayout(new GridLayout(15,1));
+        this.setLayout(new GridLayout(17,1));
 
         //button to pick the colour
         JButton jColorButton = new JButton("Colour Picker");
@@ -57,22 +61,51 @@ public class SettingsPanel extends JPanel {
         jDrawLines.setSelected(true);
         JCheckBox jReflectDragged = new JCheckBox("Reflect Dragged Line");
         JCheckBox jEraser = new JCheckBox("Eraser");
+        JCheckBox jStampSectors = new JCheckBox("Fast Redraw (Stamp One Sector)");
+
+        //the layer being drawn on, a button to add another on top and whether the chosen layer is shown
+        JComboBox<String> jLayerBox = new JComboBox<>(new String[] {dp.getActiveLayer().getName()});
+        JButton jAddLayerButton = new JButton("Add Layer");
+        JCheckBox jLayerVisible = new JCheckBox("Visible");
+        jLayerVisible.setSelected(true);
 
         //button to access gallery
         JButton jGalleryButton = new JButton("Gallery");
 
+        //buttons to save the doily to a file and open it again
+        JButton jSaveButton = new JButton("Save Doily");
+        JButton jOpenButton = new JButton("Open Doily");
+        JFileChooser jFileChooser = new JFileChooser();
+        jFileChooser.setFileFilter(new FileNameExtensionFilter("Doily documents", "doily"));
+
+        //button to export the doily as a large image, such as for printing, or as an SVG
+        JButton jExportButton = new JButton("Export Image");
+        JFileChooser jExportChooser = new JFileChooser();
+        FileNameExtensionFilter fnefPng = new FileNameExtensionFilter("PNG images", "png");
+        FileNameExtensionFilter fnefSvg = new FileNameExtensionFilter("SVG images", "svg");
+        jExportChooser.addChoosableFileFilter(fnefPng);
+        jExportChooser.addChoosableFileFilter(fnefSvg);
+        jExportChooser.setFileFilter(fnefPng);
+
         //set a preferred size, and set a border stating that it is the settings
         this.setPreferredSize(new Dimension(400, 750));
         this.setBorder(BorderFactory.createTitledBorder("Settings"));
 
-        //set the color to the selected colour from a colour panel
+        //set the color to the selected colour from a colour panel, keeping the old one if the panel was cancelled
         jColorButton.addActionListener((ActionEvent e) -> {
-            SettingsPanel.this.getDrawingPanel().setColor(JColorChooser.showDialog(null, "Choose a Color", Color.RED));
+            Color cChosen = JColorChooser.showDialog(null, "Choose a Color", Color.RED);
+            if(cChosen != null) {
+                SettingsPanel.this.getDrawingPanel().setColor(cChosen);
+            }
         });
 
-        //change the number of sectors
+        //change the number of sectors, drawing rough previews while the slider is being dragged
         jSectorsSlide.addChangeListener((ChangeEvent e) -> {
-            SettingsPanel.this.getDrawingPanel().setSectors(jSectorsSlide.getValue());
+            SettingsPanel.this.getDrawingPanel().setAdjusting(jSectorsSlide.getValueIsAdjusting());
+            //moving the slider to match another layer leaves that layer's cache alone
+            if(jSectorsSlide.getValue() != SettingsPanel.this.getDrawingPanel().getSectors()) {
+                SettingsPanel.this.getDrawingPanel().setSectors(jSectorsSlide.getValue());
+            }
             SettingsPanel.this.getDrawingPanel().repaint();
         });
 
@@ -83,29 +116,25 @@ public class SettingsPanel extends JPanel {
 
         //clear the current stack
         jClearButton.addActionListener((ActionEvent e) -> {
-            SettingsPanel.this.getDrawingPanel().getCurrentStack().clear();
+            SettingsPanel.this.getDrawingPanel().clearStrokes();
             SettingsPanel.this.getDrawingPanel().repaint();
         });
 
-        //add an element from the current stack to the redo stack
+        //undo the last draw, erase or clear, if there is one
         jUndoButton.addActionListener((ActionEvent e) -> {
-            SettingsPanel.this.getDrawingPanel().getRedoStack().push(SettingsPanel.this.getDrawingPanel().getCurrentStack().pop());
-            SettingsPanel.this.getDrawingPanel().repaint();
+            SettingsPanel.this.getDrawingPanel().undo();
         });
 
-        //add an element from the redo stack to the undo stack
+        //redo the last change undone, if there is one
         jRedoButton.addActionListener((ActionEvent e) -> {
-            SettingsPanel.this.getDrawingPanel().getCurrentStack().push(SettingsPanel.this.getDrawingPanel().getRedoStack().pop());
-            SettingsPanel.this.getDrawingPanel().repaint();
+            SettingsPanel.this.getDrawingPanel().redo();
         });
 
         //if selected, draw lines. repaint
         jDrawLines.addItemListener((ItemEvent e) -> {
-            if(e.getStateChange() == ItemEvent.SELECTED) {
-                SettingsPanel.this.getDrawingPanel().setDrawingLines(true);
-            }
-            else {
-                SettingsPanel.this.getDrawingPanel().setDrawingLines(false);
+            boolean bLines = e.getStateChange() == ItemEvent.SELECTED;
+            if(bLines != SettingsPanel.this.getDrawingPanel().isDrawingLines()) {
+                SettingsPanel.this.getDrawingPanel().setDrawingLines(bLines);
             }
 
             SettingsPanel.this.getDrawingPanel().repaint();
@@ -131,6 +160,42 @@ public class SettingsPanel extends JPanel {
             }
         });
 
+        //if selected, full redraws draw one sector and copy it round, which is quicker but slightly softer. repaint
+        jStampSectors.addItemListener((ItemEvent e) -> {
+            SettingsPanel.this.getDrawingPanel().setStampingSectors(e.getStateChange() == ItemEvent.SELECTED);
+            SettingsPanel.this.getDrawingPanel().repaint();
+        });
+
+        //draw on another layer, moving the controls to match its settings
+        jLayerBox.addActionListener((ActionEvent e) -> {
+            int iLayer = jLayerBox.getSelectedIndex();
+            DrawingPanel dpPanel = SettingsPanel.this.getDrawingPanel();
+            if(iLayer < 0 || iLayer == dpPanel.getActiveLayerIndex()) {
+                return;
+            }
+            dpPanel.setActiveLayer(iLayer);
+            jSectorsSlide.setValue(dpPanel.getSectors());
+            jDrawLines.setSelected(dpPanel.isDrawingLines());
+            jReflectDragged.setSelected(dpPanel.getActiveLayer().isReflecting());
+            jLayerVisible.setSelected(dpPanel.getActiveLayer().isVisible());
+        });
+
+        //add a layer on top, which becomes the one drawn on
+        jAddLayerButton.addActionListener((ActionEvent e) -> {
+            String sName = "Layer " + (jLayerBox.getItemCount() + 1);
+            SettingsPanel.this.getDrawingPanel().addLayer(sName);
+            jLayerBox.addItem(sName);
+            jLayerBox.setSelectedIndex(jLayerBox.getItemCount() - 1);
+            jDrawLines.setSelected(false);
+            jLayerVisible.setSelected(true);
+        });
+
+        //show or hide the chosen layer, which is only composited so nothing is redrawn
+        jLayerVisible.addItemListener((ItemEvent e) -> {
+            SettingsPanel.this.getDrawingPanel().setLayerVisible(SettingsPanel.this.getDrawingPanel().getActiveLayerIndex()
+                    , e.getStateChange() == ItemEvent.SELECTED);
+        });
+
         //if selected, create a new jframe and show the gallery pane
         jGalleryButton.addActionListener((ActionEvent e) -> {
             JFrame jGalleryFrame = new JFrame();
@@ -142,6 +207,118 @@ public class SettingsPanel extends JPanel {
             jGalleryFrame.setVisible(true);
         });
 
+        //save the current strokes and settings, adding the extension if it was left off
+        jSaveButton.addActionListener((ActionEvent e) -> {
+            if(jFileChooser.showSaveDialog(SettingsPanel.this) == JFileChooser.APPROVE_OPTION) {
+                File fFile = jFileChooser.getSelectedFile();
+                if(!fFile.getName().endsWith(".doily")) {
+                    fFile = new File(fFile.getParentFile(), fFile.getName() + ".doily");
+                }
+                try {
+                    SettingsPanel.this.getDrawingPanel().getDocument().write(fFile);
+                }
+                catch(IOException ex) {
+                    JOptionPane.showMessageDialog(SettingsPanel.this, "Could not save the doily: " + ex.getMessage(), "Save Doily", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        //open a saved doily, moving the controls to match its settings
+        jOpenButton.addActionListener((ActionEvent e) -> {
+            if(jFileChooser.showOpenDialog(SettingsPanel.this) == JFileChooser.APPROVE_OPTION) {
+                try {
+                    DoilyDocument ddDocument = DoilyDocument.read(jFileChooser.getSelectedFile());
+                    DrawingPanel dpPanel = SettingsPanel.this.getDrawingPanel();
+                    dpPanel.setDocument(ddDocument);
+                    //the first layer added is selected, which is the active one
+                    jLayerBox.removeAllItems();
+                    for(DoilyLayer dlLayer : dpPanel.getLayers()) {
+                        jLayerBox.addItem(dlLayer.getName());
+                    }
+                    jSectorsSlide.setValue(dpPanel.getSectors());
+                    jDrawLines.setSelected(dpPanel.isDrawingLines());
+                    jReflectDragged.setSelected(dpPanel.getActiveLayer().isReflecting());
+                    jLayerVisible.setSelected(dpPanel.getActiveLayer().isVisible());
+                }
+                catch(IOException ex) {
+                    JOptionPane.showMessageDialog(SettingsPanel.this, "Could not open the doily: " + ex.getMessage(), "Open Doily", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        });
+
+        //export the strokes as an SVG, or as a PNG at the width asked for
+        //either is streamed to the file in the background, as it can be huge
+        jExportButton.addActionListener((ActionEvent e) -> {
+            if(jExportChooser.showSaveDialog(SettingsPanel.this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File fChosen = jExportChooser.getSelectedFile();
+            boolean bSvg = fChosen.getName().endsWith(".svg")
+                    || (jExportChooser.getFileFilter() == fnefSvg && !fChosen.getName().endsWith(".png"));
+            String sExtension = bSvg ? ".svg" : ".png";
+            File fFile = fChosen.getName().endsWith(sExtension) ? fChosen : new File(fChosen.getParentFile(), fChosen.getName() + sExtension);
+
+            int iWidth = 0;
+            if(!bSvg) {
+                String sWidth = JOptionPane.showInputDialog(SettingsPanel.this, "Width of the image in pixels", "16000");
+                if(sWidth == null) {
+                    return;
+                }
+                try {
+                    iWidth = Integer.parseInt(sWidth.trim());
+                }
+                catch(NumberFormatException ex) {
+                    iWidth = 0;
+                }
+                if(iWidth <= 0) {
+                    JOptionPane.showMessageDialog(SettingsPanel.this, "The width must be a whole number of pixels", "Export Image", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+            }
+
+            DoilyDocument ddDocument = SettingsPanel.this.getDrawingPanel().getDocument();
+            double dScale = (double) iWidth / Math.max(1, ddDocument.getWidth());
+            jExportButton.setEnabled(false);
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() throws IOException {
+                    if(bSvg) {
+                        SvgExporter.exportSvg(ddDocument, fFile);
+                    }
+                    else {
+                        DoilyExporter.exportPng(ddDocument, dScale, fFile);
+                    }
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    jExportButton.setEnabled(true);
+                    try {
+                        this.get();
+                    }
+                    catch(InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    catch(ExecutionException ex) {
+                        JOptionPane.showMessageDialog(SettingsPanel.this, "Could not export the image: " + ex.getCause().getMessage()
+                                , "Export Image", JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+        });
+
+        //put the save, open and export buttons side by side
+        JPanel jLayerPanel = new JPanel(new GridLayout(1, 3));
+        jLayerPanel.add(jLayerBox);
+        jLayerPanel.add(jAddLayerButton);
+        jLayerPanel.add(jLayerVisible);
+
+        JPanel jFilePanel = new JPanel(new GridLayout(1, 3));
+        jFilePanel.add(jSaveButton);
+        jFilePanel.add(jOpenButton);
+        jFilePanel.add(jExportButton);
+
         //add all the components to our settings panel
         this.add(jColorButton, Component.CENTER_ALIGNMENT);
         this.add(Box.createRigidArea(new Dimension(0, 15)));
@@ -156,7 +333,10 @@ public class SettingsPanel extends JPanel {
         this.add(jDrawLines);
         this.add(jReflectDragged);
         this.add(jEraser);
+        this.add(jStampSectors);
+        this.add(jLayerPanel);
         this.add(jGalleryButton);
+        this.add(jFilePanel);
     }
 
     //getters
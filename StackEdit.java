@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One reversible change to the stack of strokes, made up of splices which each swap a run of strokes for others
+ * Drawing, erasing and clearing are all splices, so they can all be undone and redone the same way
+ * Immutable, and holds only references to the strokes, which are never changed once committed
+ */
+
+public final class StackEdit {
+    private static final DraggedPoints[] NONE = new DraggedPoints[0];
+
+    //the splices, in order of position in the stack before the edit
+    private final int[] iaPositions;
+    private final DraggedPoints[][] daRemoved;
+    private final DraggedPoints[][] daInserted;
+
+    /**
+     * Creates an edit from its splices
+     * @param iaPositions Where each splice starts in the stack before the edit, in increasing order
+     * @param daRemoved The strokes each splice takes out, which must be the ones at its position
+     * @param daInserted The strokes each splice puts in their place
+     */
+    public StackEdit(int[] iaPositions, DraggedPoints[][] daRemoved, DraggedPoints[][] daInserted) {
+        this.iaPositions = iaPositions;
+        this.daRemoved = daRemoved;
+        this.daInserted = daInserted;
+    }
+
+    /**
+     * Creates the edit for drawing a stroke on top of the stack
+     * @param d The stroke drawn
+     * @param iStackSize The size of the stack before it was drawn
+     * @return The edit
+     */
+    public static StackEdit draw(DraggedPoints d, int iStackSize) {
+        return new StackEdit(new int[] {iStackSize}, new DraggedPoints[][] {NONE}, new DraggedPoints[][] {{d}});
+    }
+
+    /**
+     * Creates the edit for clearing the stack
+     * @param lStack The stack before it was cleared
+     * @return The edit
+     */
+    public static StackEdit clear(List<DraggedPoints> lStack) {
+        return new StackEdit(new int[] {0}, new DraggedPoints[][] {lStack.toArray(NONE)}, new DraggedPoints[][] {NONE});
+    }
+
+    /**
+     * Makes the stack after this edit from the stack before it
+     * @param lBefore The stack before the edit
+     * @return The stack after the edit
+     */
+    public List<DraggedPoints> apply(List<DraggedPoints> lBefore) {
+        ArrayList<DraggedPoints> alAfter = new ArrayList<>(lBefore.size() + this.getSizeChange());
+        int iNext = 0;
+        for(int i = 0 ; i < iaPositions.length ; i++) {
+            alAfter.addAll(lBefore.subList(iNext, iaPositions[i]));
+            for(DraggedPoints d : daInserted[i]) {
+                alAfter.add(d);
+            }
+            iNext = iaPositions[i] + daRemoved[i].length;
+        }
+        alAfter.addAll(lBefore.subList(iNext, lBefore.size()));
+        return alAfter;
+    }
+
+    /**
+     * Makes the edit which undoes this one
+     * Each splice starts where the earlier splices have moved it to in the stack after this edit
+     * @return The reverse edit
+     */
+    public StackEdit inverse() {
+        int[] iaInversePositions = new int[iaPositions.length];
+        int iShift = 0;
+        for(int i = 0 ; i < iaPositions.length ; i++) {
+            iaInversePositions[i] = iaPositions[i] + iShift;
+            iShift += daInserted[i].length - daRemoved[i].length;
+        }
+        return new StackEdit(iaInversePositions, daInserted, daRemoved);
+    }
+
+    //getters
+    public int getSizeChange() {
+        int iChange = 0;
+        for(int i = 0 ; i < iaPositions.length ; i++) {
+            iChange += daInserted[i].length - daRemoved[i].length;
+        }
+        return iChange;
+    }
+
+    /**
+     * Gets every stroke taken out of the stack by this edit
+     * @return The strokes removed
+     */
+    public List<DraggedPoints> getRemoved() {
+        ArrayList<DraggedPoints> alRemoved = new ArrayList<>();
+        for(DraggedPoints[] da : daRemoved) {
+            for(DraggedPoints d : da) {
+                alRemoved.add(d);
+            }
+        }
+        return alRemoved;
+    }
+
+    /**
+     * Gets every stroke put in to the stack by this edit
+     * @return The strokes inserted
+     */
+    public List<DraggedPoints> getInserted() {
+        ArrayList<DraggedPoints> alInserted = new ArrayList<>();
+        for(DraggedPoints[] da : daInserted) {
+            for(DraggedPoints d : da) {
+                alInserted.add(d);
+            }
+        }
+        return alInserted;
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Collects the mouse samples of the stroke being drawn between frames, in a reusable buffer of ints
+ * Samples closer than a minimum distance to the last one kept are dropped, so duplicate and tiny moves from
+ * high rate mice never reach the stroke, and the rest are added to the stroke together once per frame
+ * The buffer is flushed into the stroke when it fills rather than being a ring: it is filled and drained on the same thread,
+ * so there is no reader to run ahead of, and every kept sample is part of the stroke, so none may be overwritten.
+ * Flushing early only adds points to the stroke before the frame would have
+ */
+
+public class StrokeCapture {
+    private static final int CAPACITY = 256;
+
+    private final int[] iaSamples = new int[CAPACITY * 2];
+    private int iCount;
+    private int iLastX;
+    private int iLastY;
+    private int iLatestX;
+    private int iLatestY;
+    private boolean bLatestKept;
+    private double dMinDistance;
+
+    /**
+     * Creates an empty capture
+     * @param dMinDistance The closest a sample may be to the last one kept, in pixels
+     */
+    public StrokeCapture(double dMinDistance) {
+        this.setMinDistance(dMinDistance);
+    }
+
+    /**
+     * Starts capturing a new stroke, throwing away anything left from the last one
+     * @param iX The x coordinate of the first point, which the caller adds to the stroke itself
+     * @param iY The y coordinate of the first point
+     */
+    public void begin(int iX, int iY) {
+        iCount = 0;
+        iLastX = iX;
+        iLastY = iY;
+        iLatestX = iX;
+        iLatestY = iY;
+        bLatestKept = true;
+    }
+
+    /**
+     * Offers a sample, keeping it only if it is far enough from the last one kept
+     * The caller has to drain the capture first if it is full
+     * @param iX The x coordinate
+     * @param iY The y coordinate
+     * @return true if the sample was kept
+     */
+    public boolean offer(int iX, int iY) {
+        iLatestX = iX;
+        iLatestY = iY;
+        double dX = iX - iLastX;
+        double dY = iY - iLastY;
+        if(dX * dX + dY * dY < dMinDistance * dMinDistance) {
+            bLatestKept = false;
+            return false;
+        }
+        this.add(iX, iY);
+        return true;
+    }
+
+    /**
+     * Ends the stroke, keeping the last sample even if it was too close so the stroke finishes where the mouse did
+     * @return true if the last sample had been dropped, and so was added now
+     */
+    public boolean finish() {
+        if(bLatestKept) {
+            return false;
+        }
+        this.add(iLatestX, iLatestY);
+        return true;
+    }
+
+    /**
+     * Moves every sample kept so far on to the end of a stroke, oldest first
+     * @param d The stroke to add to
+     * @return The number of samples moved
+     */
+    public int drainTo(DraggedPoints d) {
+        int iDrained = iCount;
+        for(int i = 0 ; i < iCount ; i++) {
+            d.addPoint(iaSamples[i * 2], iaSamples[i * 2 + 1]);
+        }
+        iCount = 0;
+        return iDrained;
+    }
+
+    //adds a sample to the end of the buffer, which is never full here as the caller drains it first
+    private void add(int iX, int iY) {
+        iaSamples[iCount * 2] = iX;
+        iaSamples[iCount * 2 + 1] = iY;
+        iCount++;
+        iLastX = iX;
+        iLastY = iY;
+        bLatestKept = true;
+    }
+
+    //getters
+    public boolean isFull() {
+        return iCount == CAPACITY;
+    }
+
+    public int getLastX() {
+        return iLastX;
+    }
+
+    public int getLastY() {
+        return iLastY;
+    }
+
+    public double getMinDistance() {
+        return dMinDistance;
+    }
+
+    //setters
+    public void setMinDistance(double dMinDistance) {
+        this.dMinDistance = dMinDistance;
+    }
+}
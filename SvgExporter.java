@@ -0,0 +1,226 @@
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes a document as an SVG, with each stroke written once and every sector drawn by a <use> of it
+ * The strokes are written straight to the file as they are walked, so no document is built up in memory
+ *
+ * The renderer draws every copy of one stroke before the next stroke, so a later stroke is always on top.
+ * Instancing a group of strokes per sector would put earlier strokes in later sectors on top instead,
+ * so the stack is split into runs of strokes which can't overlap each other in any sector, and each run is instanced.
+ * Rotating and reflecting about the centre keeps every point the same distance from it,
+ * so strokes whose rings around the centre don't meet can't overlap in any sector.
+ * The visible layers are written bottom first, each with its own sectors and sector lines, so later layers are on top.
+ */
+
+public class SvgExporter {
+    /**
+     * Exports a document to an SVG file
+     * @param ddDocument The document to export
+     * @param fFile The file to write
+     * @throws IOException If the file couldn't be written
+     */
+    public static void exportSvg(DoilyDocument ddDocument, File fFile) throws IOException {
+        try(Writer wOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fFile), StandardCharsets.UTF_8))) {
+            exportSvg(ddDocument, wOut);
+        }
+    }
+
+    /**
+     * Writes a document as an SVG
+     * @param ddDocument The document to export
+     * @param wOut Where to write the SVG, which is left open
+     * @throws IOException If the SVG couldn't be written
+     */
+    public static void exportSvg(DoilyDocument ddDocument, Writer wOut) throws IOException {
+        int iWidth = ddDocument.getWidth();
+        int iHeight = ddDocument.getHeight();
+
+        wOut.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        wOut.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + iWidth
+                + "\" height=\"" + iHeight + "\" viewBox=\"0 0 " + iWidth + " " + iHeight + "\">\n");
+        wOut.write("<rect width=\"" + iWidth + "\" height=\"" + iHeight + "\" fill=\"black\"/>\n");
+        //the one sector line every layer's lines are a <use> of
+        wOut.write("<defs><line id=\"axis\" x1=\"" + iWidth / 2 + "\" y1=\"0\" x2=\"" + iWidth / 2 + "\" y2=\"" + iHeight / 2
+                + "\" stroke=\"white\" stroke-width=\"1\"/></defs>\n");
+
+        for(int i = 0 ; i < ddDocument.getLayers().size() ; i++) {
+            DoilyDocument.Layer dlLayer = ddDocument.getLayers().get(i);
+            if(dlLayer.isVisible()) {
+                writeLayer(wOut, dlLayer, "l" + i + "_", iWidth, iHeight);
+            }
+        }
+
+        wOut.write("</svg>\n");
+        wOut.flush();
+    }
+
+    /**
+     * Writes one layer's sector lines and strokes
+     * @param sPrefix Put before the layer's ids, so they don't clash with another layer's
+     */
+    private static void writeLayer(Writer wOut, DoilyDocument.Layer dlLayer, String sPrefix, int iWidth, int iHeight) throws IOException {
+        SectorTransforms stfTransforms = new SectorTransforms(dlLayer.getSectors(), iWidth, iHeight);
+        List<DraggedPoints> lStrokes = dlLayer.getStrokes();
+
+        //the sector lines go under every stroke
+        if(dlLayer.isDrawingLines()) {
+            writeUses(wOut, "axis", stfTransforms, false);
+        }
+
+        //the ring around the centre each stroke covers, as its nearest and furthest distance
+        double[] daNear = new double[lStrokes.size()];
+        double[] daFar = new double[lStrokes.size()];
+        for(int i = 0 ; i < lStrokes.size() ; i++) {
+            setRing(lStrokes.get(i), iWidth / 2.0, iHeight / 2.0, daNear, daFar, i);
+        }
+
+        int iStart = 0;
+        int iRun = 0;
+        while(iStart < lStrokes.size()) {
+            //grow the run until the next stroke's ring meets the ring of any stroke already in it
+            int iEnd = iStart + 1;
+            boolean bFits = true;
+            while(iEnd < lStrokes.size() && bFits) {
+                for(int j = iStart ; j < iEnd && bFits ; j++) {
+                    bFits = daNear[iEnd] > daFar[j] || daFar[iEnd] < daNear[j];
+                }
+                if(bFits) {
+                    iEnd++;
+                }
+            }
+            writeRun(wOut, lStrokes, iStart, iEnd, sPrefix, iRun, stfTransforms);
+            iStart = iEnd;
+            iRun++;
+        }
+    }
+
+    /**
+     * Writes a run of strokes once, then a <use> of them for every sector
+     * The reflected strokes are also gathered into a group of their own, for the reflected copies
+     */
+    private static void writeRun(Writer wOut, List<DraggedPoints> lStrokes, int iStart, int iEnd, String sPrefix, int iRun, SectorTransforms stfTransforms) throws IOException {
+        String sRun = sPrefix + "r" + iRun;
+        boolean bReflected = false;
+
+        wOut.write("<defs>\n<g id=\"" + sRun + "\">\n");
+        for(int i = iStart ; i < iEnd ; i++) {
+            writeStroke(wOut, lStrokes.get(i), sPrefix + "s" + i);
+            bReflected |= lStrokes.get(i).isbReflected();
+        }
+        wOut.write("</g>\n");
+        if(bReflected) {
+            wOut.write("<g id=\"" + sRun + "m\">");
+            for(int i = iStart ; i < iEnd ; i++) {
+                if(lStrokes.get(i).isbReflected()) {
+                    wOut.write("<use xlink:href=\"#" + sPrefix + "s" + i + "\"/>");
+                }
+            }
+            wOut.write("</g>\n");
+        }
+        wOut.write("</defs>\n");
+
+        //as in the renderer, the reflected copies go under the rotated ones
+        if(bReflected) {
+            writeUses(wOut, sRun + "m", stfTransforms, true);
+        }
+        writeUses(wOut, sRun, stfTransforms, false);
+    }
+
+    /**
+     * Writes one stroke, as a dot if it is a single point or as a line through its points, matching drawPoint and drawLines
+     */
+    private static void writeStroke(Writer wOut, DraggedPoints d, String sId) throws IOException {
+        String sColour = colour(d.getcPointsColor());
+        String sOpacity = opacity(d.getcPointsColor());
+        if(d.getPointCount() == 1) {
+            //the renderer fills and outlines a circle whose corner is found with whole pixel division
+            double dRadius = d.getiSize() / 2.0;
+            wOut.write("<circle id=\"" + sId + "\" cx=\"" + number(d.getX(0) - d.getiSize() / 2 + dRadius)
+                    + "\" cy=\"" + number(d.getY(0) - d.getiSize() / 2 + dRadius)
+                    + "\" r=\"" + number(dRadius) + "\" fill=\"" + sColour + "\" stroke=\"" + sColour + "\" stroke-width=\"1\"" + sOpacity + "/>\n");
+            return;
+        }
+
+        wOut.write("<path id=\"" + sId + "\" fill=\"none\" stroke=\"" + sColour + "\"" + sOpacity + " stroke-width=\"" + number(d.getStroke().getLineWidth())
+                + "\" stroke-linecap=\"square\" stroke-linejoin=\"round\" d=\"M");
+        for(int i = 0 ; i < d.getPointCount() ; i++) {
+            wOut.write(i == 0 ? "" : (i == 1 ? "L" : " "));
+            wOut.write(d.getX(i) + " " + d.getY(i));
+        }
+        wOut.write("\"/>\n");
+    }
+
+    //a <use> of an element for every sector, with the sector's rotation or reflection
+    private static void writeUses(Writer wOut, String sId, SectorTransforms stfTransforms, boolean bReflections) throws IOException {
+        for(int i = 0 ; i < stfTransforms.getSectors() ; i++) {
+            AffineTransform atx = bReflections ? stfTransforms.getReflection(i) : stfTransforms.getRotation(i);
+            wOut.write("<use xlink:href=\"#" + sId + "\"");
+            if(!atx.isIdentity()) {
+                wOut.write(" transform=\"matrix(" + number(atx.getScaleX()) + " " + number(atx.getShearY())
+                        + " " + number(atx.getShearX()) + " " + number(atx.getScaleY())
+                        + " " + number(atx.getTranslateX()) + " " + number(atx.getTranslateY()) + ")\"");
+            }
+            wOut.write("/>\n");
+        }
+    }
+
+    /**
+     * Works out the nearest and furthest a stroke gets to the centre, widened by its size
+     * The nearest point of a line can be part way along it, so each line is checked rather than just its ends
+     */
+    private static void setRing(DraggedPoints d, double dCentreX, double dCentreY, double[] daNear, double[] daFar, int i) {
+        double dNear = Double.POSITIVE_INFINITY;
+        double dFar = 0;
+        for(int j = 0 ; j < d.getPointCount() ; j++) {
+            double dX = d.getX(j) - dCentreX;
+            double dY = d.getY(j) - dCentreY;
+            dFar = Math.max(dFar, Math.hypot(dX, dY));
+            if(j == 0) {
+                dNear = Math.hypot(dX, dY);
+                continue;
+            }
+
+            //the closest point to the centre on the line from the previous point
+            double dLastX = d.getX(j - 1) - dCentreX;
+            double dLastY = d.getY(j - 1) - dCentreY;
+            double dLineX = dX - dLastX;
+            double dLineY = dY - dLastY;
+            double dLength = dLineX * dLineX + dLineY * dLineY;
+            double dAlong = dLength == 0 ? 0 : Math.max(0, Math.min(1, -(dLastX * dLineX + dLastY * dLineY) / dLength));
+            dNear = Math.min(dNear, Math.hypot(dLastX + dLineX * dAlong, dLastY + dLineY * dAlong));
+        }
+
+        //widen by the size of the stroke, plus a little for the point outline and antialiasing
+        double dPadding = d.getiSize() / 2.0 + 2;
+        daNear[i] = dNear - dPadding;
+        daFar[i] = dFar + dPadding;
+    }
+
+    //an SVG colour, without its alpha
+    private static String colour(Color c) {
+        return String.format("#%06x", c.getRGB() & 0xffffff);
+    }
+
+    //an opacity attribute, only written if the colour isn't opaque
+    private static String opacity(Color c) {
+        return c.getAlpha() < 255 ? " opacity=\"" + number(c.getAlpha() / 255.0) + "\"" : "";
+    }
+
+    //numbers are written with a dot and without trailing zeros, whatever the locale
+    private static String number(double d) {
+        String s = String.format(Locale.ROOT, "%.6f", d);
+        s = s.replaceAll("0+$", "");
+        s = s.endsWith(".") ? s.substring(0, s.length() - 1) : s;
+        return s.equals("-0") ? "0" : s;
+    }
+}
@@ -0,0 +1,79 @@
+import doily.jmh.Suite;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import javax.swing.ImageIcon;
+
+/**
+ * The doily's side of the JMH suite, in the default package so it can reach the panel's package-private methods
+ */
+
+public class DoilySuite implements Suite {
+    private static final int POINTS_PER_STROKE = 100;
+
+    private DrawingPanel dp;
+    private DoilyDocument ddDocument;
+    private BufferedImage image;
+    private DraggedPoints dEraser;
+    private DraggedPoints dNothing;
+
+    @Override
+    public void setUp(int iSectors, int iStrokes, boolean bReflected) {
+        Random r = new Random(42);
+        dp = new DrawingPanel();
+        dp.setSize(dp.getPreferredSize());
+        dp.setSectors(iSectors);
+        //every paint redraws every stroke at full quality, rather than starting from a checkpoint or drawing a preview
+        dp.setCheckpointInterval(0);
+        dp.setFrameBudget(Long.MAX_VALUE / 1_000_000);
+
+        for(int i = 0 ; i < iStrokes ; i++) {
+            DraggedPoints d = new DraggedPoints(1 + r.nextInt(20), new Color(r.nextInt()), bReflected, false);
+            int iX = r.nextInt(dp.getWidth());
+            int iY = r.nextInt(dp.getHeight());
+            for(int j = 0 ; j < POINTS_PER_STROKE ; j++) {
+                iX = Math.max(0, Math.min(dp.getWidth() - 1, iX + r.nextInt(11) - 5));
+                iY = Math.max(0, Math.min(dp.getHeight() - 1, iY + r.nextInt(11) - 5));
+                d.addPoint(iX, iY);
+            }
+            d.trimToSize();
+            dp.pushStroke(d);
+        }
+        ddDocument = dp.getDocument();
+        image = new BufferedImage(dp.getWidth(), dp.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+        dEraser = new DraggedPoints(20, Color.RED, false, true);
+        for(int i = 0 ; i < 20 ; i++) {
+            dEraser.addPoint(dp.getWidth() / 3 + i * 5, dp.getHeight() / 3 + i * 3);
+        }
+        dNothing = new DraggedPoints(20, Color.RED, false, true);
+    }
+
+    @Override
+    public Object paint() {
+        dp.invalidateCache();
+        Graphics2D g2d = image.createGraphics();
+        dp.paintComponent(g2d);
+        g2d.dispose();
+        return image;
+    }
+
+    @Override
+    public void resetStrokes() {
+        dp.setDocument(ddDocument);
+        //erasing no points only builds the index
+        dp.removePoints(dNothing);
+    }
+
+    @Override
+    public int erase() {
+        dp.removePoints(dEraser);
+        return dp.getStrokeCount();
+    }
+
+    @Override
+    public Object gallerySave() {
+        return new ImageIcon(GalleryPanel.createThumbnail(GalleryPanel.snapshot(dp)));
+    }
+}
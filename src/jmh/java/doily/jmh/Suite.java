@@ -0,0 +1,40 @@
+package doily.jmh;
+
+/**
+ * The operations the JMH suite times, implemented by DoilySuite
+ * JMH won't run benchmarks in the default package, and a named package can't see the doily's classes,
+ * so the benchmark only creates DoilySuite by name and then calls it through this
+ */
+
+public interface Suite {
+    /**
+     * Creates a panel at its normal size with random strokes already committed
+     * @param iSectors The number of sectors
+     * @param iStrokes The number of strokes to commit
+     * @param bReflected Whether every stroke is reflected
+     */
+    void setUp(int iSectors, int iStrokes, boolean bReflected);
+
+    /**
+     * Throws the cache away and paints the whole panel into an offscreen image, so every stroke is drawn into every sector
+     * @return The image, so the paint can't be optimised away
+     */
+    Object paint();
+
+    /**
+     * Puts back the strokes from setUp and builds the eraser's index, neither of which should count towards an erase
+     */
+    void resetStrokes();
+
+    /**
+     * Erases a short line through the middle
+     * @return The number of strokes left
+     */
+    int erase();
+
+    /**
+     * Does what the gallery's save button does, the copy on the EDT and the scaling on the worker together
+     * @return The thumbnail
+     */
+    Object gallerySave();
+}
@@ -0,0 +1,72 @@
+package doily.jmh;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the paint, erase and gallery save paths for every combination of sector count, stroke count and reflection
+ * Run with "mvn test-compile exec:exec@jmh", which adds the GC profiler so the allocation per operation is reported too
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class SuiteBenchmark {
+    @Param({"1", "12", "60"})
+    public int iSectors;
+
+    @Param({"20", "200"})
+    public int iStrokes;
+
+    @Param({"false", "true"})
+    public boolean bReflected;
+
+    private Suite sSuite;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        sSuite = (Suite) Class.forName("DoilySuite").getDeclaredConstructor().newInstance();
+        sSuite.setUp(iSectors, iStrokes, bReflected);
+    }
+
+    @Benchmark
+    public Object paint() {
+        return sSuite.paint();
+    }
+
+    @Benchmark
+    public int erase(FreshStrokes fsStrokes) {
+        return sSuite.erase();
+    }
+
+    @Benchmark
+    public Object gallerySave() {
+        return sSuite.gallerySave();
+    }
+
+    /**
+     * Puts the strokes back before every erase, so each one erases the same strokes
+     * An erase takes long enough that setting up every invocation doesn't upset the timing
+     */
+    @State(Scope.Thread)
+    public static class FreshStrokes {
+        @Setup(Level.Invocation)
+        public void reset(SuiteBenchmark sbBenchmark) {
+            sbBenchmark.sSuite.resetStrokes();
+        }
+    }
+}
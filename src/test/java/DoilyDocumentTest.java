@@ -0,0 +1,185 @@
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that documents keep every layer, with its settings and strokes, through the file format and the drawing panel
+ */
+
+public class DoilyDocumentTest {
+    @Test
+    public void formatKeepsEveryLayer() throws IOException {
+        ArrayList<DoilyDocument.Layer> alLayers = new ArrayList<>();
+        alLayers.add(new DoilyDocument.Layer("Bottom", strokes(3, false), 12, true, false, true));
+        alLayers.add(new DoilyDocument.Layer("Middle", strokes(2, true), 60, false, true, false));
+        alLayers.add(new DoilyDocument.Layer("Top", new ArrayList<>(), 1, true, true, true));
+        DoilyDocument ddDocument = new DoilyDocument(alLayers, 800, 750);
+
+        assertSameDocument(ddDocument, roundTrip(ddDocument));
+    }
+
+    @Test
+    public void panelKeepsEveryLayer() {
+        DrawingPanel dp = new DrawingPanel();
+        dp.setSize(dp.getPreferredSize());
+        dp.setSectors(24);
+        for(DraggedPoints d : strokes(2, false)) {
+            dp.pushStroke(d);
+        }
+        dp.addLayer("Layer 2");
+        dp.setReflecting(true);
+        for(DraggedPoints d : strokes(3, true)) {
+            dp.pushStroke(d);
+        }
+        dp.setLayerVisible(0, false);
+
+        DoilyDocument ddDocument = dp.getDocument();
+        assertEquals(2, ddDocument.getLayers().size());
+        assertEquals(24, ddDocument.getLayers().get(0).getSectors());
+        assertEquals(false, ddDocument.getLayers().get(0).isVisible());
+        assertEquals(true, ddDocument.getLayers().get(1).isReflecting());
+        assertEquals(3, ddDocument.getLayers().get(1).getStrokes().size());
+
+        DrawingPanel dpOpened = new DrawingPanel();
+        dpOpened.setSize(dpOpened.getPreferredSize());
+        dpOpened.setDocument(ddDocument);
+        assertSameDocument(ddDocument, dpOpened.getDocument());
+    }
+
+    @Test
+    public void readsSingleLayerDocuments() throws IOException {
+        //a version 1 document: 6 sectors, 10 by 20, sector lines, and one stroke of size 3 with two points
+        byte[] baDocument = {'D', 'O', 'I', 'L', 1, 6, 10, 20, 1, 1
+                , 3, (byte) 0xFF, 0, 0, (byte) 0xFF, 1, 2, 8, 10, 3, 1};
+        DoilyDocument ddDocument = DoilyFormat.read(Channels.newChannel(new ByteArrayInputStream(baDocument)));
+
+        assertEquals(10, ddDocument.getWidth());
+        assertEquals(20, ddDocument.getHeight());
+        assertEquals(1, ddDocument.getLayers().size());
+        DoilyDocument.Layer dlLayer = ddDocument.getLayers().get(0);
+        assertEquals(6, dlLayer.getSectors());
+        assertEquals(true, dlLayer.isDrawingLines());
+        assertEquals(true, dlLayer.isVisible());
+        DraggedPoints d = dlLayer.getStrokes().get(0);
+        assertEquals(Color.BLUE, d.getcPointsColor());
+        assertEquals(true, d.isbReflected());
+        assertEquals(2, d.getPointCount());
+        assertEquals(4, d.getX(0));
+        assertEquals(5, d.getY(0));
+        assertEquals(2, d.getX(1));
+        assertEquals(4, d.getY(1));
+    }
+
+    @Test
+    public void rejectsTruncatedDocuments() throws IOException {
+        byte[] baDocument = bytes(smallDocument());
+        //every cut short document must fail cleanly rather than come back with fewer strokes
+        for(int i = 0 ; i < baDocument.length ; i++) {
+            byte[] baTruncated = Arrays.copyOf(baDocument, i);
+            assertThrows(IOException.class, () -> read(baTruncated), "cut to " + i + " bytes");
+        }
+        assertSameDocument(smallDocument(), read(baDocument));
+    }
+
+    @Test
+    public void rejectsCorruptDocuments() throws IOException {
+        //10 by 20 with one layer, so the header is the magic, the version, then one byte each for width, height, layers and name length
+        byte[] baDocument = bytes(smallDocument());
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 0, 'X')));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 4, 3)));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 5, 0)));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 6, 0)));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 7, 0)));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 7, 0x7F)));
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 8, 0x7F)));
+        //no sectors, just after the three byte name
+        assertThrows(IOException.class, () -> read(corrupt(baDocument, 12, 0)));
+        //a number which never ends
+        byte[] baEndless = Arrays.copyOf(baDocument, baDocument.length + 8);
+        Arrays.fill(baEndless, 5, baEndless.length, (byte) 0xFF);
+        assertThrows(IOException.class, () -> read(baEndless));
+    }
+
+    //a document small enough to know where everything is in the file
+    private static DoilyDocument smallDocument() {
+        ArrayList<DoilyDocument.Layer> alLayers = new ArrayList<>();
+        alLayers.add(new DoilyDocument.Layer("Top", strokes(3, false), 6, true, false, true));
+        return new DoilyDocument(alLayers, 10, 20);
+    }
+
+    private static byte[] bytes(DoilyDocument ddDocument) throws IOException {
+        ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
+        DoilyFormat.write(ddDocument, Channels.newChannel(baosOut));
+        return baosOut.toByteArray();
+    }
+
+    private static DoilyDocument read(byte[] baDocument) throws IOException {
+        return DoilyFormat.read(Channels.newChannel(new ByteArrayInputStream(baDocument)));
+    }
+
+    private static byte[] corrupt(byte[] baDocument, int iIndex, int iValue) {
+        byte[] baCorrupt = baDocument.clone();
+        baCorrupt[iIndex] = (byte) iValue;
+        return baCorrupt;
+    }
+
+    //writes a document and reads it back
+    static DoilyDocument roundTrip(DoilyDocument ddDocument) throws IOException {
+        return read(bytes(ddDocument));
+    }
+
+    //a few strokes of different sizes and colours, some of them single points
+    static ArrayList<DraggedPoints> strokes(int iStrokes, boolean bReflected) {
+        ArrayList<DraggedPoints> alStrokes = new ArrayList<>();
+        for(int i = 0 ; i < iStrokes ; i++) {
+            DraggedPoints d = new DraggedPoints(1 + i * 7, new Color(0x40 * i, 0x80, 0xFF - 0x30 * i, 0xFF - i), bReflected, false);
+            for(int j = 0 ; j <= i * 5 ; j++) {
+                d.addPoint(100 + j * 3 - i, 200 - j * 2 + i);
+            }
+            alStrokes.add(d);
+        }
+        return alStrokes;
+    }
+
+    static void assertSameDocument(DoilyDocument ddExpected, DoilyDocument ddActual) {
+        assertEquals(ddExpected.getWidth(), ddActual.getWidth());
+        assertEquals(ddExpected.getHeight(), ddActual.getHeight());
+        assertEquals(ddExpected.getLayers().size(), ddActual.getLayers().size());
+        for(int i = 0 ; i < ddExpected.getLayers().size() ; i++) {
+            DoilyDocument.Layer dlExpected = ddExpected.getLayers().get(i);
+            DoilyDocument.Layer dlActual = ddActual.getLayers().get(i);
+            assertEquals(dlExpected.getName(), dlActual.getName());
+            assertEquals(dlExpected.getSectors(), dlActual.getSectors());
+            assertEquals(dlExpected.isDrawingLines(), dlActual.isDrawingLines());
+            assertEquals(dlExpected.isReflecting(), dlActual.isReflecting());
+            assertEquals(dlExpected.isVisible(), dlActual.isVisible());
+            assertSameStrokes(dlExpected.getStrokes(), dlActual.getStrokes());
+        }
+    }
+
+    static void assertSameStrokes(List<DraggedPoints> lExpected, List<DraggedPoints> lActual) {
+        assertEquals(lExpected.size(), lActual.size());
+        for(int i = 0 ; i < lExpected.size() ; i++) {
+            DraggedPoints dExpected = lExpected.get(i);
+            DraggedPoints dActual = lActual.get(i);
+            assertEquals(dExpected.getiSize(), dActual.getiSize());
+            assertEquals(dExpected.getcPointsColor(), dActual.getcPointsColor());
+            assertEquals(dExpected.isbReflected(), dActual.isbReflected());
+            assertEquals(dExpected.isbEraser(), dActual.isbEraser());
+            assertEquals(dExpected.getPointCount(), dActual.getPointCount());
+            for(int j = 0 ; j < dExpected.getPointCount() ; j++) {
+                assertEquals(dExpected.getX(j), dActual.getX(j));
+                assertEquals(dExpected.getY(j), dActual.getY(j));
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.awt.Color;
+import java.awt.geom.Line2D;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that simplifying a stroke keeps its ends, stays near the line and within the gap, and leaves the bounds right
+ */
+
+public class DraggedPointsTest {
+    private static final double TOLERANCE = 1.5;
+    private static final double MAX_GAP = 8;
+
+    @Test
+    public void simplifyKeepsTheShape() {
+        Random r = new Random(42);
+        for(int iStroke = 0 ; iStroke < 200 ; iStroke++) {
+            DraggedPoints d = new DraggedPoints(5, Color.RED, false, false);
+            int iX = 200;
+            int iY = 200;
+            int iPoints = 1 + r.nextInt(300);
+            for(int i = 0 ; i < iPoints ; i++) {
+                //mostly small steps, with the odd jump further than the gap, always rightwards so each point can be told apart
+                int iStep = r.nextInt(20) == 0 ? 15 : 2;
+                iX += 1 + r.nextInt(iStep);
+                iY += r.nextInt(iStep * 2 + 1) - iStep;
+                d.addPoint(iX, iY);
+            }
+            DraggedPoints dOriginal = d.subPoints(0, d.getPointCount());
+
+            int iRemoved = d.simplify(TOLERANCE, MAX_GAP);
+            assertEquals(dOriginal.getPointCount() - iRemoved, d.getPointCount());
+            assertEquals(dOriginal.getX(0), d.getX(0));
+            assertEquals(dOriginal.getY(0), d.getY(0));
+            assertEquals(dOriginal.getX(iPoints - 1), d.getX(d.getPointCount() - 1));
+            assertEquals(dOriginal.getY(iPoints - 1), d.getY(d.getPointCount() - 1));
+            assertBounds(d);
+
+            //walk the original alongside the kept points, which must be a subsequence of it
+            int iKept = 0;
+            int iLastKept = 0;
+            for(int i = 1 ; i < iPoints ; i++) {
+                boolean bKept = iKept + 1 < d.getPointCount() && dOriginal.getX(i) == d.getX(iKept + 1);
+                if(!bKept) {
+                    //a dropped point is within the tolerance of the line which replaced it
+                    assertTrue(iKept + 1 < d.getPointCount());
+                    assertTrue(Line2D.ptSegDist(d.getX(iKept), d.getY(iKept), d.getX(iKept + 1), d.getY(iKept + 1)
+                            , dOriginal.getX(i), dOriginal.getY(i)) <= TOLERANCE);
+                    continue;
+                }
+                //kept points are only left further apart than the gap if they were next to each other to start with
+                double dGap = Math.hypot(d.getX(iKept + 1) - d.getX(iKept), d.getY(iKept + 1) - d.getY(iKept));
+                assertEquals(dOriginal.getY(i), d.getY(iKept + 1));
+                assertTrue(dGap <= MAX_GAP || i == iLastKept + 1);
+                iKept++;
+                iLastKept = i;
+            }
+            assertEquals(d.getPointCount() - 1, iKept);
+        }
+    }
+
+    private static void assertBounds(DraggedPoints d) {
+        int iMinX = Integer.MAX_VALUE;
+        int iMinY = Integer.MAX_VALUE;
+        int iMaxX = Integer.MIN_VALUE;
+        int iMaxY = Integer.MIN_VALUE;
+        for(int i = 0 ; i < d.getPointCount() ; i++) {
+            iMinX = Math.min(iMinX, d.getX(i));
+            iMinY = Math.min(iMinY, d.getY(i));
+            iMaxX = Math.max(iMaxX, d.getX(i));
+            iMaxY = Math.max(iMaxY, d.getY(i));
+        }
+        assertEquals(iMinX, d.getMinX());
+        assertEquals(iMinY, d.getMinY());
+        assertEquals(iMaxX, d.getMaxX());
+        assertEquals(iMaxY, d.getMaxY());
+    }
+}
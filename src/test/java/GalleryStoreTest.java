@@ -0,0 +1,34 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the gallery lists only its own numbered thumbnails, whatever else is in its directory
+ */
+
+public class GalleryStoreTest {
+    @TempDir
+    Path pDirectory;
+
+    @Test
+    public void skipsFilesItDidNotWrite() throws IOException {
+        GalleryStore gsStore = new GalleryStore(pDirectory.toFile(), 1 << 20);
+        int iId = gsStore.add(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB));
+        //too big for an int, and not numbered at all
+        Files.createFile(pDirectory.resolve("99999999999.png"));
+        Files.createFile(pDirectory.resolve("12a.png"));
+        Files.createFile(pDirectory.resolve("7.jpg"));
+
+        GalleryStore gsReopened = new GalleryStore(pDirectory.toFile(), 1 << 20);
+        assertEquals(1, gsReopened.size());
+        assertArrayEquals(new int[] {iId}, gsReopened.getIds(0, 1));
+        assertEquals(iId + 1, gsReopened.add(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB)));
+    }
+}
@@ -0,0 +1,78 @@
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the streamed PNGs decode to exactly the pixels that were drawn
+ */
+
+public class PngStreamWriterTest {
+    @Test
+    public void decodesToTheSamePixels() throws IOException {
+        Random r = new Random(42);
+        BufferedImage image = new BufferedImage(37, 50, BufferedImage.TYPE_INT_RGB);
+        for(int y = 0 ; y < image.getHeight() ; y++) {
+            for(int x = 0 ; x < image.getWidth() ; x++) {
+                image.setRGB(x, y, r.nextInt());
+            }
+        }
+
+        //written in bands of uneven heights, each copied to the top of a band image as the exporter does
+        ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
+        PngStreamWriter pswWriter = new PngStreamWriter(baosOut, image.getWidth(), image.getHeight());
+        for(int iTop = 0 ; iTop < image.getHeight() ; iTop += 7) {
+            int iRows = Math.min(7, image.getHeight() - iTop);
+            pswWriter.writeRows(image.getSubimage(0, iTop, image.getWidth(), iRows), iRows);
+        }
+        pswWriter.close();
+
+        assertSamePixels(image, ImageIO.read(new ByteArrayInputStream(baosOut.toByteArray())), 0);
+    }
+
+    @Test
+    public void exportMatchesRender() throws IOException {
+        ArrayList<DoilyDocument.Layer> alLayers = new ArrayList<>();
+        alLayers.add(new DoilyDocument.Layer("Layer 1", DoilyDocumentTest.strokes(4, false), 12, true, false, true));
+        alLayers.add(new DoilyDocument.Layer("Layer 2", DoilyDocumentTest.strokes(3, true), 5, false, true, true));
+        DoilyDocument ddDocument = new DoilyDocument(alLayers, 300, 240);
+
+        ByteArrayOutputStream baosOut = new ByteArrayOutputStream();
+        DoilyExporter.exportPng(ddDocument, 1, 50, baosOut);
+        assertSamePixels(DoilyRenderer.render(ddDocument), ImageIO.read(new ByteArrayInputStream(baosOut.toByteArray())), 1);
+    }
+
+    @Test
+    public void rejectsMissingRows() throws IOException {
+        PngStreamWriter pswWriter = new PngStreamWriter(new ByteArrayOutputStream(), 4, 4);
+        BufferedImage biBand = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        pswWriter.writeRows(biBand, 3);
+        assertThrows(IOException.class, () -> pswWriter.writeRows(biBand, 3));
+        assertThrows(IOException.class, pswWriter::close);
+    }
+
+    //the renderer blends translucent layers onto a cleared image first, so its channels can round one off the exporter's
+    private static void assertSamePixels(BufferedImage biExpected, BufferedImage biActual, int iLeeway) {
+        assertEquals(biExpected.getWidth(), biActual.getWidth());
+        assertEquals(biExpected.getHeight(), biActual.getHeight());
+        for(int y = 0 ; y < biExpected.getHeight() ; y++) {
+            for(int x = 0 ; x < biExpected.getWidth() ; x++) {
+                int iExpected = biExpected.getRGB(x, y);
+                int iActual = biActual.getRGB(x, y);
+                for(int iShift = 0 ; iShift < 24 ; iShift += 8) {
+                    int iDifference = Math.abs((iExpected >> iShift & 0xFF) - (iActual >> iShift & 0xFF));
+                    assertTrue(iDifference <= iLeeway, "pixel " + x + ", " + y + " was " + new Color(iActual) + " not " + new Color(iExpected));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.awt.Color;
+import java.awt.geom.Line2D;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the grid finds exactly the points and lines which a scan of every stroke would
+ */
+
+public class PointGridTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 300;
+
+    @Test
+    public void findsWhatAScanFinds() {
+        Random r = new Random(42);
+        List<DraggedPoints> lStrokes = new ArrayList<>();
+        PointGrid pgGrid = new PointGrid(WIDTH, HEIGHT);
+        for(int i = 0 ; i < 60 ; i++) {
+            DraggedPoints d = stroke(r);
+            lStrokes.add(d);
+            pgGrid.addStroke(d);
+        }
+        //removing strokes, enough to clear out their runs, mustn't change what the rest are found at
+        for(int i = 0 ; i < 40 ; i++) {
+            pgGrid.removeStroke(lStrokes.remove(r.nextInt(lStrokes.size())));
+        }
+        for(int i = 0 ; i < 10 ; i++) {
+            DraggedPoints d = stroke(r);
+            lStrokes.add(d);
+            pgGrid.addStroke(d);
+        }
+
+        for(int i = 0 ; i < 2000 ; i++) {
+            double dX = r.nextDouble() * (WIDTH + 40) - 20;
+            double dY = r.nextDouble() * (HEIGHT + 40) - 20;
+            double dRadius = r.nextInt(4) == 0 ? 0.5 : r.nextDouble() * 15;
+            boolean bReflectedOnly = r.nextBoolean();
+
+            Map<DraggedPoints, BitSet> mFound = new HashMap<>();
+            pgGrid.findPoints(dX, dY, dRadius, bReflectedOnly, mFound);
+            assertEquals(scan(lStrokes, dX, dY, dRadius, bReflectedOnly), mFound);
+        }
+    }
+
+    //the points and lines within the radius, marked as findPoints marks them
+    private static Map<DraggedPoints, BitSet> scan(List<DraggedPoints> lStrokes, double dX, double dY, double dRadius, boolean bReflectedOnly) {
+        Map<DraggedPoints, BitSet> mFound = new HashMap<>();
+        for(DraggedPoints d : lStrokes) {
+            if(bReflectedOnly && !d.isbReflected()) {
+                continue;
+            }
+            BitSet bsFound = new BitSet();
+            for(int j = 0 ; j < d.getPointCount() ; j++) {
+                if(Math.hypot(d.getX(j) - dX, d.getY(j) - dY) <= dRadius) {
+                    bsFound.set(j * 2);
+                }
+                if(j > 0 && Line2D.ptSegDistSq(d.getX(j - 1), d.getY(j - 1), d.getX(j), d.getY(j), dX, dY) <= dRadius * dRadius) {
+                    bsFound.set(j * 2 - 1);
+                }
+            }
+            if(!bsFound.isEmpty()) {
+                mFound.put(d, bsFound);
+            }
+        }
+        return mFound;
+    }
+
+    //a wandering stroke, some of it off the canvas, with the odd long jump as a fast drag or simplifying would leave
+    private static DraggedPoints stroke(Random r) {
+        DraggedPoints d = new DraggedPoints(5, Color.RED, r.nextBoolean(), false);
+        int iX = r.nextInt(WIDTH);
+        int iY = r.nextInt(HEIGHT);
+        int iPoints = 1 + r.nextInt(80);
+        for(int i = 0 ; i < iPoints ; i++) {
+            int iStep = r.nextInt(10) == 0 ? 40 : 4;
+            iX += r.nextInt(iStep * 2 + 1) - iStep;
+            iY += r.nextInt(iStep * 2 + 1) - iStep;
+            d.addPoint(iX, iY);
+        }
+        return d;
+    }
+}
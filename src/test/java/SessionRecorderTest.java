@@ -0,0 +1,77 @@
+import java.awt.Color;
+import java.awt.event.MouseEvent;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that replaying a recorded session builds the same layers and strokes as were drawn
+ */
+
+public class SessionRecorderTest {
+    @Test
+    public void replayRebuildsTheStrokes() throws IOException, InterruptedException {
+        Random r = new Random(42);
+        DrawingPanel dpRecorded = new DrawingPanel();
+        dpRecorded.setSize(dpRecorded.getPreferredSize());
+        //something already drawn, which the recording has to start with
+        for(DraggedPoints d : DoilyDocumentTest.strokes(3, false)) {
+            dpRecorded.pushStroke(d);
+        }
+
+        ByteArrayOutputStream baosSession = new ByteArrayOutputStream();
+        dpRecorded.startRecording(baosSession);
+        DrawingPanel.DragListener listener = dpRecorded.new DragListener();
+        for(int i = 0 ; i < 30 ; i++) {
+            if(i == 10) {
+                dpRecorded.addLayer("Layer 2");
+                dpRecorded.setReflecting(true);
+            }
+            if(i == 20) {
+                dpRecorded.setActiveLayer(0);
+                dpRecorded.setLayerVisible(1, false);
+            }
+            if(i % 7 == 6) {
+                dpRecorded.setSectors(2 + r.nextInt(30));
+                dpRecorded.undo();
+            }
+            dpRecorded.setErasing(i % 5 == 4);
+            dpRecorded.setStrokeSize(1 + r.nextInt(20));
+            dpRecorded.setColor(new Color(r.nextInt(), true));
+
+            int iX = r.nextInt(dpRecorded.getWidth());
+            int iY = r.nextInt(dpRecorded.getHeight());
+            listener.mousePressed(mouseEvent(dpRecorded, MouseEvent.MOUSE_PRESSED, iX, iY));
+            for(int j = 0 ; j < 40 ; j++) {
+                iX = Math.max(0, Math.min(dpRecorded.getWidth() - 1, iX + r.nextInt(21) - 10));
+                iY = Math.max(0, Math.min(dpRecorded.getHeight() - 1, iY + r.nextInt(21) - 10));
+                listener.mouseDragged(mouseEvent(dpRecorded, MouseEvent.MOUSE_DRAGGED, iX, iY));
+            }
+            listener.mouseReleased(mouseEvent(dpRecorded, MouseEvent.MOUSE_RELEASED, iX, iY));
+            dpRecorded.waitForEraser();
+        }
+        dpRecorded.stopRecording();
+
+        DrawingPanel dpReplayed = new DrawingPanel();
+        SessionReplayer.replay(new ByteArrayInputStream(baosSession.toByteArray()), dpReplayed, false);
+        dpReplayed.waitForEraser();
+        DoilyDocumentTest.assertSameDocument(dpRecorded.getDocument(), dpReplayed.getDocument());
+        assertEquals(dpRecorded.getActiveLayerIndex(), dpReplayed.getActiveLayerIndex());
+    }
+
+    @Test
+    public void rejectsOtherStreams() {
+        byte[] baNotSession = {'D', 'O', 'I', 'L', 2, 0};
+        assertThrows(IOException.class
+                , () -> SessionReplayer.replay(new ByteArrayInputStream(baNotSession), new DrawingPanel(), false));
+    }
+
+    private static MouseEvent mouseEvent(DrawingPanel dp, int iId, int iX, int iY) {
+        return new MouseEvent(dp, iId, System.currentTimeMillis(), 0, iX, iY, 1, false, MouseEvent.BUTTON1);
+    }
+}
@@ -0,0 +1,117 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that edits to the stack of strokes undo and redo exactly, and that the history forgets redos once something new is done
+ */
+
+public class StackEditTest {
+    @Test
+    public void inverseUndoesSplices() {
+        List<DraggedPoints> lBefore = strokes(10);
+        DraggedPoints dNew1 = stroke();
+        DraggedPoints dNew2 = stroke();
+        DraggedPoints dNew3 = stroke();
+        //replace one stroke with two, take two out, and put one in at the top
+        StackEdit seEdit = new StackEdit(new int[] {2, 5, 10}
+                , new DraggedPoints[][] {{lBefore.get(2)}, {lBefore.get(5), lBefore.get(6)}, {}}
+                , new DraggedPoints[][] {{dNew1, dNew2}, {}, {dNew3}});
+
+        List<DraggedPoints> lAfter = seEdit.apply(lBefore);
+        assertEquals(10 + seEdit.getSizeChange(), lAfter.size());
+        assertEquals(List.of(lBefore.get(0), lBefore.get(1), dNew1, dNew2, lBefore.get(3), lBefore.get(4)
+                , lBefore.get(7), lBefore.get(8), lBefore.get(9), dNew3), lAfter);
+        assertEquals(lBefore, seEdit.inverse().apply(lAfter));
+        assertEquals(lAfter, seEdit.inverse().inverse().apply(lBefore));
+    }
+
+    @Test
+    public void drawAndClearRoundTrip() {
+        List<DraggedPoints> lBefore = strokes(4);
+        DraggedPoints d = stroke();
+        StackEdit seDraw = StackEdit.draw(d, lBefore.size());
+        List<DraggedPoints> lDrawn = seDraw.apply(lBefore);
+        assertEquals(d, lDrawn.get(4));
+        assertEquals(lBefore, seDraw.inverse().apply(lDrawn));
+
+        StackEdit seClear = StackEdit.clear(lDrawn);
+        assertTrue(seClear.apply(lDrawn).isEmpty());
+        assertEquals(lDrawn, seClear.inverse().apply(new ArrayList<>()));
+        assertEquals(lDrawn, seClear.getRemoved());
+    }
+
+    @Test
+    public void recordingForgetsRedo() {
+        EditHistory ehHistory = new EditHistory();
+        List<DraggedPoints> lStack = new ArrayList<>();
+        for(int i = 0 ; i < 3 ; i++) {
+            StackEdit seEdit = StackEdit.draw(stroke(), lStack.size());
+            lStack = seEdit.apply(lStack);
+            ehHistory.record(seEdit, null);
+        }
+        List<DraggedPoints> lThree = lStack;
+
+        lStack = applyAll(ehHistory.undo(), lStack);
+        lStack = applyAll(ehHistory.undo(), lStack);
+        assertEquals(lThree.subList(0, 1), lStack);
+        assertTrue(ehHistory.canRedo());
+        lStack = applyAll(ehHistory.redo(), lStack);
+        assertEquals(lThree.subList(0, 2), lStack);
+
+        //drawing something new drops the stroke still waiting to be redone
+        StackEdit seNew = StackEdit.draw(stroke(), lStack.size());
+        lStack = seNew.apply(lStack);
+        ehHistory.record(seNew, null);
+        assertFalse(ehHistory.canRedo());
+        assertNull(ehHistory.redo());
+        lStack = applyAll(ehHistory.undo(), lStack);
+        assertEquals(lThree.subList(0, 2), lStack);
+    }
+
+    @Test
+    public void groupsUndoTogether() {
+        EditHistory ehHistory = new EditHistory();
+        Object oGroup = new Object();
+        List<DraggedPoints> lStack = strokes(3);
+        List<DraggedPoints> lStart = lStack;
+        //two erase batches from one drag, each splitting a stroke in two
+        for(int i = 0 ; i < 2 ; i++) {
+            StackEdit seEdit = new StackEdit(new int[] {i}, new DraggedPoints[][] {{lStack.get(i)}}, new DraggedPoints[][] {{stroke(), stroke()}});
+            lStack = seEdit.apply(lStack);
+            ehHistory.record(seEdit, oGroup);
+        }
+        assertEquals(5, lStack.size());
+
+        assertEquals(lStart, applyAll(ehHistory.undo(), lStack));
+        assertFalse(ehHistory.canUndo());
+        assertEquals(lStack, applyAll(ehHistory.redo(), lStart));
+    }
+
+    private static List<DraggedPoints> applyAll(List<StackEdit> lEdits, List<DraggedPoints> lStack) {
+        for(StackEdit seEdit : lEdits) {
+            lStack = seEdit.apply(lStack);
+        }
+        return lStack;
+    }
+
+    private static List<DraggedPoints> strokes(int iStrokes) {
+        List<DraggedPoints> lStrokes = new ArrayList<>();
+        for(int i = 0 ; i < iStrokes ; i++) {
+            lStrokes.add(stroke());
+        }
+        return lStrokes;
+    }
+
+    private static DraggedPoints stroke() {
+        DraggedPoints d = new DraggedPoints(5, Color.RED, false, false);
+        d.addPoint(1, 2);
+        return d;
+    }
+}